@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.benchmarks;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cloudera.fts.avro.Ascii2AvroItemFn;
+import com.cloudera.fts.avro.AvroItem;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.PItemAttributes2PItemRecordFn;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The reduce-side conversions, one serial number with
+ * {@link RecordShapes#ATTRIBUTES_PER_SERIAL} attributes per invocation
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+  private String serialNum;
+  private List<PItemAttribute> attrs;
+  private Pair<String, Pair<Collection<String>, Collection<String>>> cogroup;
+
+  private PItemAttributes2PItemRecordFn attrs2record;
+  private Ascii2AvroItemFn ascii2item;
+
+  @Setup
+  public void setup() {
+    serialNum = RecordShapes.serialNum(1);
+    List<String> lines = RecordShapes.attributeLines(serialNum,
+        RecordShapes.ATTRIBUTES_PER_SERIAL, new Random(42));
+    attrs = RecordShapes.attributes(lines);
+    Collection<String> events = ImmutableList.of(RecordShapes.eventLine(serialNum,
+        RecordShapes.ATTRIBUTES_PER_SERIAL));
+    cogroup = Pair.of(serialNum, Pair.<Collection<String>, Collection<String>> of(
+        events, lines));
+    attrs2record = new PItemAttributes2PItemRecordFn();
+    ascii2item = new Ascii2AvroItemFn();
+  }
+
+  @Benchmark
+  public PItemRecord pItemAttributes2PItemRecord() {
+    return attrs2record.map(serialNum, attrs);
+  }
+
+  @Benchmark
+  public void ascii2AvroItem(final Blackhole bh) {
+    ascii2item.process(cogroup, new Emitter<AvroItem>() {
+      @Override
+      public void emit(AvroItem emitted) {
+        bh.consume(emitted);
+      }
+
+      @Override
+      public void flush() {
+      }
+    });
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.io.BytesWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.fts.hive.PItemRecordSerDe;
+import com.cloudera.fts.hive.ProtobufSerDe;
+import com.cloudera.fts.proto.Item.PItemRecord;
+
+/**
+ * The Hive deserialization of a serialized {@link PItemRecord}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HiveBenchmark {
+
+  private ProtobufSerDe serDe;
+  private BytesWritable bytes;
+
+  @Setup
+  public void setup() throws SerDeException {
+    String serialNum = RecordShapes.serialNum(1);
+    PItemRecord record = RecordShapes.record(serialNum, RecordShapes.attributeLines(
+        serialNum, RecordShapes.ATTRIBUTES_PER_SERIAL, new Random(42)));
+    serDe = new PItemRecordSerDe();
+    bytes = new BytesWritable(record.toByteArray());
+  }
+
+  @Benchmark
+  public Object protobufSerDeDeserialize() throws SerDeException {
+    return serDe.deserialize(bytes);
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.SplitFactory;
+import com.cloudera.fts.proto.Ascii2PItemAttributeFn;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+
+/**
+ * Parsing of the attribute lines, one line per invocation
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+  private String[] lines;
+  private Text[] texts;
+  private int next;
+
+  private SplitFactory splitFactory;
+  private Ascii2PItemAttributeFn ascii2attr;
+
+  @Setup
+  public void setup() {
+    List<String> all = RecordShapes.attributeLines(RecordShapes.serialNum(1), 1024,
+        new Random(42));
+    lines = all.toArray(new String[all.size()]);
+    texts = new Text[lines.length];
+    for (int i = 0; i < lines.length; i++) {
+      texts[i] = new Text(lines[i]);
+    }
+    splitFactory = new SplitFactory();
+    splitFactory.setType(SplitFactory.Type.ATTRS);
+    ascii2attr = new Ascii2PItemAttributeFn();
+  }
+
+  private int nextIndex() {
+    next = (next + 1) & (1024 - 1);
+    return next;
+  }
+
+  @Benchmark
+  public AbstractAttribsRecord splitFactoryCreate() {
+    return splitFactory.create(lines[nextIndex()]);
+  }
+
+  /**
+   * The reusable record, with the fields a key extractor reads
+   */
+  @Benchmark
+  public void splitFactoryWrap(Blackhole bh) {
+    AbstractAttribsRecord record = splitFactory.wrap(texts[nextIndex()]);
+    bh.consume(record.getSerialNum());
+    bh.consume(record.getSeq());
+  }
+
+  @Benchmark
+  public PItemAttribute ascii2PItemAttributeString() {
+    return ascii2attr.map(lines[nextIndex()]);
+  }
+
+  @Benchmark
+  public PItemAttribute ascii2PItemAttributeText() {
+    return ascii2attr.map(texts[nextIndex()]);
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.LoadPushDown.RequiredField;
+import org.apache.pig.LoadPushDown.RequiredFieldList;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.fts.pig.ProcessSession;
+import com.cloudera.fts.pig.ProjectedProtobufTupleFactory;
+import com.cloudera.fts.pig.ProtobufToPig;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The Pig conversions of a {@link PItemRecord} and the session UDF
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PigBenchmark {
+
+  private static final int SESSION_VIEWS = 500;
+
+  private PItemRecord record;
+  private ProtobufToPig protoToPig;
+  private ProjectedProtobufTupleFactory projected;
+  private ProjectedProtobufTupleFactory narrow;
+  private ProjectedProtobufTupleFactory nested;
+  private byte[] recordBytes;
+  private ProcessSession processSession;
+  private Tuple session;
+
+  @Setup
+  public void setup() throws IOException {
+    String serialNum = RecordShapes.serialNum(1);
+    record = RecordShapes.record(serialNum, RecordShapes.attributeLines(serialNum,
+        RecordShapes.ATTRIBUTES_PER_SERIAL, new Random(42)));
+    protoToPig = new ProtobufToPig();
+    // serial_num and attributes, the usual projection of the queries
+    projected = new ProjectedProtobufTupleFactory(record, new RequiredFieldList(
+        ImmutableList.of(new RequiredField("serial_num", 0, null, (byte) 0),
+            new RequiredField("attributes", 2, null, (byte) 0))));
+    // serial_num and status, the attributes are skipped on the wire
+    narrow = new ProjectedProtobufTupleFactory(record, new RequiredFieldList(
+        ImmutableList.of(new RequiredField("serial_num", 0, null, (byte) 0),
+            new RequiredField("status", 1, null, (byte) 0))));
+    // attributes.name, the other attribute fields are left null
+    nested = new ProjectedProtobufTupleFactory(record, new RequiredFieldList(
+        ImmutableList.of(new RequiredField("attributes", 2,
+            ImmutableList.of(new RequiredField("name", 2, null, (byte) 0)), (byte) 0))));
+    recordBytes = record.toByteArray();
+    processSession = new ProcessSession();
+    session = sessionTuple(new Random(42));
+  }
+
+  /**
+   * @return a bag of (timestamp, page) views in reverse time order, the input
+   *         of {@link ProcessSession}
+   */
+  private static Tuple sessionTuple(Random random) throws IOException {
+    TupleFactory tf = TupleFactory.getInstance();
+    DataBag views = BagFactory.getInstance().newDefaultBag();
+    long timestamp = RecordShapes.BASE_SEQ + SESSION_VIEWS * 60L;
+    for (int i = 0; i < SESSION_VIEWS; i++) {
+      timestamp -= 1 + random.nextInt(120);
+      Tuple view = tf.newTuple(2);
+      view.set(0, Long.toString(timestamp));
+      view.set(1, "/page/" + random.nextInt(40));
+      views.add(view);
+    }
+    return tf.newTuple((Object) views);
+  }
+
+  @Benchmark
+  public Tuple protobufToPigToTuple() {
+    return protoToPig.toTuple(record);
+  }
+
+  @Benchmark
+  public Tuple projectedNewTuple() throws IOException {
+    return projected.newTuple(record);
+  }
+
+  @Benchmark
+  public Tuple narrowParseNewTuple() throws IOException {
+    return narrow.newTuple(PItemRecord.parseFrom(recordBytes));
+  }
+
+  @Benchmark
+  public Tuple narrowDecodeNewTuple() throws IOException {
+    return narrow.newTuple(recordBytes, 0, recordBytes.length);
+  }
+
+  @Benchmark
+  public Tuple nestedDecodeNewTuple() throws IOException {
+    return nested.newTuple(recordBytes, 0, recordBytes.length);
+  }
+
+  @Benchmark
+  public DataBag processSessionExec() throws IOException {
+    return processSession.exec(session);
+  }
+}
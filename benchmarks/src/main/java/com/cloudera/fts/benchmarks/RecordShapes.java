@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+
+import com.cloudera.fts.proto.Ascii2PItemAttributeFn;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.PItemAttributes2PItemRecordFn;
+import com.google.common.collect.Lists;
+
+/**
+ * Deterministic input shaped like the database dump: serial numbers with a
+ * few hundred attributes each, drawn from a small vocabulary of attribute
+ * names, with values of a few to a few tens of characters.
+ */
+final class RecordShapes {
+
+  static final int ATTRIBUTES_PER_SERIAL = 200;
+  static final int NAMES = 60;
+  static final long BASE_SEQ = 1379546000L;
+
+  private RecordShapes() {
+  }
+
+  static String serialNum(int i) {
+    return String.format("SN%010d", i);
+  }
+
+  /**
+   * @return the {@code serial_num,seq,name,value} lines of a serial number, in
+   *         seq order
+   */
+  static List<String> attributeLines(String serialNum, int count, Random random) {
+    List<String> lines = Lists.newArrayListWithCapacity(count);
+    long seq = BASE_SEQ;
+    for (int i = 0; i < count; i++) {
+      seq += 1 + random.nextInt(600);
+      lines.add(serialNum + "," + seq + ",attr_" + random.nextInt(NAMES) + ","
+          + value(random));
+    }
+    return lines;
+  }
+
+  /**
+   * @return the {@code serial_num,seq,status} event line of a serial number,
+   *         after about three quarters of its attributes
+   */
+  static String eventLine(String serialNum, int count) {
+    return serialNum + "," + (BASE_SEQ + count * 300L * 3 / 4) + ",A";
+  }
+
+  static List<PItemAttribute> attributes(List<String> lines) {
+    Ascii2PItemAttributeFn fn = new Ascii2PItemAttributeFn();
+    List<PItemAttribute> attrs = Lists.newArrayListWithCapacity(lines.size());
+    for (String line : lines) {
+      attrs.add(fn.map(line));
+    }
+    return attrs;
+  }
+
+  static PItemRecord record(String serialNum, List<String> lines) {
+    return new PItemAttributes2PItemRecordFn().map(serialNum, attributes(lines));
+  }
+
+  private static String value(Random random) {
+    int length = 4 + random.nextInt(36);
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      sb.append((char) ('a' + random.nextInt(26)));
+    }
+    return sb.toString();
+  }
+}
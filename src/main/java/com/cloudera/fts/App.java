@@ -14,69 +14,293 @@
  */
 package com.cloudera.fts;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.crunch.CrunchRuntimeException;
 import org.apache.crunch.DoFn;
 import org.apache.crunch.Emitter;
+import org.apache.crunch.FilterFn;
+import org.apache.crunch.GroupingOptions;
 import org.apache.crunch.MapFn;
 import org.apache.crunch.PCollection;
 import org.apache.crunch.PGroupedTable;
 import org.apache.crunch.PTable;
+import org.apache.crunch.Pair;
 import org.apache.crunch.Pipeline;
+import org.apache.crunch.PipelineResult;
+import org.apache.crunch.Target;
+import org.apache.crunch.fn.ExtractKeyFn;
+import org.apache.crunch.fn.IdentityFn;
 import org.apache.crunch.impl.mr.MRPipeline;
 import org.apache.crunch.io.From;
+import org.apache.crunch.io.SequentialFileNamingScheme;
 import org.apache.crunch.io.To;
+import org.apache.crunch.io.impl.FileTargetImpl;
+import org.apache.crunch.lib.Sample;
+import org.apache.crunch.types.PTableType;
 import org.apache.crunch.types.PType;
-import org.apache.crunch.types.PTypes;
 import org.apache.crunch.types.avro.Avros;
-import org.apache.crunch.types.writable.WritableTypeFamily;
 import org.apache.crunch.types.writable.Writables;
+import org.apache.crunch.util.DistCache;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
 import com.cloudera.fts.avro.Ascii2AvroItemFn;
 import com.cloudera.fts.avro.AvroItem;
+import com.cloudera.fts.avro.AvroItemParquetOutputFormat;
+import com.cloudera.fts.avro.EventAttribs2AvroItemFn;
+import com.cloudera.fts.avro.EventPItemAttributes2AvroItemFn;
+import com.cloudera.fts.avro.MapsideEventJoinFn;
+import com.cloudera.fts.avro.MergePartialAvroItemsFn;
+import com.cloudera.fts.avro.TaggedLines2AvroItemFn;
 import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.AttributeProfile;
+import com.cloudera.fts.crunch.BloomFilterFn;
+import com.cloudera.fts.crunch.BuildBloomFilterFn;
+import com.cloudera.fts.crunch.HeavyKeys;
+import com.cloudera.fts.crunch.MergeAttributeProfilesFn;
+import com.cloudera.fts.crunch.MergeBloomFiltersFn;
+import com.cloudera.fts.crunch.MeteredDoFn;
+import com.cloudera.fts.crunch.MeteredMapFn;
+import com.cloudera.fts.crunch.MetricsSummary;
+import com.cloudera.fts.crunch.PartitionedFileTarget;
+import com.cloudera.fts.crunch.SerialBloomFilter;
+import com.cloudera.fts.crunch.SerialNumWritable;
 import com.cloudera.fts.crunch.SplitFactory;
+import com.cloudera.fts.local.LocalRunner;
 import com.cloudera.fts.proto.Ascii2PItemAttributeFn;
+import com.cloudera.fts.proto.CogroupedPItemAttributes2PItemRecordFn;
 import com.cloudera.fts.proto.Item.PItemAttribute;
 import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.LatestAttributesFn;
+import com.cloudera.fts.proto.MergePItemRecordFn;
+import com.cloudera.fts.proto.MergePartialPItemRecordsFn;
+import com.cloudera.fts.proto.MessageStats;
+import com.cloudera.fts.proto.MessageStatsFn;
+import com.cloudera.fts.proto.NameDictionary;
+import com.cloudera.fts.proto.PackedRecords;
+import com.cloudera.fts.proto.PItemAttributePartitionedOutputFormat;
 import com.cloudera.fts.proto.PItemAttributes2PItemRecordFn;
+import com.cloudera.fts.proto.PItemRecordParquetOutputFormat;
+import com.cloudera.fts.proto.PItemRecordPartitionedOutputFormat;
+import com.cloudera.fts.proto.PItemTypes;
+import com.cloudera.fts.proto.UnsplitProtoInputFormat;
+import com.cloudera.fts.proto.PartitionedProtoOutputFormat;
+import com.cloudera.fts.proto.ProfilePItemAttributesFn;
+import com.cloudera.fts.proto.SortedPItemAttributes2PItemRecordFn;
+import com.cloudera.fts.proto.WireUtils;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.protobuf.Message;
 
 /**
  * The main program which invokes the pipelines
  */
 public class App extends Configured implements Tool {
 
+  // the runs of the materialized collections, for the metrics summary
+  private final List<PipelineResult> materializeRuns = Lists.newArrayList();
+
   private App() {
   }
   
-  public transient static final PType<PItemAttribute> daType = PTypes.protos(
-      PItemAttribute.class, WritableTypeFamily.getInstance());
-	public transient static final PType<PItemRecord> drType = PTypes.protos(
-	    PItemRecord.class, WritableTypeFamily.getInstance());
-
-	private transient static final SplitFactory splitFactory = new SplitFactory();
-
-	/*
-	 * private static final GroupingOptions groupingOptions = GroupingOptions
-	 * .builder() .partitionerClass(
-	 * JoinUtils.getPartitionerClass(WritableTypeFamily.getInstance()))
-	 * .groupingComparatorClass(
-	 * JoinUtils.getGroupingComparator(WritableTypeFamily.getInstance()))
-	 * .build();
-	 */
+  /**
+   * The message types, plain {@code BytesWritable}s in the Sequence Files
+   */
+  public transient static final PType<PItemAttribute> daType = PItemTypes.attributes();
+	public transient static final PType<PItemRecord> drType = PItemTypes.records();
+  /**
+   * The serial number keys, packed in a long when they are short alphanumeric
+   */
+  public transient static final PType<String> snType = SerialNumWritable.ptype();
+
+  /**
+   * Set to true to sort the {@code proto} shuffle on (serial_num, seq)
+   */
+  public static final String SECONDARY_SORT = "pa.proto.secondary.sort";
+
+  /**
+   * Set to true to write the {@code proto} records in the packed layout
+   */
+  public static final String PACKED_RECORDS = "pa.proto.packed";
+
+  /**
+   * Set to true to only keep the latest value of each attribute name in the
+   * {@code proto} records
+   */
+  public static final String LATEST = "pa.proto.latest";
+
+  /**
+   * The {@code avro} command loads the event table in memory and joins
+   * map-side when it is not larger than this, 0 to always shuffle both sides
+   */
+  public static final String MAPSIDE_MAX_BYTES = "pa.avro.mapside.max.bytes";
+
+  public static final long DEFAULT_MAPSIDE_MAX_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * The false positive rate of the Bloom filter of event serial numbers used to
+   * drop attributes before the {@code avro} shuffle join, 0 to disable
+   */
+  public static final String BLOOM_FPP = "pa.avro.bloom.fpp";
+
+  /**
+   * The expected number of events, estimated from the events size by default
+   */
+  public static final String BLOOM_EXPECTED = "pa.avro.bloom.expected";
+
+  /**
+   * The rate at which the serial numbers are sampled to find the heavy ones, 0
+   * disables the skew mitigation
+   */
+  public static final String SKEW_SAMPLE = "pa.skew.sample";
+
+  /**
+   * The estimated number of records above which a serial number is heavy
+   */
+  public static final String SKEW_THRESHOLD = "pa.skew.threshold";
+
+  public static final long DEFAULT_SKEW_THRESHOLD = 1000000L;
+
+  /**
+   * The number of reducers the records of a heavy serial number are spread to
+   */
+  public static final String SKEW_FANOUT = "pa.skew.fanout";
+
+  public static final int DEFAULT_SKEW_FANOUT = 16;
+
+  /**
+   * The format of the {@code avro} and {@code proto} outputs: {@code parquet}
+   * for columnar files, the default is Avro data files and protobuf Sequence
+   * Files respectively
+   */
+  public static final String OUTPUT_FORMAT = "pa.output.format";
+
+  /**
+   * The precision of the HyperLogLog counters of the {@code profile} command
+   */
+  public static final String PROFILE_LOG2M = "pa.profile.log2m";
+
+  public static final int DEFAULT_PROFILE_LOG2M = 14;
+
+  /**
+   * The compression factor of the seq q-digest of the {@code profile} command
+   */
+  public static final String PROFILE_COMPRESSION = "pa.profile.compression";
+
+  public static final double DEFAULT_PROFILE_COMPRESSION = 1000.0;
+
+  /**
+   * The number of threads of the {@code --local} mode, all the cores by default
+   */
+  public static final String LOCAL_THREADS = "pa.local.threads";
+
+  /**
+   * The number of input lines of a {@code --local} task
+   */
+  public static final String LOCAL_CHUNK_LINES = "pa.local.chunk.lines";
+
+  public static final int DEFAULT_LOCAL_CHUNK_LINES = 50000;
+
+  /**
+   * Where to write the JSON summary of the counters of a run, by default
+   * {@code _metrics.json} in the output directory
+   */
+  public static final String METRICS_PATH = "pa.metrics.path";
+
+  /**
+   * The attribute name dictionary built by the {@code dict} command; when set,
+   * the attribute names found in it are written as ids
+   */
+  public static final String DICTIONARY_PATH = "pa.dictionary.path";
+
+  /**
+   * The field the {@code text2pb} and {@code proto} outputs are partitioned
+   * on, in {@code <field>=<value>} directories
+   */
+  public static final String PARTITION_BY = "pa.partition.by";
+
+  /**
+   * The maximum number of partitions a task of a partitioned output writes
+   */
+  public static final String PARTITION_MAX = "pa.partition.max";
+
+  public static final int DEFAULT_PARTITION_MAX = 1000;
+
+  /**
+   * The maximum number of attributes of a {@code proto} record and of
+   * attribute lines an {@code avro} reducer holds in memory, 0 for no limit
+   */
+  public static final String CHUNK_ATTRIBUTES = "pa.chunk.attributes";
+
+  /**
+   * Set to false not to write the {@code _stats.json} sidecar of the
+   * {@code text2pb} and {@code proto} outputs
+   */
+  public static final String STATS = "pa.stats";
+
+  private static final String STATS_DIR = "_stats";
 
 	private static class SerialNumFn extends MapFn<String, String> {
 		private static final long serialVersionUID = 5670412215095296207L;
+		private final SplitFactory splitFactory = new SplitFactory();
 		@Override
 		public String map(String input) {
-			AbstractAttribsRecord record = splitFactory.create(input);
-			return record.getSerialNum();
+			return splitFactory.wrap(input).getSerialNum();
 		}
   }
 
+  private static class AttrNameFn extends DoFn<String, String> {
+    private static final long serialVersionUID = -1946180355316232398L;
+    private final SplitFactory splitFactory = new SplitFactory();
+    AttrNameFn() {
+      splitFactory.setType(SplitFactory.Type.ATTRS);
+    }
+    @Override
+    public void process(String input, Emitter<String> emitter) {
+      if (!input.isEmpty()) {
+        String name = splitFactory.wrap(input).getAttrName();
+        if (name != null && !name.isEmpty()) {
+          emitter.emit(name);
+        }
+      }
+    }
+  }
+
+  /**
+   * Keys the lines on serial number, for the {@code --local} mode
+   */
+  private static class TextSerialNumFn extends MapFn<Text, Pair<String, String>> {
+    private static final long serialVersionUID = -4170713593582265740L;
+    private final SplitFactory splitFactory = new SplitFactory();
+    @Override
+    public Pair<String, String> map(Text input) {
+      return Pair.of(splitFactory.wrap(input).getSerialNum(), input.toString());
+    }
+  }
+
   private static class ExtractSerialNumFn extends MapFn<PItemAttribute, String> {
 		private static final long serialVersionUID = -1623236528589594790L;
 		@Override
@@ -85,6 +309,238 @@ public class App extends Configured implements Tool {
 		}
 	}
 
+  /**
+   * Keys the attributes on serial_num, the heavy serial numbers are salted
+   * round-robin
+   */
+  private static class SaltedSerialNumFn extends MapFn<PItemAttribute, String> {
+    private static final long serialVersionUID = -3957207727694497834L;
+    private final HeavyKeys heavyKeys;
+    private int count;
+
+    public SaltedSerialNumFn(HeavyKeys heavyKeys) {
+      this.heavyKeys = heavyKeys;
+    }
+
+    @Override
+    public String map(PItemAttribute input) {
+      return heavyKeys.salt(input.getSerialNum(), count++);
+    }
+  }
+
+  /**
+   * Keys the one attribute records of the {@code latest} mode, a heavy serial
+   * number is salted on the name so that all the versions of an attribute
+   * meet in the same reducer
+   */
+  private static class LatestKeyFn extends MapFn<PItemAttribute, Pair<String, PItemRecord>> {
+    private static final long serialVersionUID = -5204963391773094751L;
+    private final HeavyKeys heavyKeys;
+
+    public LatestKeyFn(HeavyKeys heavyKeys) {
+      this.heavyKeys = heavyKeys;
+    }
+
+    @Override
+    public Pair<String, PItemRecord> map(PItemAttribute input) {
+      return Pair.of(heavyKeys.salt(input.getSerialNum(),
+          NameDictionary.nameOrId(input).hashCode()), LatestAttributesFn.wrap(input));
+    }
+  }
+
+  private static class PackRecordFn extends MapFn<PItemRecord, PItemRecord> {
+    private static final long serialVersionUID = 2532337850757312207L;
+    @Override
+    public PItemRecord map(PItemRecord input) {
+      return PackedRecords.pack(input);
+    }
+  }
+
+  /**
+   * Keys the attributes on (serial_num, seq), the heavy serial numbers are
+   * salted round-robin. The key is an attribute with no name, that the
+   * shuffle sorts without parsing it.
+   */
+  private static class ExtractSerialNumSeqFn extends MapFn<PItemAttribute, PItemAttribute> {
+    private static final long serialVersionUID = 3388710064958219731L;
+    private final HeavyKeys heavyKeys;
+    private int count;
+
+    public ExtractSerialNumSeqFn(HeavyKeys heavyKeys) {
+      this.heavyKeys = heavyKeys;
+    }
+
+    @Override
+    public PItemAttribute map(PItemAttribute input) {
+      return PItemAttribute.newBuilder().setSerialNum(heavyKeys.salt(input.getSerialNum(),
+          count++)).setSeq(input.getSeq()).setName("").build();
+    }
+  }
+
+  /**
+   * Keys the attribute lines on serial number, the heavy serial numbers are
+   * salted on the attribute name
+   */
+  private static class SaltedAttrKeyFn extends DoFn<String, Pair<String, String>> {
+    private static final long serialVersionUID = 5195781634049738711L;
+    private final HeavyKeys heavyKeys;
+    private final SplitFactory splitFactory = new SplitFactory();
+
+    public SaltedAttrKeyFn(HeavyKeys heavyKeys) {
+      this.heavyKeys = heavyKeys;
+      splitFactory.setType(SplitFactory.Type.ATTRS);
+    }
+
+    @Override
+    public void process(String input, Emitter<Pair<String, String>> emitter) {
+      AbstractAttribsRecord record = splitFactory.wrap(input);
+      emitter.emit(Pair.of(heavyKeys.salt(record.getSerialNum(),
+          record.getTokenizer().getNameHash()), input));
+    }
+  }
+
+  /**
+   * Keys the event lines on serial number, the events of heavy serial numbers
+   * are replicated to every salt
+   */
+  private static class SaltedEventKeyFn extends DoFn<String, Pair<String, String>> {
+    private static final long serialVersionUID = -1045870152658209562L;
+    private final HeavyKeys heavyKeys;
+    private final SplitFactory splitFactory = new SplitFactory();
+
+    public SaltedEventKeyFn(HeavyKeys heavyKeys) {
+      this.heavyKeys = heavyKeys;
+    }
+
+    @Override
+    public void process(String input, Emitter<Pair<String, String>> emitter) {
+      String serialNum = splitFactory.wrap(input).getSerialNum();
+      if (heavyKeys.contains(serialNum)) {
+        for (int i = 0; i < heavyKeys.getFanout(); i++) {
+          emitter.emit(Pair.of(heavyKeys.salt(serialNum, i), input));
+        }
+      } else {
+        emitter.emit(Pair.of(serialNum, input));
+      }
+    }
+  }
+
+  /**
+   * Prefixes the lines of one side of the {@code avro} join with a tag
+   */
+  private static class TagLineFn extends MapFn<Pair<String, String>, Pair<String, String>> {
+    private static final long serialVersionUID = -2530764217709874519L;
+    private final char tag;
+
+    public TagLineFn(char tag) {
+      this.tag = tag;
+    }
+
+    @Override
+    public Pair<String, String> map(Pair<String, String> input) {
+      return Pair.of(input.first(), tag + input.second());
+    }
+  }
+
+  private static class RecordSerialNumFn extends MapFn<PItemRecord, String> {
+    private static final long serialVersionUID = 2368170839196880313L;
+    @Override
+    public String map(PItemRecord input) {
+      return input.getSerialNum();
+    }
+  }
+
+  private static class ItemSerialNumFn extends MapFn<AvroItem, String> {
+    private static final long serialVersionUID = -8802693286934412916L;
+    @Override
+    public String map(AvroItem input) {
+      return input.getSerialNum().toString();
+    }
+  }
+
+  private static class ItemSerialNumSeqFn extends MapFn<AvroItem, Pair<String, Long>> {
+    private static final long serialVersionUID = 6117530815394683380L;
+    @Override
+    public Pair<String, Long> map(AvroItem input) {
+      return Pair.of(input.getSerialNum().toString(), input.getSeq());
+    }
+  }
+
+  /**
+   * Selects the partial (or whole) results, depending on whether the serial
+   * number is heavy
+   */
+  private static class HeavyKeyFilterFn<T> extends FilterFn<T> {
+    private static final long serialVersionUID = 4780224405826010946L;
+    private final MapFn<T, String> keyFn;
+    private final HeavyKeys heavyKeys;
+    private final boolean heavy;
+
+    public HeavyKeyFilterFn(MapFn<T, String> keyFn, HeavyKeys heavyKeys, boolean heavy) {
+      this.keyFn = keyFn;
+      this.heavyKeys = heavyKeys;
+      this.heavy = heavy;
+    }
+
+    @Override
+    public boolean accept(T input) {
+      return heavyKeys.contains(keyFn.map(input)) == heavy;
+    }
+  }
+
+  private static class MinCountFn extends FilterFn<Pair<String, Long>> {
+    private static final long serialVersionUID = -5360150212694838418L;
+    private final long minCount;
+
+    public MinCountFn(long minCount) {
+      this.minCount = minCount;
+    }
+
+    @Override
+    public boolean accept(Pair<String, Long> input) {
+      return input.second() >= minCount;
+    }
+  }
+
+  private static class PeekSerialNumFn extends MapFn<ByteBuffer, String> {
+    private static final long serialVersionUID = -4381795409413553713L;
+    @Override
+    public String map(ByteBuffer input) {
+      return WireUtils.peekSerialNum(input);
+    }
+  }
+
+  /**
+   * Selects the serialized records whose serial number is (or is not) in the
+   * set of serial numbers shipped through the distributed cache
+   */
+  private static class SerialNumSetFilterFn extends FilterFn<ByteBuffer> {
+    private static final long serialVersionUID = 7109472652846637412L;
+    private final String path;
+    private final boolean member;
+    private transient Set<String> serialNums;
+
+    public SerialNumSetFilterFn(String path, boolean member) {
+      this.path = path;
+      this.member = member;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void initialize() {
+      try {
+        serialNums = (Set<String>) DistCache.read(getConfiguration(), new Path(path));
+      } catch (IOException e) {
+        throw new CrunchRuntimeException("Cannot read the serial numbers from " + path, e);
+      }
+    }
+
+    @Override
+    public boolean accept(ByteBuffer input) {
+      return serialNums.contains(WireUtils.peekSerialNum(input)) == member;
+    }
+  }
+
   private static class ExtractSeqFn extends DoFn<PItemAttribute, Long> {
 		private static final long serialVersionUID = -1830826167938214704L;
 		@Override
@@ -94,12 +550,336 @@ public class App extends Configured implements Tool {
 		}
 	}
 
+  /**
+   * Sample the serial numbers and report the ones estimated to have more than
+   * the skew threshold records
+   * 
+   * @return the heavy serial numbers, none if the skew mitigation is disabled
+   */
+  private HeavyKeys sampleHeavyKeys(PCollection<String> serialNums) {
+    float rate = getConf().getFloat(SKEW_SAMPLE, 0.0f);
+    int fanout = getConf().getInt(SKEW_FANOUT, DEFAULT_SKEW_FANOUT);
+    if (rate <= 0.0f) {
+      return new HeavyKeys(Collections.<String> emptySet(), fanout);
+    }
+    long threshold = getConf().getLong(SKEW_THRESHOLD, DEFAULT_SKEW_THRESHOLD);
+    Map<String, Long> heavy = Maps.newTreeMap();
+    for (Pair<String, Long> sampled : materialize(Sample.sample(serialNums, rate).count()
+        .filter(new MinCountFn(Math.max(1L, (long) (threshold * rate)))))) {
+      heavy.put(sampled.first(), (long) (sampled.second() / rate));
+    }
+    System.out.println("Heavy serial numbers (estimated records), salted over "
+        + fanout + " reducers: " + heavy.size());
+    for (Map.Entry<String, Long> entry : heavy.entrySet()) {
+      System.out.println("  " + entry.getKey() + "\t" + entry.getValue());
+    }
+    return new HeavyKeys(heavy.keySet(), fanout);
+  }
+
+  /**
+   * Second stage of the skew mitigation for the {@code proto} records
+   */
+  private static PCollection<PItemRecord> mergePartialRecords(
+      PCollection<PItemRecord> records, HeavyKeys heavyKeys, boolean sorted, boolean packed,
+      int maxAttributes) {
+    if (heavyKeys.isEmpty()) {
+      return records;
+    }
+    RecordSerialNumFn keyFn = new RecordSerialNumFn();
+    PCollection<PItemRecord> merged = records
+        .filter("partial_records", new HeavyKeyFilterFn<PItemRecord>(keyFn, heavyKeys, true))
+        .by(keyFn, snType).groupByKey()
+        .parallelDo("merge_partials", new MergePartialPItemRecordsFn(sorted, packed,
+            maxAttributes), drType);
+    return records.filter("whole_records",
+        new HeavyKeyFilterFn<PItemRecord>(keyFn, heavyKeys, false)).union(merged);
+  }
+
+  /**
+   * Second stage of the skew mitigation for the {@code avro} items
+   */
+  private static PCollection<AvroItem> mergePartialItems(
+      PCollection<AvroItem> items, HeavyKeys heavyKeys) {
+    if (heavyKeys.isEmpty()) {
+      return items;
+    }
+    ItemSerialNumFn keyFn = new ItemSerialNumFn();
+    // a serial number has one item per event
+    PCollection<AvroItem> merged = items
+        .filter("partial_items", new HeavyKeyFilterFn<AvroItem>(keyFn, heavyKeys, true))
+        .by(new ItemSerialNumSeqFn(), Avros.pairs(Avros.strings(), Avros.longs()))
+        .groupByKey()
+        .parallelDo("merge_partials", new MergePartialAvroItemsFn(),
+            Avros.records(AvroItem.class));
+    return items.filter("whole_items",
+        new HeavyKeyFilterFn<AvroItem>(keyFn, heavyKeys, false)).union(merged);
+  }
+
+  private static <S, T> DoFn<S, T> metered(String stage, DoFn<S, T> fn) {
+    return new MeteredDoFn<S, T>(stage, fn);
+  }
+
+  private static <S, T> MapFn<S, T> metered(String stage, MapFn<S, T> fn) {
+    return new MeteredMapFn<S, T>(stage, fn);
+  }
+
+  /**
+   * Same as {@code collection.by(stage, keyFn, keyType)} with the key
+   * extraction metered, {@code by} would not clean the metered function up
+   */
+  private static <K, V> PTable<K, V> meteredBy(PCollection<V> collection, String stage,
+      MapFn<V, K> keyFn, PType<K> keyType) {
+    return collection.parallelDo(stage, metered(stage, new ExtractKeyFn<K, V>(keyFn)),
+        collection.getTypeFamily().tableOf(keyType, collection.getPType()));
+  }
+
+  /**
+   * Materialize a collection in a run of its own, whose counters go to the
+   * metrics summary of the command
+   */
+  private <T> Iterable<T> materialize(PCollection<T> collection) {
+    Iterable<T> materialized = collection.materialize();
+    materializeRuns.add(collection.getPipeline().run());
+    return materialized;
+  }
+
+  /**
+   * @return the first of the options that is set to something else than
+   *         false or 0, null if none is
+   */
+  private String firstOptionSet(String... options) {
+    for (String option : options) {
+      String value = getConf().get(option);
+      if (value != null && !value.isEmpty() && !"false".equals(value)
+          && !value.matches("0*(\\.0*)?")) {
+        return option;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Passes the records through a stage that collects their
+   * {@link MessageStats} in the tasks that write them, for
+   * {@link #writeStats(String)} to merge into the sidecar
+   *
+   * @return the records to write
+   */
+  private <T extends Message> PCollection<T> collectStats(PCollection<T> records,
+      Class<T> clazz, String output) {
+    if (!getConf().getBoolean(STATS, true)) {
+      return records;
+    }
+    return records.parallelDo("stats", new MessageStatsFn<T>(clazz, MessageStats.DEFAULT_LOG2M,
+        new Path(output, STATS_DIR).toString()), records.getPType());
+  }
+
+  /**
+   * Adds the messages of each chunk to the stats, then passes them on to the
+   * sink
+   *
+   * @param stats
+   *          null to not collect them
+   */
+  private static <T extends Message> LocalRunner.ChunkSink<T> collectStats(
+      final LocalRunner.ChunkSink<T> sink, final MessageStats stats) {
+    if (stats == null) {
+      return sink;
+    }
+    return new LocalRunner.ChunkSink<T>() {
+      @Override
+      public void write(int chunk, List<T> outputs) throws IOException {
+        if (!outputs.isEmpty()) {
+          MessageStats partial = new MessageStats(outputs.get(0).getDescriptorForType(),
+              MessageStats.DEFAULT_LOG2M);
+          for (T output : outputs) {
+            partial.add(output);
+          }
+          synchronized (stats) {
+            stats.merge(partial);
+          }
+        }
+        sink.write(chunk, outputs);
+      }
+    };
+  }
+
+  /**
+   * Writes the {@code _stats.json} sidecar of a local run
+   *
+   * @param stats
+   *          null if they were not collected
+   */
+  private void writeStats(MessageStats stats, String output) throws IOException {
+    if (stats != null) {
+      Path path = new Path(output, MessageStats.FILE_NAME);
+      stats.write(getConf(), path);
+      System.out.println("Stats written to " + path);
+    }
+  }
+
+  /**
+   * Writes the {@code _stats.json} sidecar from the stats collected by the
+   * pipeline
+   */
+  private void writeStats(String output) throws IOException {
+    Path dir = new Path(output, STATS_DIR);
+    FileSystem fs = dir.getFileSystem(getConf());
+    if (!fs.exists(dir)) {
+      return;
+    }
+    MessageStats merged = null;
+    BytesWritable value = new BytesWritable();
+    for (Path file : listFiles(dir)) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, getConf());
+      try {
+        while (reader.next(NullWritable.get(), value)) {
+          MessageStats stats = MessageStats.fromByteBuffer(
+              ByteBuffer.wrap(value.getBytes(), 0, value.getLength()));
+          if (merged == null) {
+            merged = stats;
+          } else {
+            merged.merge(stats);
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    if (merged != null) {
+      Path path = new Path(output, MessageStats.FILE_NAME);
+      merged.write(getConf(), path);
+      System.out.println("Stats written to " + path);
+    }
+    fs.delete(dir, true);
+  }
+
+  /**
+   * Write the JSON summary of the counters of the run, to
+   * {@code <output>/_metrics.json} unless {@link #METRICS_PATH} is set. The
+   * runs of the materialized collections come first.
+   */
+  private MetricsSummary writeMetrics(String cmd, PipelineResult result, String output)
+      throws IOException {
+    List<PipelineResult> runs = Lists.newArrayList(materializeRuns);
+    runs.add(result);
+    MetricsSummary metrics = MetricsSummary.of(cmd, runs);
+    writeMetrics(metrics, output);
+    return metrics;
+  }
+
+  private void writeMetrics(MetricsSummary metrics, String output) throws IOException {
+    Path path = new Path(getConf().get(METRICS_PATH,
+        new Path(output, "_metrics.json").toString()));
+    metrics.write(getConf(), path);
+    System.out.println("Metrics written to " + path);
+  }
+
+  /**
+   * @return the Parquet target if the {@code parquet} output format is set,
+   *         the default target otherwise
+   */
+  @SuppressWarnings("rawtypes")
+  private Target outputTarget(String output, Target defaultTarget,
+      Class<? extends FileOutputFormat> parquetFormat) {
+    if ("parquet".equals(getConf().get(OUTPUT_FORMAT))) {
+      return new FileTargetImpl(new Path(output), parquetFormat,
+          new SequentialFileNamingScheme());
+    }
+    return defaultTarget;
+  }
+
+  /**
+   * @return the partitioned target if {@link #PARTITION_BY} is set, the
+   *         default target otherwise
+   */
+  @SuppressWarnings("rawtypes")
+  private Target partitionedTarget(String output, Target defaultTarget, Message instance,
+      Class<? extends FileOutputFormat> partitionedFormat) {
+    String field = getConf().get(PARTITION_BY);
+    if (field == null) {
+      return defaultTarget;
+    }
+    if ("parquet".equals(getConf().get(OUTPUT_FORMAT))) {
+      throw new IllegalArgumentException("Parquet files cannot be partitioned");
+    }
+    // fail before running the pipeline if the field does not exist
+    PartitionedProtoOutputFormat.partitionField(instance, field);
+    return new PartitionedFileTarget(new Path(output), partitionedFormat);
+  }
+
+  private static class ProfileReportFn extends DoFn<ByteBuffer, String> {
+    private static final long serialVersionUID = 7946214658011329574L;
+    private static final double[] QUANTILES = { 0.01, 0.25, 0.5, 0.75, 0.99 };
+
+    @Override
+    public void process(ByteBuffer input, Emitter<String> emitter) {
+      AttributeProfile profile = AttributeProfile.fromByteBuffer(input);
+      emitter.emit("attributes\t" + profile.getCount());
+      if (profile.getCount() == 0) {
+        return;
+      }
+      emitter.emit("distinct_serial_nums\t" + profile.getDistinctSerialNums());
+      emitter.emit("distinct_names\t" + profile.getDistinctNames());
+      emitter.emit("seq_min\t" + profile.getMinSeq());
+      emitter.emit("seq_max\t" + profile.getMaxSeq());
+      if (profile.hasSeqQuantiles()) {
+        for (double q : QUANTILES) {
+          emitter.emit("seq_p" + (int) (q * 100) + "\t" + profile.getSeqQuantile(q));
+        }
+      }
+      if (profile.getOutOfRange() > 0) {
+        emitter.emit("seq_out_of_quantiles\t" + profile.getOutOfRange());
+      }
+    }
+  }
+
+  /**
+   * @return the data files under the path, or the path itself if it is a file
+   */
+  private List<Path> listFiles(Path path) throws IOException {
+    FileSystem fs = path.getFileSystem(getConf());
+    List<Path> files = Lists.newArrayList();
+    for (FileStatus status : fs.listStatus(path)) {
+      String name = status.getPath().getName();
+      if (!status.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+        files.add(status.getPath());
+      }
+    }
+    return files;
+  }
+
+  private long totalLength(List<Path> files) throws IOException {
+    long length = 0L;
+    for (Path file : files) {
+      length += file.getFileSystem(getConf()).getFileStatus(file).getLen();
+    }
+    return length;
+  }
+
+  /**
+   * Read the lines of a text file as {@code Text} so that they can be
+   * tokenized without decoding them first
+   */
+  private static PCollection<Text> readLines(Pipeline p, String input) {
+    return p.read(
+        From.formattedFile(input, TextInputFormat.class, LongWritable.class,
+            Text.class)).values();
+  }
+
   private void printUsage() {
     GenericOptionsParser.printGenericCommandUsage(System.err);
-    System.err.println("Basic Usage: [avro,proto,text2pb,count] <inputdir> <outputdir>");
+    System.err.println("Basic Usage: [--local] [avro,proto,proto-merge,text2pb,all,count,profile,dict] <inputdir> <outputdir>");
     System.exit(1);
   }
 
+	private void printMergeUsage() {
+		GenericOptionsParser.printGenericCommandUsage(System.err);
+		System.err
+		    .println("Proto-merge requires one extra argument, the existing records: proto-merge <deltadir> <recordsdir> <outputdir>");
+		System.exit(1);
+	}
+
 	private void printAvroUsage() {
 		GenericOptionsParser.printGenericCommandUsage(System.err);
 		System.err
@@ -107,25 +887,137 @@ public class App extends Configured implements Tool {
 		System.exit(1);
 	}
 
+	private void printAllUsage() {
+		GenericOptionsParser.printGenericCommandUsage(System.err);
+		System.err
+		    .println("All requires one extra argument, the event file name: all <inputdir> <events_file> <outputdir>");
+		System.exit(1);
+	}
+
+  /**
+   * @return the attribute name dictionary, null unless
+   *         {@link #DICTIONARY_PATH} is set
+   */
+  private NameDictionary readDictionary() throws IOException {
+    String path = getConf().get(DICTIONARY_PATH);
+    if (path == null) {
+      return null;
+    }
+    NameDictionary dictionary = NameDictionary.read(getConf(), new Path(path));
+    System.out.println("Attribute names in the dictionary: " + dictionary.size());
+    return dictionary;
+  }
+
+  /**
+   * Run the {@code text2pb}, {@code proto} or {@code avro} command in-process
+   */
+  private int runLocal(String[] args) throws IOException {
+    String cmd = args[0];
+    String input = args[1];
+    String output = args[2];
+    if ("parquet".equals(getConf().get(OUTPUT_FORMAT))) {
+      System.err.println("The local mode only writes the default output formats");
+      return 1;
+    }
+    String unsupported = firstOptionSet(LATEST, SECONDARY_SORT, CHUNK_ATTRIBUTES,
+        PARTITION_BY);
+    if (unsupported != null) {
+      System.err.println("The local mode does not support " + unsupported);
+      return 1;
+    }
+    boolean stats = getConf().getBoolean(STATS, true);
+    NameDictionary dictionary = readDictionary();
+    LocalRunner runner = new LocalRunner(getConf(),
+        getConf().getInt(LOCAL_THREADS, Runtime.getRuntime().availableProcessors()),
+        getConf().getInt(LOCAL_CHUNK_LINES, DEFAULT_LOCAL_CHUNK_LINES));
+    try {
+      List<Path> files = listFiles(new Path(input));
+      if ("text2pb".equals(cmd)) {
+        // map only: each task writes the attributes of its chunk
+        MessageStats attrStats = stats ? new MessageStats(PItemAttribute.getDescriptor(),
+            MessageStats.DEFAULT_LOG2M) : null;
+        runner.parallelDo(files, metered("text2pb", new Ascii2PItemAttributeFn(dictionary)),
+            collectStats(runner.<PItemAttribute> sequenceFileSink(new Path(output)),
+                attrStats));
+        writeStats(attrStats, output);
+      } else if ("proto".equals(cmd)) {
+        List<List<PItemAttribute>> attr = runner.parallelDo(files,
+            metered("ascii2attr", new Ascii2PItemAttributeFn(dictionary)));
+        List<List<Pair<String, PItemAttribute>>> keyed = runner.parallelDo(attr,
+            metered("serial_num", new ExtractKeyFn<String, PItemAttribute>(
+                new ExtractSerialNumFn())));
+        List<List<PItemRecord>> records = runner.reduce(runner.groupByKey(keyed),
+            metered("records_proto", new PItemAttributes2PItemRecordFn(
+                getConf().getBoolean(PACKED_RECORDS, false))));
+        runner.writeSequenceFiles(records, new Path(output));
+        if (stats) {
+          MessageStats recordStats = new MessageStats(PItemRecord.getDescriptor(),
+              MessageStats.DEFAULT_LOG2M);
+          for (List<PItemRecord> partition : records) {
+            for (PItemRecord record : partition) {
+              recordStats.add(record);
+            }
+          }
+          writeStats(recordStats, output);
+        }
+      } else if ("avro".equals(cmd)) {
+        if (args.length < 4) {
+          printAvroUsage();
+          return 1;
+        }
+        List<Path> eventFiles = listFiles(new Path(output));
+        output = args[3];
+        runner.writeAvroFiles(runner.reduce(runner.cogroup(
+            runner.groupByKey(runner.parallelDo(eventFiles,
+                metered("event_key", new TextSerialNumFn()))),
+            runner.groupByKey(runner.parallelDo(files,
+                metered("attr_key", new TextSerialNumFn())))),
+            metered("records_avro", new Ascii2AvroItemFn())), AvroItem.SCHEMA$,
+            new Path(output));
+      } else {
+        System.err.println("Unsupported local command: " + cmd);
+        return 1;
+      }
+      writeMetrics(new MetricsSummary(cmd, true).addStage("local", runner.getCounters()),
+          output);
+    } finally {
+      runner.shutdown();
+    }
+    return 0;
+  }
+
   @Override
   public int run(String[] args) throws Exception {
+    boolean local = args.length > 0 && "--local".equals(args[0]);
+    if (local) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
     if (args.length < 3) {
       printUsage();
       return 1;
     }
+    if (local) {
+      return runLocal(args);
+    }
 
     String cmd = args[0];
     String input = args[1];
     String output = args[2];
 
     System.out.println("App.run -> executing following command: " + cmd);
+    NameDictionary dictionary = readDictionary();
 
 		if ("text2pb".equals(cmd)) {
 			Pipeline p = new MRPipeline(App.class, getConf());
-			p.read(From.textFile(input))
-          .parallelDo("text2pb", new Ascii2PItemAttributeFn(),
-			        daType).write(To.sequenceFile(output));
-			p.done();
+			PCollection<PItemAttribute> attr = readLines(p, input)
+          .parallelDo("text2pb", metered("text2pb", new Ascii2PItemAttributeFn(dictionary)),
+			        daType);
+			collectStats(attr, PItemAttribute.class, output).write(partitionedTarget(output,
+			    To.sequenceFile(output), PItemAttribute.getDefaultInstance(),
+			    PItemAttributePartitionedOutputFormat.class));
+			PipelineResult result = p.done();
+			writeStats(output);
+			writeMetrics(cmd, result, output);
 		} else if ("avro".equals(cmd)) {
 			String eventsFile = output;
 			if (args.length < 4) {
@@ -133,31 +1025,240 @@ public class App extends Configured implements Tool {
 				return 1;
 			}
 			output = args[3];
-			Pipeline p = new MRPipeline(App.class, getConf());
-      PTable<String, String> item = p.read(From.textFile(eventsFile)).by(
-          new SerialNumFn(), Writables.strings());
-			PTable<String, String> attrs = p.read(From.textFile(input)).by(new SerialNumFn(), Writables.strings());
-      item.cogroup(attrs)
-          .parallelDo("records_avro", new Ascii2AvroItemFn(),
-              Avros.records(AvroItem.class)).write(To.avroFile(output));
+			MRPipeline p = new MRPipeline(App.class, getConf());
+      List<Path> eventFiles = listFiles(new Path(eventsFile));
+      long eventsLength = totalLength(eventFiles);
+      long mapsideMaxBytes = getConf().getLong(MAPSIDE_MAX_BYTES,
+          DEFAULT_MAPSIDE_MAX_BYTES);
+      PCollection<String> attrLines = p.read(From.textFile(input));
+      HeavyKeys heavyKeys = sampleHeavyKeys(attrLines.parallelDo(
+          "sample_serial_num", new SerialNumFn(), Writables.strings()));
+      int maxInMemory = getConf().getInt(CHUNK_ATTRIBUTES, 0);
+      PCollection<AvroItem> items;
+      if (mapsideMaxBytes > 0 && eventsLength <= mapsideMaxBytes) {
+        // The event table fits in memory: join map-side and only shuffle the
+        // attributes that are kept
+        List<String> eventNames = Lists.newArrayList();
+        for (Path eventFile : eventFiles) {
+          DistCache.addCacheFile(eventFile, p.getConfiguration());
+          eventNames.add(eventFile.getName());
+        }
+        items = attrLines
+            .parallelDo("mapside_join", metered("mapside_join",
+                new MapsideEventJoinFn(eventNames, heavyKeys)),
+                Writables.tableOf(snType, Writables.strings()))
+            .groupByKey()
+            .parallelDo("records_avro", metered("records_avro",
+                new EventAttribs2AvroItemFn(eventNames, maxInMemory, heavyKeys)),
+                Avros.records(AvroItem.class));
+      } else {
+        PTable<String, String> item = p.read(From.textFile(eventsFile))
+            .parallelDo("event_key", metered("event_key", new SaltedEventKeyFn(heavyKeys)),
+                Writables.tableOf(snType, Writables.strings()));
+        float fpp = getConf().getFloat(BLOOM_FPP, 0.0f);
+        if (fpp > 0.0f) {
+          // Semi-join: a first job builds a Bloom filter of the event serial
+          // numbers, the attributes with no event are dropped before the shuffle
+          long expected = getConf().getLong(BLOOM_EXPECTED,
+              Math.max(1024L, eventsLength / 12));
+          ByteBuffer bloom = Iterables.getOnlyElement(materialize(p
+              .read(From.textFile(eventsFile))
+              .parallelDo("bloom_build", new BuildBloomFilterFn(expected, fpp),
+                  Writables.tableOf(Writables.ints(), Writables.bytes()))
+              .groupByKey(1).combineValues(new MergeBloomFiltersFn()).values()));
+          String bloomPath = new Path(p.createTempPath(), "events-bloom").toString();
+          DistCache.write(p.getConfiguration(), new Path(bloomPath),
+              SerialBloomFilter.fromByteBuffer(bloom));
+          attrLines = attrLines.filter("bloom_filter", new BloomFilterFn(bloomPath));
+        }
+        PTable<String, String> attrs = attrLines.parallelDo("attr_key",
+            metered("attr_key", new SaltedAttrKeyFn(heavyKeys)),
+            Writables.tableOf(snType, Writables.strings()));
+        if (maxInMemory > 0) {
+          // the cogroup holds all the lines of a serial number in memory: the
+          // tagged lines of both sides are grouped and the attributes are
+          // sorted on the local disks
+          PTableType<String, String> taggedType = Writables.tableOf(snType, Writables.strings());
+          items = item.parallelDo("event_tag",
+              new TagLineFn(TaggedLines2AvroItemFn.EVENT_TAG), taggedType)
+              .union(attrs.parallelDo("attr_tag",
+                  new TagLineFn(TaggedLines2AvroItemFn.ATTRIBUTE_TAG), taggedType))
+              .groupByKey()
+              .parallelDo("records_avro",
+                  metered("records_avro", new TaggedLines2AvroItemFn(maxInMemory, heavyKeys)),
+                  Avros.records(AvroItem.class));
+        } else {
+          items = item.cogroup(attrs)
+              .parallelDo("records_avro", metered("records_avro",
+                  new Ascii2AvroItemFn(heavyKeys)),
+                  Avros.records(AvroItem.class));
+        }
+      }
+      mergePartialItems(items, heavyKeys).write(outputTarget(output,
+          To.avroFile(output), AvroItemParquetOutputFormat.class));
 			/* .write(To.textFile(output)); */
-			p.done();
+			writeMetrics(cmd, p.done(), output);
 		} else if ("proto".equals(cmd)) {
       Pipeline p = new MRPipeline(App.class, getConf());
-      PCollection<PItemAttribute> attr = p.read(From.textFile(input))
-          .parallelDo("ascii2attr", new Ascii2PItemAttributeFn(), daType);
-      PGroupedTable<String, PItemAttribute> grouped = attr.by("serial_num",
-          new ExtractSerialNumFn(), Writables.strings()).groupByKey();
-      PCollection<PItemRecord> out = grouped.parallelDo("records_proto",
-          new PItemAttributes2PItemRecordFn(), drType);
-      System.out.println("Total output records: " + out.getSize());
-      p.write(out, To.sequenceFile(output));
-      p.done();
+      PCollection<PItemAttribute> attr = readLines(p, input)
+          .parallelDo("ascii2attr", metered("ascii2attr", new Ascii2PItemAttributeFn(dictionary)), daType);
+      HeavyKeys heavyKeys = sampleHeavyKeys(attr.parallelDo(
+          "sample_serial_num", new ExtractSerialNumFn(), Writables.strings()));
+      PCollection<PItemRecord> out;
+      boolean sorted = getConf().getBoolean(SECONDARY_SORT, false);
+      boolean packed = getConf().getBoolean(PACKED_RECORDS, false);
+      boolean latest = getConf().getBoolean(LATEST, false);
+      int maxAttributes = getConf().getInt(CHUNK_ATTRIBUTES, 0);
+      if (latest) {
+        // the combiner drops the superseded versions before the shuffle
+        out = attr.parallelDo("latest_key", metered("latest_key", new LatestKeyFn(heavyKeys)),
+            Writables.tableOf(snType, drType))
+            .groupByKey().combineValues(new LatestAttributesFn()).values();
+        if (packed) {
+          out = out.parallelDo("pack", new PackRecordFn(), drType);
+        }
+        // the latest records are in seq order as well
+        sorted = true;
+      } else if (sorted) {
+        PGroupedTable<PItemAttribute, PItemAttribute> grouped = meteredBy(attr,
+            "serial_num_seq", new ExtractSerialNumSeqFn(heavyKeys), PItemTypes.attributeKeys())
+            .groupByKey(PItemTypes.sortedBySeq());
+        out = grouped.parallelDo("records_proto",
+            metered("records_proto", new SortedPItemAttributes2PItemRecordFn(packed,
+                maxAttributes, heavyKeys)), drType);
+      } else {
+        PGroupedTable<String, PItemAttribute> grouped = meteredBy(attr, "serial_num",
+            new SaltedSerialNumFn(heavyKeys), snType)
+            .groupByKey();
+        out = grouped.parallelDo("records_proto",
+            metered("records_proto", new PItemAttributes2PItemRecordFn(packed,
+                maxAttributes, heavyKeys)), drType);
+      }
+      // a pass-through stage counts the records that are written
+      out = mergePartialRecords(out, heavyKeys, sorted, packed, maxAttributes).parallelDo("output",
+          metered("output", IdentityFn.<PItemRecord> getInstance()), drType);
+      p.write(collectStats(out, PItemRecord.class, output), partitionedTarget(output,
+          outputTarget(output, To.sequenceFile(output), PItemRecordParquetOutputFormat.class),
+          PItemRecord.getDefaultInstance(), PItemRecordPartitionedOutputFormat.class));
+      PipelineResult result = p.done();
+      writeStats(output);
+      MetricsSummary metrics = writeMetrics(cmd, result, output);
+      System.out.println("Total output records: "
+          + metrics.getStageCount("output", MeteredDoFn.OUT));
+    } else if ("proto-merge".equals(cmd)) {
+      String records = output;
+      if (args.length < 4) {
+        printMergeUsage();
+        return 1;
+      }
+      output = args[3];
+      MRPipeline p = new MRPipeline(App.class, getConf());
+      PTable<String, PItemAttribute> delta = meteredBy(readLines(p, input)
+          .parallelDo("ascii2attr", metered("ascii2attr", new Ascii2PItemAttributeFn(dictionary)), daType),
+          "serial_num", new ExtractSerialNumFn(), snType);
+      // First job: the (small) set of serial numbers touched by the delta
+      Set<String> serialNums = Sets.newHashSet(materialize(delta.keys().count().keys()));
+      System.out.println("Serial numbers in the delta: " + serialNums.size());
+      String serialNumsPath = new Path(p.createTempPath(), "delta-serials").toString();
+      DistCache.write(p.getConfiguration(), new Path(serialNumsPath), serialNums);
+      // Second job: the untouched records are copied in the mappers, only the
+      // touched ones are shuffled and merged with the delta
+      int maxAttributes = getConf().getInt(CHUNK_ATTRIBUTES, 0);
+      // the chunks of a record are written one after the other: a base file is
+      // read whole so that the untouched chunks stay together in one output file
+      PCollection<ByteBuffer> base = maxAttributes > 0
+          ? p.read(From.formattedFile(records, UnsplitProtoInputFormat.class,
+              Writables.nulls(), Writables.bytes())).values()
+          : p.read(From.sequenceFile(records, Writables.bytes()));
+      PCollection<ByteBuffer> untouched = base.filter("untouched",
+          new SerialNumSetFilterFn(serialNumsPath, false));
+      PCollection<ByteBuffer> merged = base
+          .filter("touched", new SerialNumSetFilterFn(serialNumsPath, true))
+          .by("serial_num", new PeekSerialNumFn(), snType)
+          .cogroup(delta)
+          .parallelDo("merge_proto", new MergePItemRecordFn(maxAttributes), Writables.bytes());
+      untouched.union(merged).write(To.sequenceFile(output));
+      writeMetrics(cmd, p.done(), output);
     } else if ("count".equals(cmd)) {
       Pipeline p = new MRPipeline(App.class, getConf());
 			p.read(From.sequenceFile(input, daType))
 			    .parallelDo(new ExtractSeqFn(), Writables.longs()).count().write(To.textFile(output));
-      p.done();
+      writeMetrics(cmd, p.done(), output);
+    } else if ("all".equals(cmd)) {
+      // text2pb, proto and avro in one pipeline: the attribute file is parsed
+      // once and a single cogroup with the events feeds both grouped outputs
+      String eventsFile = output;
+      if (args.length < 4) {
+        printAllUsage();
+        return 1;
+      }
+      output = args[3];
+      String unsupported = firstOptionSet(LATEST, SECONDARY_SORT, CHUNK_ATTRIBUTES,
+          PARTITION_BY, SKEW_SAMPLE);
+      if (unsupported != null) {
+        // the shared cogroup holds the attributes of a serial number in memory
+        System.err.println("The all command does not support " + unsupported
+            + ", run text2pb, proto and avro instead");
+        return 1;
+      }
+      Pipeline p = new MRPipeline(App.class, getConf());
+      PCollection<PItemAttribute> attr = readLines(p, input)
+          .parallelDo("ascii2attr", metered("ascii2attr", new Ascii2PItemAttributeFn(dictionary)), daType);
+      String attributes = new Path(output, "attributes").toString();
+      p.write(collectStats(attr, PItemAttribute.class, attributes),
+          To.sequenceFile(attributes));
+      PTable<String, String> events = meteredBy(p.read(From.textFile(eventsFile)),
+          "event_key", new SerialNumFn(), snType);
+      PTable<String, Pair<Collection<String>, Collection<PItemAttribute>>> joined =
+          events.cogroup(meteredBy(attr, "serial_num", new ExtractSerialNumFn(), snType));
+      String records = new Path(output, "records").toString();
+      collectStats(joined.parallelDo("records_proto", metered("records_proto",
+          new CogroupedPItemAttributes2PItemRecordFn(getConf().getBoolean(PACKED_RECORDS, false))),
+          drType), PItemRecord.class, records)
+          .write(outputTarget(records, To.sequenceFile(records),
+              PItemRecordParquetOutputFormat.class));
+      String items = new Path(output, "items").toString();
+      joined.parallelDo("records_avro",
+          metered("records_avro", new EventPItemAttributes2AvroItemFn(dictionary)),
+          Avros.records(AvroItem.class))
+          .write(outputTarget(items, To.avroFile(items), AvroItemParquetOutputFormat.class));
+      PipelineResult result = p.done();
+      writeStats(attributes);
+      writeStats(records);
+      writeMetrics(cmd, result, output);
+    } else if ("dict".equals(cmd)) {
+      // the output is the dictionary file, an existing one is extended
+      Pipeline p = new MRPipeline(App.class, getConf());
+      Set<String> names = Sets.newHashSet(materialize(p.read(From.textFile(input))
+          .parallelDo("attr_name", metered("attr_name", new AttrNameFn()), Writables.strings())
+          .count().keys()));
+      Path dictionaryPath = new Path(output);
+      NameDictionary previous = NameDictionary.read(getConf(), dictionaryPath);
+      NameDictionary extended = previous.extend(names);
+      extended.write(getConf(), dictionaryPath);
+      System.out.println("Attribute names: " + extended.size() + ", "
+          + (extended.size() - previous.size()) + " new");
+      writeMetrics(cmd, p.done(), dictionaryPath.getParent().toString());
+    } else if ("profile".equals(cmd)) {
+      Pipeline p = new MRPipeline(App.class, getConf());
+      PCollection<String> report = p.read(From.sequenceFile(input, daType))
+          .parallelDo("profile", new ProfilePItemAttributesFn(
+              getConf().getInt(PROFILE_LOG2M, DEFAULT_PROFILE_LOG2M),
+              getConf().getFloat(PROFILE_COMPRESSION, (float) DEFAULT_PROFILE_COMPRESSION)),
+              Writables.tableOf(Writables.ints(), Writables.bytes()))
+          .groupByKey(1).combineValues(new MergeAttributeProfilesFn()).values()
+          .parallelDo("profile_report", new ProfileReportFn(), Writables.strings());
+      report.write(To.textFile(output));
+      boolean empty = true;
+      for (String line : materialize(report)) {
+        System.out.println(line);
+        empty = false;
+      }
+      if (empty) {
+        // no task emits a profile without attributes
+        System.out.println("attributes\t0");
+      }
+      writeMetrics(cmd, p.done(), output);
     } else {
       System.err.println("Unknown command: " + args[0]);
       return 1;
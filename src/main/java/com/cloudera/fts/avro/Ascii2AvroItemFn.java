@@ -15,9 +15,7 @@
 package com.cloudera.fts.avro;
 
 import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,12 +24,14 @@ import org.apache.crunch.Emitter;
 import org.apache.crunch.Pair;
 
 import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.HeavyKeys;
+import com.cloudera.fts.crunch.PipelineCounters;
 import com.cloudera.fts.crunch.SplitFactory;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 
 /**
- * Fills the {@link AvroItem} structure with information from the secondary sort
+ * Fills the {@link AvroItem} structures of the events of a serial number from
+ * its cogrouped event and attribute lines, one item per event
  * 
  */
 public class Ascii2AvroItemFn extends DoFn<Pair<String, Pair<Collection<String>, Collection<String>>>, AvroItem> {
@@ -40,42 +40,47 @@ public class Ascii2AvroItemFn extends DoFn<Pair<String, Pair<Collection<String>,
 	private static final Log LOG = LogFactory.getLog(Ascii2AvroItemFn.class);
 
 	private final SplitFactory splitFactory = new SplitFactory();
-  
+	private final AvroItemAssembler assembler = new AvroItemAssembler();
+	private final HeavyKeys heavyKeys;
+
+	public Ascii2AvroItemFn() {
+		this(HeavyKeys.none());
+	}
+
+	/**
+	 * @param heavyKeys
+	 *          the serial numbers whose keys are salted
+	 */
+	public Ascii2AvroItemFn(HeavyKeys heavyKeys) {
+		this.heavyKeys = heavyKeys;
+	}
+
 	@Override
   public void process(Pair<String, Pair<Collection<String>, Collection<String>>> input,
       Emitter<AvroItem> emitter) {
 	  // The first collection is events, the second attributes: need to sort them on seq
-		if (input.second().first().size() < 1)
+		if (input.second().first().size() < 1) {
+			increment(PipelineCounters.REJECTED, "NO_EVENT");
 			return;
-		String eventString = Iterables.getOnlyElement(input.second().first());
+		}
+		// The key may be salted if the serial number is heavy
+		String serialNum = heavyKeys.unsalt(input.first());
 		splitFactory.setType(SplitFactory.Type.EVENT);
-		AbstractAttribsRecord eventRecord = splitFactory.create(eventString);
-		LOG.debug(input.first() + " event: " + eventRecord.toString());
-		assert(eventRecord.getSerialNum().equals(input.first()));
-		if (input.second().second().size() < 1)
-			return;
-		Set<AbstractAttribsRecord> attribs = new TreeSet<AbstractAttribsRecord>();
-		splitFactory.setType(SplitFactory.Type.ATTRS);
-		Map<CharSequence, CharSequence> map = Maps.newHashMap();
-		for (String attrString: input.second().second()) {
-			AbstractAttribsRecord attribsRecord = splitFactory.create(attrString);
-			LOG.debug(input.first() + " attribs: " + attribsRecord.toString());
-			assert(attribsRecord.getSerialNum().equals(input.first()));
-			if (attribsRecord.getSeq() <= eventRecord.getSeq()) {
-				attribs.add(attribsRecord);
-			}
+		List<AbstractAttribsRecord> eventRecords = Lists.newArrayList();
+		for (String eventString : input.second().first()) {
+			AbstractAttribsRecord eventRecord = splitFactory.create(eventString);
+			LOG.debug(serialNum + " event: " + eventRecord.toString());
+			assert(eventRecord.getSerialNum().equals(serialNum));
+			eventRecords.add(eventRecord);
 		}
-		for (AbstractAttribsRecord attribsRecord: attribs) {
-			map.put(attribsRecord.getAttrName(), attribsRecord.getAttrValue());
+		// One item per event, the attributes are applied in a single pass
+		List<AvroItem> items = assembler.assemble(serialNum, eventRecords,
+		    input.second().second());
+		if (items.isEmpty()) {
+			increment(PipelineCounters.REJECTED, "NO_ATTRIBUTES");
 		}
-		if (LOG.isDebugEnabled()) {
-			for (Map.Entry<CharSequence, CharSequence> entry : map.entrySet()) {
-				LOG.debug(input.first() + " map: " + entry.getKey() + "#"
-				    + entry.getValue());
-			}
+		for (AvroItem item : items) {
+			emitter.emit(item);
 		}
-    emitter.emit(AvroItem.newBuilder().setSerialNum(input.first())
-        .setStatus(eventRecord.getStatus())
-		    .setSeq(eventRecord.getSeq()).setAttributes(map).build());
   }
 }
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.avro;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+
+import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.AttributeLineWritable;
+import com.cloudera.fts.crunch.ExternalSorter;
+import com.cloudera.fts.crunch.RecordTokenizer;
+import com.cloudera.fts.crunch.SplitFactory;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Point-in-time join of the events of a serial number with its attributes: the
+ * events and the attributes are walked once, both in seq order, applying the
+ * attributes to a rolling map which is snapshot into an {@link AvroItem} at
+ * each event. Each item holds the latest value of each attribute at the time
+ * of its event, and the cost is linear in the history of the serial number
+ * (after sorting it). The bounded variant sorts the attribute lines with an
+ * {@link ExternalSorter}, so the history does not have to fit in memory.
+ */
+public class AvroItemAssembler implements Serializable {
+  private static final long serialVersionUID = 4626337006522611829L;
+
+  private static final Log LOG = LogFactory.getLog(AvroItemAssembler.class);
+
+  private static final Comparator<AbstractAttribsRecord> EVENT_ORDER = new Comparator<AbstractAttribsRecord>() {
+    @Override
+    public int compare(AbstractAttribsRecord a, AbstractAttribsRecord b) {
+      return ComparisonChain.start().compare(a.getSeq(), b.getSeq()).result();
+    }
+  };
+
+  private static final Comparator<PItemAttribute> ATTRIBUTE_ORDER = new Comparator<PItemAttribute>() {
+    @Override
+    public int compare(PItemAttribute a, PItemAttribute b) {
+      return ComparisonChain.start().compare(a.getSeq(), b.getSeq())
+          .compare(a.getName(), b.getName()).compare(a.getValue(), b.getValue())
+          .result();
+    }
+  };
+
+  private final SplitFactory splitFactory = new SplitFactory();
+
+  public AvroItemAssembler() {
+    splitFactory.setType(SplitFactory.Type.ATTRS);
+  }
+
+  /**
+   * @param serialNum
+   * @param eventRecord
+   * @param attrStrings
+   *          the attribute lines, in any order
+   * @return the item or null if there are no attribute lines
+   */
+  public AvroItem assemble(String serialNum, AbstractAttribsRecord eventRecord,
+      Iterable<String> attrStrings) {
+    return Iterables.getOnlyElement(assemble(serialNum,
+        ImmutableList.of(eventRecord), attrStrings), null);
+  }
+
+  /**
+   * @param serialNum
+   * @param eventRecords
+   *          the events, in any order
+   * @param attrStrings
+   *          the attribute lines, in any order
+   * @return one item per event in seq order, none if there are no attribute
+   *         lines
+   */
+  public List<AvroItem> assemble(String serialNum,
+      List<? extends AbstractAttribsRecord> eventRecords, Iterable<String> attrStrings) {
+    List<AbstractAttribsRecord> events = sortedEvents(eventRecords);
+    if (events.isEmpty()) {
+      return Collections.emptyList();
+    }
+    long lastSeq = events.get(events.size() - 1).getSeq();
+    List<AbstractAttribsRecord> attribs = Lists.newArrayList();
+    boolean empty = true;
+    for (String attrString : attrStrings) {
+      empty = false;
+      // only the attributes that survive the seq filter are copied
+      AbstractAttribsRecord attribsRecord = splitFactory.wrap(attrString);
+      if (attribsRecord.getSeq() <= lastSeq) {
+        assert (attribsRecord.getSerialNum().equals(serialNum));
+        attribs.add(attribsRecord.copy());
+      }
+    }
+    if (empty) {
+      return Collections.emptyList();
+    }
+    Collections.sort(attribs);
+    return walk(serialNum, events, attribs.iterator());
+  }
+
+  /**
+   * Same as {@link #assemble(String, List, Iterable)} with at most
+   * {@code maxInMemory} attribute lines in memory, the others are spilled to
+   * the local disks
+   * 
+   * @param serialNum
+   * @param eventRecords
+   *          the events, in any order
+   * @param attrStrings
+   *          the attribute lines, in any order
+   * @param conf
+   *          the configuration of the local disks
+   * @param maxInMemory
+   * @return one item per event in seq order, none if there are no attribute
+   *         lines
+   */
+  public List<AvroItem> assemble(String serialNum,
+      List<? extends AbstractAttribsRecord> eventRecords, Iterable<String> attrStrings,
+      Configuration conf, int maxInMemory) throws IOException {
+    List<AbstractAttribsRecord> events = sortedEvents(eventRecords);
+    if (events.isEmpty()) {
+      return Collections.emptyList();
+    }
+    long lastSeq = events.get(events.size() - 1).getSeq();
+    ExternalSorter<AttributeLineWritable> sorter = new ExternalSorter<AttributeLineWritable>(
+        conf, AttributeLineWritable.class, maxInMemory);
+    try {
+      boolean empty = true;
+      for (String attrString : attrStrings) {
+        empty = false;
+        AttributeLineWritable line = new AttributeLineWritable(attrString);
+        if (RecordTokenizer.parseSeq(line.getBytes(), 0, line.getLength()) <= lastSeq) {
+          sorter.add(line);
+        }
+      }
+      if (empty) {
+        return Collections.emptyList();
+      }
+      return assembleSorted(serialNum, events, sorter.sorted());
+    } finally {
+      sorter.close();
+    }
+  }
+
+  /**
+   * Same as {@link #assemble(String, List, Iterable)} for attribute lines that
+   * are already in seq order, as they come out of an {@link ExternalSorter} of
+   * {@link AttributeLineWritable}s
+   * 
+   * @param serialNum
+   * @param eventRecords
+   *          the events, in any order
+   * @param sortedLines
+   *          the attribute lines in seq order, the lines after the last event
+   *          are not read
+   * @return one item per event in seq order
+   */
+  public List<AvroItem> assembleSorted(String serialNum,
+      List<? extends AbstractAttribsRecord> eventRecords, final Iterator<? extends Text> sortedLines) {
+    List<AbstractAttribsRecord> events = sortedEvents(eventRecords);
+    if (events.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return walk(serialNum, events, new Iterator<AbstractAttribsRecord>() {
+      @Override
+      public boolean hasNext() {
+        return sortedLines.hasNext();
+      }
+
+      @Override
+      public AbstractAttribsRecord next() {
+        // the walk is done with a record before asking for the next one
+        return splitFactory.wrap(sortedLines.next());
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    });
+  }
+
+  /**
+   * Apply the seq-sorted attributes to the rolling map up to each event
+   */
+  private static List<AvroItem> walk(String serialNum, List<AbstractAttribsRecord> events,
+      Iterator<? extends AbstractAttribsRecord> attribs) {
+    Map<CharSequence, CharSequence> map = Maps.newHashMap();
+    List<AvroItem> items = Lists.newArrayListWithCapacity(events.size());
+    AbstractAttribsRecord pending = attribs.hasNext() ? attribs.next() : null;
+    for (AbstractAttribsRecord event : events) {
+      while (pending != null && pending.getSeq() <= event.getSeq()) {
+        map.put(pending.getAttrName(), pending.getAttrValue());
+        pending = attribs.hasNext() ? attribs.next() : null;
+      }
+      items.add(snapshot(serialNum, event, map));
+    }
+    return items;
+  }
+
+  /**
+   * Same as {@link #assemble(String, List, Iterable)} for already parsed
+   * attributes
+   * 
+   * @param serialNum
+   * @param eventRecords
+   *          the events, in any order
+   * @param attrs
+   *          the attributes, in any order
+   * @return one item per event in seq order, none if there are no attributes
+   */
+  public List<AvroItem> assembleAttributes(String serialNum,
+      List<? extends AbstractAttribsRecord> eventRecords, Iterable<PItemAttribute> attrs) {
+    List<AbstractAttribsRecord> events = sortedEvents(eventRecords);
+    if (events.isEmpty()) {
+      return Collections.emptyList();
+    }
+    long lastSeq = events.get(events.size() - 1).getSeq();
+    List<PItemAttribute> attribs = Lists.newArrayList();
+    boolean empty = true;
+    for (PItemAttribute attr : attrs) {
+      empty = false;
+      if (attr.getSeq() <= lastSeq) {
+        attribs.add(attr);
+      }
+    }
+    if (empty) {
+      return Collections.emptyList();
+    }
+    // same order as the attribute lines: seq, then name and value
+    Collections.sort(attribs, ATTRIBUTE_ORDER);
+    Map<CharSequence, CharSequence> map = Maps.newHashMap();
+    List<AvroItem> items = Lists.newArrayListWithCapacity(events.size());
+    int next = 0;
+    for (AbstractAttribsRecord event : events) {
+      for (; next < attribs.size() && attribs.get(next).getSeq() <= event.getSeq(); next++) {
+        PItemAttribute attr = attribs.get(next);
+        map.put(attr.getName(), attr.getValue());
+      }
+      items.add(snapshot(serialNum, event, map));
+    }
+    return items;
+  }
+
+  private static List<AbstractAttribsRecord> sortedEvents(
+      List<? extends AbstractAttribsRecord> eventRecords) {
+    List<AbstractAttribsRecord> events = Lists.<AbstractAttribsRecord> newArrayList(eventRecords);
+    Collections.sort(events, EVENT_ORDER);
+    return events;
+  }
+
+  private static AvroItem snapshot(String serialNum, AbstractAttribsRecord event,
+      Map<CharSequence, CharSequence> map) {
+    if (LOG.isDebugEnabled()) {
+      for (Map.Entry<CharSequence, CharSequence> entry : map.entrySet()) {
+        LOG.debug(serialNum + "@" + event.getSeq() + " map: " + entry.getKey() + "#"
+            + entry.getValue());
+      }
+    }
+    // the map keeps rolling, each item gets its own copy
+    return AvroItem.newBuilder().setSerialNum(serialNum)
+        .setStatus(event.getStatus()).setSeq(event.getSeq())
+        .setAttributes(Maps.<CharSequence, CharSequence> newHashMap(map)).build();
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.avro;
+
+import java.io.IOException;
+
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import parquet.avro.AvroParquetOutputFormat;
+import parquet.avro.AvroWriteSupport;
+
+/**
+ * Writes the {@link AvroItem}s of a Crunch Avro {@code PCollection} to Parquet
+ * files. The attributes map is stored as a nested column, so the queries only
+ * read the columns they project.
+ * 
+ * Crunch hands the records as {@link AvroWrapper} keys, they are unwrapped for
+ * {@link AvroParquetOutputFormat}, which also commits the job (and writes the
+ * summary metadata file).
+ */
+public class AvroItemParquetOutputFormat extends
+    FileOutputFormat<AvroWrapper<AvroItem>, NullWritable> {
+
+  private final AvroParquetOutputFormat delegate = new AvroParquetOutputFormat();
+
+  @Override
+  public RecordWriter<AvroWrapper<AvroItem>, NullWritable> getRecordWriter(
+      TaskAttemptContext context) throws IOException, InterruptedException {
+    AvroWriteSupport.setSchema(context.getConfiguration(), AvroItem.SCHEMA$);
+    final RecordWriter<Void, IndexedRecord> writer = delegate.getRecordWriter(context);
+    return new RecordWriter<AvroWrapper<AvroItem>, NullWritable>() {
+      @Override
+      public void write(AvroWrapper<AvroItem> key, NullWritable value)
+          throws IOException, InterruptedException {
+        writer.write(null, key.datum());
+      }
+
+      @Override
+      public void close(TaskAttemptContext context) throws IOException,
+          InterruptedException {
+        writer.close(context);
+      }
+    };
+  }
+
+  @Override
+  public synchronized OutputCommitter getOutputCommitter(TaskAttemptContext context)
+      throws IOException {
+    return delegate.getOutputCommitter(context);
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.avro;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.HeavyKeys;
+import com.cloudera.fts.crunch.PipelineCounters;
+import com.cloudera.fts.crunch.SplitFactory;
+import com.google.common.collect.Lists;
+
+/**
+ * Fills the {@link AvroItem} structures from the attribute lines grouped by
+ * serial number, as emitted by {@link MapsideEventJoinFn}, one item per event.
+ * The events are read from the same distributed cache files as the map-side
+ * join. With a maximum number of attribute lines in memory, the lines of a
+ * serial number are sorted on the local disks (see {@link AvroItemAssembler}).
+ */
+public class EventAttribs2AvroItemFn extends DoFn<Pair<String, Iterable<String>>, AvroItem> {
+  private static final long serialVersionUID = -6350418707441367256L;
+
+  private final List<String> eventFiles;
+  private final SplitFactory splitFactory = new SplitFactory();
+  private final AvroItemAssembler assembler = new AvroItemAssembler();
+  private final int maxInMemory;
+  private final HeavyKeys heavyKeys;
+  private transient Map<String, List<String>> events;
+
+  /**
+   * @param eventFiles
+   *          the names of the event files added to the distributed cache
+   * @param maxInMemory
+   *          the maximum number of attribute lines in memory, 0 for no limit
+   * @param heavyKeys
+   *          the serial numbers whose keys are salted
+   */
+  public EventAttribs2AvroItemFn(List<String> eventFiles, int maxInMemory,
+      HeavyKeys heavyKeys) {
+    this.eventFiles = eventFiles;
+    this.maxInMemory = maxInMemory;
+    this.heavyKeys = heavyKeys;
+  }
+
+  @Override
+  public void initialize() {
+    events = MapsideEventJoinFn.readEvents(getConfiguration(), eventFiles);
+  }
+
+  @Override
+  public void process(Pair<String, Iterable<String>> input, Emitter<AvroItem> emitter) {
+    // The key may be salted if the serial number is heavy
+    String serialNum = heavyKeys.unsalt(input.first());
+    List<String> eventLines = events.get(serialNum);
+    if (eventLines == null) {
+      increment(MapsideEventJoinFn.COUNTER_GROUP, "NO_EVENT");
+      return;
+    }
+    List<AbstractAttribsRecord> eventRecords = Lists.newArrayListWithCapacity(eventLines.size());
+    for (String eventString : eventLines) {
+      eventRecords.add(splitFactory.create(eventString));
+    }
+    List<AvroItem> items;
+    if (maxInMemory > 0) {
+      try {
+        items = assembler.assemble(serialNum, eventRecords, input.second(), getConfiguration(),
+            maxInMemory);
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot sort the attributes of " + serialNum, e);
+      }
+    } else {
+      items = assembler.assemble(serialNum, eventRecords, input.second());
+    }
+    if (items.isEmpty()) {
+      increment(PipelineCounters.REJECTED, "NO_ATTRIBUTES");
+    }
+    for (AvroItem item : items) {
+      emitter.emit(item);
+    }
+  }
+}
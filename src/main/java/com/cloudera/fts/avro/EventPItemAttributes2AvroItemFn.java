@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.avro;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.PipelineCounters;
+import com.cloudera.fts.crunch.SplitFactory;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.NameDictionary;
+import com.google.common.collect.Lists;
+
+/**
+ * Joins the events of a serial number with its parsed attributes into one
+ * {@link AvroItem} per event, the cogroup is shared with the
+ * {@code PItemRecord} output. The names of the attributes encoded with a
+ * {@link NameDictionary} are restored.
+ */
+public class EventPItemAttributes2AvroItemFn extends
+    DoFn<Pair<String, Pair<Collection<String>, Collection<PItemAttribute>>>, AvroItem> {
+  private static final long serialVersionUID = 1626478233079452115L;
+
+  private final SplitFactory splitFactory = new SplitFactory();
+  private final AvroItemAssembler assembler = new AvroItemAssembler();
+  private final NameDictionary dictionary;
+
+  public EventPItemAttributes2AvroItemFn() {
+    this(null);
+  }
+
+  /**
+   * @param dictionary
+   *          the dictionary the attributes were encoded with, may be null
+   */
+  public EventPItemAttributes2AvroItemFn(NameDictionary dictionary) {
+    this.dictionary = dictionary;
+    splitFactory.setType(SplitFactory.Type.EVENT);
+  }
+
+  @Override
+  public void process(Pair<String, Pair<Collection<String>, Collection<PItemAttribute>>> input,
+      Emitter<AvroItem> emitter) {
+    if (input.second().first().isEmpty()) {
+      increment(PipelineCounters.REJECTED, "NO_EVENT");
+      return;
+    }
+    List<AbstractAttribsRecord> eventRecords = Lists.newArrayList();
+    for (String eventString : input.second().first()) {
+      eventRecords.add(splitFactory.create(eventString));
+    }
+    Collection<PItemAttribute> attrs = input.second().second();
+    if (dictionary != null) {
+      List<PItemAttribute> resolved = Lists.newArrayListWithCapacity(attrs.size());
+      for (PItemAttribute attr : attrs) {
+        resolved.add(dictionary.resolve(attr));
+      }
+      attrs = resolved;
+    }
+    List<AvroItem> items = assembler.assembleAttributes(input.first(), eventRecords, attrs);
+    if (items.isEmpty()) {
+      increment(PipelineCounters.REJECTED, "NO_ATTRIBUTES");
+    }
+    for (AvroItem item : items) {
+      emitter.emit(item);
+    }
+  }
+}
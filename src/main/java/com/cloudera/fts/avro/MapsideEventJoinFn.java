@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.avro;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.crunch.CrunchRuntimeException;
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.HeavyKeys;
+import com.cloudera.fts.crunch.SplitFactory;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Map-side join of the attribute lines with a small event table. The event
+ * files are shipped through the distributed cache and loaded into a hash keyed
+ * by serial number; the attributes with no event or with a seq past the last
+ * event seq are dropped before the shuffle. The surviving attributes are
+ * emitted keyed by serial number and {@link EventAttribs2AvroItemFn} reads the
+ * events of the group from the same files.
+ * 
+ * A serial number whose attributes are all past its last event still gets one
+ * of them through, so that the reducer emits its items with empty maps as the
+ * shuffle join does.
+ */
+public class MapsideEventJoinFn extends DoFn<String, Pair<String, String>> {
+  private static final long serialVersionUID = 8139582066924316409L;
+
+  private static final Log LOG = LogFactory.getLog(MapsideEventJoinFn.class);
+
+  public static final String COUNTER_GROUP = "MapsideEventJoin";
+
+  private final List<String> eventFiles;
+  private final HeavyKeys heavyKeys;
+  private final SplitFactory splitFactory = new SplitFactory();
+  private transient Map<String, Long> lastSeqs;
+  private transient Set<String> afterEvent;
+
+  /**
+   * @param eventFiles
+   *          the names of the event files added to the distributed cache
+   * @param heavyKeys
+   *          the serial numbers whose keys are salted on the attribute name
+   */
+  public MapsideEventJoinFn(List<String> eventFiles, HeavyKeys heavyKeys) {
+    this.eventFiles = eventFiles;
+    this.heavyKeys = heavyKeys;
+    splitFactory.setType(SplitFactory.Type.ATTRS);
+  }
+
+  /**
+   * @return the event lines of the distributed cache files with one of the
+   *         names, by serial number
+   */
+  static Map<String, List<String>> readEvents(Configuration conf, List<String> eventFiles) {
+    Map<String, List<String>> events = Maps.newHashMap();
+    SplitFactory eventFactory = new SplitFactory();
+    eventFactory.setType(SplitFactory.Type.EVENT);
+    try {
+      FileSystem localFs = FileSystem.getLocal(conf);
+      Path[] localFiles = DistributedCache.getLocalCacheFiles(conf);
+      if (localFiles == null) {
+        throw new CrunchRuntimeException("No event files in the distributed cache");
+      }
+      for (Path localFile : localFiles) {
+        if (!eventFiles.contains(localFile.getName())) {
+          continue;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            localFs.open(localFile), Charsets.UTF_8));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+              continue;
+            }
+            String serialNum = eventFactory.wrap(line).getSerialNum();
+            List<String> lines = events.get(serialNum);
+            if (lines == null) {
+              lines = Lists.newArrayListWithCapacity(1);
+              events.put(serialNum, lines);
+            }
+            lines.add(line);
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    } catch (IOException e) {
+      throw new CrunchRuntimeException("Cannot load the events", e);
+    }
+    LOG.info("Loaded the events of " + events.size() + " serial numbers");
+    return events;
+  }
+
+  @Override
+  public void initialize() {
+    SplitFactory eventFactory = new SplitFactory();
+    eventFactory.setType(SplitFactory.Type.EVENT);
+    lastSeqs = Maps.newHashMap();
+    for (Map.Entry<String, List<String>> entry : readEvents(getConfiguration(), eventFiles)
+        .entrySet()) {
+      long lastSeq = Long.MIN_VALUE;
+      for (String line : entry.getValue()) {
+        lastSeq = Math.max(lastSeq, eventFactory.wrap(line).getSeq());
+      }
+      lastSeqs.put(entry.getKey(), lastSeq);
+    }
+    afterEvent = Sets.newHashSet();
+  }
+
+  @Override
+  public void process(String input, Emitter<Pair<String, String>> emitter) {
+    AbstractAttribsRecord attr = splitFactory.wrap(input);
+    Long lastSeq = lastSeqs.get(attr.getSerialNum());
+    if (lastSeq == null) {
+      increment(COUNTER_GROUP, "NO_EVENT");
+      return;
+    }
+    if (attr.getSeq() > lastSeq) {
+      increment(COUNTER_GROUP, "AFTER_EVENT");
+      // the reducer drops it on the seq, but still knows the serial number has
+      // attributes
+      if (!afterEvent.add(attr.getSerialNum())) {
+        return;
+      }
+    }
+    String key = heavyKeys.salt(attr.getSerialNum(), attr.getTokenizer().getNameHash());
+    emitter.emit(Pair.of(key, input));
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.avro;
+
+import java.util.Map;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Second stage of the skew mitigation: unions the partial attribute maps of an
+ * event of a salted heavy serial number, grouped on (serial_num, seq). The
+ * attributes are salted on their name, so the partial maps have disjoint keys
+ * and no seq comparison is needed.
+ */
+public class MergePartialAvroItemsFn extends
+    DoFn<Pair<Pair<String, Long>, Iterable<AvroItem>>, AvroItem> {
+  private static final long serialVersionUID = -2412440290571577045L;
+
+  public static final String COUNTER_GROUP = "Skew";
+
+  @Override
+  public void process(Pair<Pair<String, Long>, Iterable<AvroItem>> input,
+      Emitter<AvroItem> emitter) {
+    Map<CharSequence, CharSequence> map = Maps.newHashMap();
+    CharSequence status = null;
+    for (AvroItem partial : input.second()) {
+      increment(COUNTER_GROUP, "PARTIAL_ITEMS");
+      // the items may be reused by the framework, copy the strings
+      if (status == null && partial.getStatus() != null) {
+        status = partial.getStatus().toString();
+      }
+      if (partial.getAttributes() != null) {
+        for (Map.Entry<CharSequence, CharSequence> entry : partial.getAttributes().entrySet()) {
+          map.put(entry.getKey().toString(), entry.getValue().toString());
+        }
+      }
+    }
+    increment(COUNTER_GROUP, "MERGED_ITEMS");
+    increment(COUNTER_GROUP, "MERGED_ATTRIBUTES", map.size());
+    emitter.emit(AvroItem.newBuilder().setSerialNum(input.first().first())
+        .setStatus(status).setSeq(input.first().second()).setAttributes(map).build());
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.avro;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.AttributeLineWritable;
+import com.cloudera.fts.crunch.ExternalSorter;
+import com.cloudera.fts.crunch.HeavyKeys;
+import com.cloudera.fts.crunch.PipelineCounters;
+import com.cloudera.fts.crunch.SplitFactory;
+import com.google.common.collect.Lists;
+
+/**
+ * Same as {@link Ascii2AvroItemFn} for the event and attribute lines of a
+ * serial number grouped together, each prefixed with {@link #EVENT_TAG} or
+ * {@link #ATTRIBUTE_TAG}. Unlike the cogroup, which builds the collections of
+ * both sides in memory, the attribute lines are streamed into an
+ * {@link ExternalSorter} that keeps at most {@code maxInMemory} of them in
+ * memory; only the events are held.
+ */
+public class TaggedLines2AvroItemFn extends DoFn<Pair<String, Iterable<String>>, AvroItem> {
+  private static final long serialVersionUID = 2717013815410637129L;
+
+  public static final char EVENT_TAG = 'E';
+  public static final char ATTRIBUTE_TAG = 'A';
+
+  private final SplitFactory splitFactory = new SplitFactory();
+  private final AvroItemAssembler assembler = new AvroItemAssembler();
+  private final int maxInMemory;
+  private final HeavyKeys heavyKeys;
+
+  /**
+   * @param maxInMemory
+   *          the maximum number of attribute lines in memory, 0 for no limit
+   * @param heavyKeys
+   *          the serial numbers whose keys are salted
+   */
+  public TaggedLines2AvroItemFn(int maxInMemory, HeavyKeys heavyKeys) {
+    this.maxInMemory = maxInMemory;
+    this.heavyKeys = heavyKeys;
+    splitFactory.setType(SplitFactory.Type.EVENT);
+  }
+
+  @Override
+  public void process(Pair<String, Iterable<String>> input, Emitter<AvroItem> emitter) {
+    // The key may be salted if the serial number is heavy
+    String serialNum = heavyKeys.unsalt(input.first());
+    List<AbstractAttribsRecord> eventRecords = Lists.newArrayList();
+    ExternalSorter<AttributeLineWritable> sorter = new ExternalSorter<AttributeLineWritable>(
+        getConfiguration(), AttributeLineWritable.class, maxInMemory);
+    try {
+      boolean empty = true;
+      for (String tagged : input.second()) {
+        if (tagged.charAt(0) == EVENT_TAG) {
+          eventRecords.add(splitFactory.create(tagged.substring(1)));
+        } else {
+          empty = false;
+          sorter.add(new AttributeLineWritable(tagged.substring(1)));
+        }
+      }
+      if (eventRecords.isEmpty()) {
+        increment(PipelineCounters.REJECTED, "NO_EVENT");
+        return;
+      }
+      if (empty) {
+        increment(PipelineCounters.REJECTED, "NO_ATTRIBUTES");
+        return;
+      }
+      for (AvroItem item : assembler.assembleSorted(serialNum, eventRecords, sorter.sorted())) {
+        emitter.emit(item);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot sort the attributes of " + serialNum, e);
+    } finally {
+      try {
+        sorter.close();
+      } catch (IOException e) {
+        // the spill files are in the task directories
+      }
+    }
+  }
+}
@@ -18,31 +18,111 @@
  */
 package com.cloudera.fts.crunch;
 
+import org.apache.hadoop.io.Text;
+
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ComparisonChain;
 
 /**
- * 
+ * A {@code serial_num,seq,load} record. A record is either immutable (created
+ * from the already split fields) or a reusable flyweight which is re-pointed at
+ * each new line with {@link #reset(Text)}: the flyweight only keeps the field
+ * offsets computed by a {@link RecordTokenizer} and decodes the strings lazily.
+ * Use {@link #copy()} to keep a flyweight record past the next reset.
  */
 public abstract class AbstractAttribsRecord implements Comparable<AbstractAttribsRecord> {
-	private final String serial_num;
-	private final long seq;
-	protected final String load;
+	private final RecordTokenizer tokenizer;
+	private Text line;
+
+	private String serial_num;
+	private long seq;
+	private String load;
+	private String name;
+	private String value;
 
 	public AbstractAttribsRecord(String[] fields) {
 		super();
 		Preconditions.checkNotNull(fields);
 		Preconditions.checkArgument(fields.length > 2);
+		this.tokenizer = null;
 		this.serial_num = fields[0];
 		this.seq = Long.parseLong(fields[1]);
 		this.load = fields[2];
 	}
 
+	protected AbstractAttribsRecord(String serialNum, long seq, String load) {
+		super();
+		this.tokenizer = null;
+		this.serial_num = serialNum;
+		this.seq = seq;
+		this.load = load;
+	}
+
+	/**
+	 * Create a reusable record, {@link #reset(Text)} has to be called before use
+	 */
+	protected AbstractAttribsRecord() {
+		super();
+		this.tokenizer = new RecordTokenizer();
+	}
+
+	/**
+	 * Re-point the record at a new line
+	 * 
+	 * @param text
+	 * @return this record
+	 */
+	public AbstractAttribsRecord reset(Text text) {
+		return reset(text.getBytes(), 0, text.getLength());
+	}
+
+	/**
+	 * Re-point the record at a new line, the string is encoded into an internal
+	 * buffer
+	 * 
+	 * @param input
+	 * @return this record
+	 */
+	public AbstractAttribsRecord reset(String input) {
+		if (line == null) {
+			line = new Text();
+		}
+		line.set(input);
+		return reset(line);
+	}
+
+	public AbstractAttribsRecord reset(byte[] bytes, int start, int length) {
+		Preconditions.checkState(tokenizer != null, "The record is not reusable");
+		Preconditions.checkArgument(tokenizer.tokenize(bytes, start, length),
+		    "Expected serial_num,seq,load");
+		this.seq = tokenizer.getSeq();
+		this.serial_num = null;
+		this.load = null;
+		this.name = null;
+		this.value = null;
+		return this;
+	}
+
+	/**
+	 * @return the tokenizer with the field offsets, null for immutable records
+	 */
+	public RecordTokenizer getTokenizer() {
+		return tokenizer;
+	}
+
+	/**
+	 * @return an immutable copy of this record
+	 */
+	public abstract AbstractAttribsRecord copy();
+
 	/**
 	 * @return the serial_num
 	 */
 	public String getSerialNum() {
+		if (serial_num == null && tokenizer != null) {
+			serial_num = tokenizer.getSerialNum();
+		}
 		return serial_num;
 	}
 
@@ -57,16 +137,47 @@ public abstract class AbstractAttribsRecord implements Comparable<AbstractAttrib
 	 * @return the load
 	 */
 	protected String getLoad() {
+		if (load == null && tokenizer != null) {
+			load = tokenizer.getLoad();
+		}
 		return load;
 	}
-		public String getName() {
-		return (load == null) ? "N/A" : load.split(",", 2)[0];
+
+	public String getName() {
+		if (name == null) {
+			if (tokenizer != null) {
+				name = tokenizer.getName();
+			} else if (load != null) {
+				int idx = load.indexOf(SplitFactory.SEP);
+				name = (idx < 0) ? load : load.substring(0, idx);
+			} else {
+				name = "N/A";
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * @return the part of the load after the name, empty if there is none
+	 */
+	protected String getValue() {
+		if (value == null) {
+			if (tokenizer != null) {
+				value = tokenizer.getValue();
+			} else if (load != null) {
+				int idx = load.indexOf(SplitFactory.SEP);
+				value = (idx < 0) ? "" : load.substring(idx + 1);
+			} else {
+				value = "N/A";
+			}
+		}
+		return value;
 	}
 
 	@Override
 	public int compareTo(AbstractAttribsRecord o) {
-		return ComparisonChain.start().compare(this.serial_num, o.serial_num)
-		    .compare(this.seq, o.seq).compare(this.load, o.load).result();
+		return ComparisonChain.start().compare(this.getSerialNum(), o.getSerialNum())
+		    .compare(this.seq, o.seq).compare(this.getLoad(), o.getLoad()).result();
 	}
 
 	/**
@@ -76,7 +187,7 @@ public abstract class AbstractAttribsRecord implements Comparable<AbstractAttrib
 	 */
 	@Override
 	public String toString() {
-		return Joiner.on(",").join(serial_num, seq, load);
+		return Joiner.on(",").join(getSerialNum(), seq, getLoad());
 	}
 
 	/**
@@ -26,6 +26,22 @@ public class AttribsRecord extends AbstractAttribsRecord {
 		super(fields);
 	}
 
+	public AttribsRecord(String serialNum, long seq, String load) {
+		super(serialNum, seq, load);
+	}
+
+	/**
+	 * Reusable record
+	 */
+	public AttribsRecord() {
+		super();
+	}
+
+	@Override
+	public AttribsRecord copy() {
+		return new AttribsRecord(getSerialNum(), getSeq(), getLoad());
+	}
+
 	@Override
 	public String getStatus() {
 		/* Should never happen */
@@ -38,7 +54,7 @@ public class AttribsRecord extends AbstractAttribsRecord {
 	 */
 	@Override
 	public String getAttrName() {
-		return (load == null) ? "N/A" : load.split(",", 2)[0];
+		return getName();
 	}
 
 	/**
@@ -46,10 +62,6 @@ public class AttribsRecord extends AbstractAttribsRecord {
 	 */
 	@Override
 	public String getAttrValue() {
-		if (load != null) {
-			String retValue = load.split(",", 2)[1];
-			return (retValue == null) ? "" : retValue;
-		}
-		return "N/A";
+		return getValue();
 	}
 }
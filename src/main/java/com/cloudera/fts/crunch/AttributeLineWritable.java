@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import org.apache.hadoop.io.BinaryComparable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * An attribute line of the dump ordered by seq and then by its bytes, which
+ * is the order of {@link AbstractAttribsRecord} for the lines of one serial
+ * number. The raw comparator parses the seq from the serialized bytes.
+ */
+public class AttributeLineWritable extends Text {
+
+  static {
+    WritableComparator.define(AttributeLineWritable.class, new Comparator());
+  }
+
+  public AttributeLineWritable() {
+  }
+
+  public AttributeLineWritable(String line) {
+    super(line);
+  }
+
+  @Override
+  public int compareTo(BinaryComparable other) {
+    return compare(getBytes(), 0, getLength(), other.getBytes(), 0, other.getLength());
+  }
+
+  static int compare(byte[] b1, int s1, int n1, byte[] b2, int s2, int n2) {
+    long seq1 = RecordTokenizer.parseSeq(b1, s1, n1);
+    long seq2 = RecordTokenizer.parseSeq(b2, s2, n2);
+    if (seq1 != seq2) {
+      return seq1 < seq2 ? -1 : 1;
+    }
+    return WritableComparator.compareBytes(b1, s1, n1, b2, s2, n2);
+  }
+
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(AttributeLineWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      // skip the vint length of the Text
+      int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+      int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+      return AttributeLineWritable.compare(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLog;
+import com.clearspring.analytics.stream.quantile.QDigest;
+import com.google.common.base.Preconditions;
+
+/**
+ * Mergeable sketches of a set of attributes: HyperLogLog counters of the
+ * distinct serial numbers and attribute names, and a q-digest of the seq
+ * values along with the exact count, min and max. Each task builds a partial
+ * profile, the partial profiles are merged map-side with
+ * {@link MergeAttributeProfilesFn}.
+ */
+public class AttributeProfile {
+
+  /**
+   * The seq values the q-digest accepts are in [0, MAX_QUANTILE_SEQ]
+   */
+  public static final long MAX_QUANTILE_SEQ = Long.MAX_VALUE / 2;
+
+  private final HyperLogLog serialNums;
+  private final HyperLogLog names;
+  private QDigest seqs;
+  private long count;
+  private long outOfRange;
+  private long minSeq = Long.MAX_VALUE;
+  private long maxSeq = Long.MIN_VALUE;
+
+  /**
+   * @param log2m
+   *          the precision of the HyperLogLog counters, the relative error is
+   *          about 1.04 / sqrt(2^log2m)
+   * @param compression
+   *          the compression factor of the q-digest, the rank error is about
+   *          log2(max seq) / compression
+   */
+  public AttributeProfile(int log2m, double compression) {
+    this(new HyperLogLog(log2m), new HyperLogLog(log2m), new QDigest(compression));
+  }
+
+  private AttributeProfile(HyperLogLog serialNums, HyperLogLog names, QDigest seqs) {
+    this.serialNums = serialNums;
+    this.names = names;
+    this.seqs = seqs;
+  }
+
+  public void add(String serialNum, String name, long seq) {
+    serialNums.offer(serialNum);
+    names.offer(name);
+    count++;
+    minSeq = Math.min(minSeq, seq);
+    maxSeq = Math.max(maxSeq, seq);
+    if (seq < 0 || seq > MAX_QUANTILE_SEQ) {
+      outOfRange++;
+    } else {
+      seqs.offer(seq);
+    }
+  }
+
+  public void merge(AttributeProfile other) {
+    try {
+      serialNums.addAll(other.serialNums);
+      names.addAll(other.names);
+    } catch (CardinalityMergeException e) {
+      throw new IllegalArgumentException("Profiles of different precisions", e);
+    }
+    seqs = QDigest.unionOf(seqs, other.seqs);
+    count += other.count;
+    outOfRange += other.outOfRange;
+    minSeq = Math.min(minSeq, other.minSeq);
+    maxSeq = Math.max(maxSeq, other.maxSeq);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getDistinctSerialNums() {
+    return serialNums.cardinality();
+  }
+
+  public long getDistinctNames() {
+    return names.cardinality();
+  }
+
+  /**
+   * @return the minimum seq, {@code Long.MAX_VALUE} if the count is 0
+   */
+  public long getMinSeq() {
+    return minSeq;
+  }
+
+  /**
+   * @return the maximum seq, {@code Long.MIN_VALUE} if the count is 0
+   */
+  public long getMaxSeq() {
+    return maxSeq;
+  }
+
+  /**
+   * @return whether some seq values are in the q-digest range, otherwise
+   *         there are no quantiles
+   */
+  public boolean hasSeqQuantiles() {
+    return count > outOfRange;
+  }
+
+  /**
+   * @return the approximate quantile of the seq values in the q-digest range
+   * @throws IllegalStateException
+   *           if there are none, see {@link #hasSeqQuantiles()}
+   */
+  public long getSeqQuantile(double q) {
+    Preconditions.checkArgument(q >= 0.0 && q <= 1.0, "q has to be in [0, 1]");
+    Preconditions.checkState(hasSeqQuantiles(), "No seq value in the quantile range");
+    return seqs.getQuantile(q);
+  }
+
+  /**
+   * @return the number of seq values outside of the q-digest range, which are
+   *         not in the quantiles
+   */
+  public long getOutOfRange() {
+    return outOfRange;
+  }
+
+  public ByteBuffer toByteBuffer() {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeLong(count);
+      out.writeLong(outOfRange);
+      out.writeLong(minSeq);
+      out.writeLong(maxSeq);
+      writeBytes(out, serialNums.getBytes());
+      writeBytes(out, names.getBytes());
+      writeBytes(out, QDigest.serialize(seqs));
+      out.close();
+      return ByteBuffer.wrap(bytes.toByteArray());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static AttributeProfile fromByteBuffer(ByteBuffer input) {
+    ByteBuffer bb = input.duplicate();
+    byte[] buf = new byte[bb.remaining()];
+    bb.get(buf);
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+      long count = in.readLong();
+      long outOfRange = in.readLong();
+      long minSeq = in.readLong();
+      long maxSeq = in.readLong();
+      AttributeProfile profile = new AttributeProfile(
+          HyperLogLog.Builder.build(readBytes(in)),
+          HyperLogLog.Builder.build(readBytes(in)),
+          QDigest.deserialize(readBytes(in)));
+      profile.count = count;
+      profile.outOfRange = outOfRange;
+      profile.minSeq = minSeq;
+      profile.maxSeq = maxSeq;
+      return profile;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Corrupt profile", e);
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.IOException;
+
+import org.apache.crunch.CrunchRuntimeException;
+import org.apache.crunch.FilterFn;
+import org.apache.crunch.util.DistCache;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Drops the lines whose serial number is not in the {@link SerialBloomFilter}
+ * shipped through the distributed cache. The lines are tokenized but the serial
+ * number is not decoded.
+ */
+public class BloomFilterFn extends FilterFn<String> {
+  private static final long serialVersionUID = -7286330880373286337L;
+
+  public static final String COUNTER_GROUP = "BloomFilter";
+
+  private final String path;
+  private final SplitFactory splitFactory = new SplitFactory();
+  private transient SerialBloomFilter filter;
+
+  /**
+   * @param path
+   *          the path the filter was written to with {@link DistCache#write}
+   */
+  public BloomFilterFn(String path) {
+    this.path = path;
+  }
+
+  @Override
+  public void initialize() {
+    try {
+      filter = (SerialBloomFilter) DistCache.read(getConfiguration(), new Path(path));
+    } catch (IOException e) {
+      throw new CrunchRuntimeException("Cannot read the Bloom filter from " + path, e);
+    }
+  }
+
+  @Override
+  public boolean accept(String input) {
+    if (input == null || input.isEmpty()) {
+      return false;
+    }
+    if (filter.mightContain(splitFactory.wrap(input).getTokenizer())) {
+      increment(COUNTER_GROUP, "PASSED");
+      return true;
+    }
+    increment(COUNTER_GROUP, "PRUNED");
+    return false;
+  }
+}
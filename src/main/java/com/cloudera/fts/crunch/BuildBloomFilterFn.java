@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.nio.ByteBuffer;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+/**
+ * Adds the serial numbers of the lines to a partial {@link SerialBloomFilter}
+ * which is emitted once, when the task is done. The partial filters are merged
+ * with {@link MergeBloomFiltersFn}.
+ */
+public class BuildBloomFilterFn extends DoFn<String, Pair<Integer, ByteBuffer>> {
+  private static final long serialVersionUID = 3170069567211532846L;
+
+  private final long expected;
+  private final double fpp;
+  private final SplitFactory splitFactory = new SplitFactory();
+  private transient SerialBloomFilter filter;
+
+  public BuildBloomFilterFn(long expected, double fpp) {
+    this.expected = expected;
+    this.fpp = fpp;
+  }
+
+  @Override
+  public void initialize() {
+    filter = new SerialBloomFilter(expected, fpp);
+  }
+
+  @Override
+  public void process(String input, Emitter<Pair<Integer, ByteBuffer>> emitter) {
+    if (input != null && !input.isEmpty()) {
+      filter.add(splitFactory.wrap(input).getTokenizer());
+    }
+  }
+
+  @Override
+  public void cleanup(Emitter<Pair<Integer, ByteBuffer>> emitter) {
+    emitter.emit(Pair.of(0, filter.toByteBuffer()));
+  }
+}
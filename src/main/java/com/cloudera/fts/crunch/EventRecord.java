@@ -26,11 +26,28 @@ public class EventRecord extends AbstractAttribsRecord {
 		super(fields);
 	}
 
+	public EventRecord(String serialNum, long seq, String load) {
+		super(serialNum, seq, load);
+	}
+
+	/**
+	 * Reusable record
+	 */
+	public EventRecord() {
+		super();
+	}
+
+	@Override
+	public EventRecord copy() {
+		return new EventRecord(getSerialNum(), getSeq(), getLoad());
+	}
+
 	/**
 	 * @return the load
 	 */
 	@Override
   public String getStatus() {
+		String load = getLoad();
 		return (load == null) ? "N/A" : load;
 	}
 
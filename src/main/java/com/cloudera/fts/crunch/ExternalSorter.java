@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.Sorter.RawKeyValueIterator;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+
+/**
+ * Sorts more keys than fit in memory: the keys are sorted in memory up to
+ * {@code maxInMemory} at a time, each sorted run is spilled to a local
+ * Sequence File and the runs are merged with
+ * {@link SequenceFile.Sorter#merge(Path[], boolean, Path)}, which compares the
+ * serialized keys with the raw comparator of the key class. The merged order
+ * has to be the same as the {@code compareTo} order.
+ *
+ * Not thread safe, {@link #close()} deletes the spilled files.
+ */
+public class ExternalSorter<W extends WritableComparable<? super W>> implements Closeable {
+
+  private final Configuration conf;
+  private final Class<W> keyClass;
+  private final int maxInMemory;
+  private final List<W> buffer;
+  private final List<Path> runs = Lists.newArrayList();
+  private FileSystem localFs;
+  private Path spillDir;
+
+  public ExternalSorter(Configuration conf, Class<W> keyClass, int maxInMemory) {
+    this.conf = conf;
+    this.keyClass = keyClass;
+    this.maxInMemory = maxInMemory;
+    this.buffer = Lists.newArrayListWithCapacity(Math.min(maxInMemory, 1024));
+  }
+
+  /**
+   * Add a key, the sorter keeps the instance until it is spilled
+   */
+  public void add(W key) throws IOException {
+    buffer.add(key);
+    if (buffer.size() >= maxInMemory) {
+      spill();
+    }
+  }
+
+  public boolean hasSpilled() {
+    return !runs.isEmpty();
+  }
+
+  /**
+   * @return the keys in order, can only be called once
+   */
+  public Iterator<W> sorted() throws IOException {
+    if (runs.isEmpty()) {
+      Collections.sort(buffer);
+      return buffer.iterator();
+    }
+    if (!buffer.isEmpty()) {
+      spill();
+    }
+    SequenceFile.Sorter sorter = new SequenceFile.Sorter(localFs, keyClass, NullWritable.class,
+        conf);
+    final RawKeyValueIterator merged = sorter.merge(runs.toArray(new Path[runs.size()]), true,
+        new Path(spillDir, "merge"));
+    return new AbstractIterator<W>() {
+      private final DataInputBuffer in = new DataInputBuffer();
+
+      @Override
+      protected W computeNext() {
+        try {
+          if (!merged.next()) {
+            merged.close();
+            return endOfData();
+          }
+          DataOutputBuffer key = merged.getKey();
+          in.reset(key.getData(), key.getLength());
+          W w = ReflectionUtils.newInstance(keyClass, conf);
+          w.readFields(in);
+          return w;
+        } catch (IOException e) {
+          throw new IllegalStateException("Cannot read the merged runs", e);
+        }
+      }
+    };
+  }
+
+  private void spill() throws IOException {
+    if (spillDir == null) {
+      localFs = FileSystem.getLocal(conf);
+      spillDir = new LocalDirAllocator("mapred.local.dir").getLocalPathForWrite(
+          "pa-spill/" + UUID.randomUUID(), conf);
+    }
+    Collections.sort(buffer);
+    Path run = new Path(spillDir, "run-" + runs.size());
+    SequenceFile.Writer writer = SequenceFile.createWriter(localFs, conf, run, keyClass,
+        NullWritable.class);
+    try {
+      for (W key : buffer) {
+        writer.append(key, NullWritable.get());
+      }
+    } finally {
+      writer.close();
+    }
+    runs.add(run);
+    buffer.clear();
+  }
+
+  @Override
+  public void close() throws IOException {
+    buffer.clear();
+    if (spillDir != null) {
+      localFs.delete(spillDir, true);
+    }
+  }
+}
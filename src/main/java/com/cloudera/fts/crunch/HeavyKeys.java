@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The serial numbers that carry too many attributes to be handled by a single
+ * reducer. Their shuffle keys are salted with a suffix so that the records of
+ * one serial number are spread over {@code fanout} reducers; the partial
+ * results are merged in a second stage.
+ */
+public class HeavyKeys implements Serializable {
+  private static final long serialVersionUID = 6712994632873125077L;
+
+  /**
+   * Separates the serial number from the salt. Only the keys of the heavy
+   * serial numbers are unsalted, so other serial numbers may contain it.
+   */
+  public static final char SALT_SEP = '#';
+
+  private final Set<String> keys;
+  private final int fanout;
+
+  public HeavyKeys(Set<String> keys, int fanout) {
+    Preconditions.checkArgument(fanout > 0, "fanout has to be positive");
+    this.keys = ImmutableSet.copyOf(keys);
+    this.fanout = fanout;
+  }
+
+  public boolean contains(String serialNum) {
+    return keys.contains(serialNum);
+  }
+
+  public boolean isEmpty() {
+    return keys.isEmpty();
+  }
+
+  public Set<String> getKeys() {
+    return keys;
+  }
+
+  public int getFanout() {
+    return fanout;
+  }
+
+  /**
+   * @return the serial number with the salt bucket of the hash appended if it
+   *         is heavy, the serial number otherwise
+   */
+  public String salt(String serialNum, int hash) {
+    return salt(serialNum, serialNum, hash);
+  }
+
+  /**
+   * @return the key with the salt bucket of the hash appended if the serial
+   *         number is heavy, the key otherwise
+   */
+  public String salt(String serialNum, String key, int hash) {
+    if (!keys.contains(serialNum)) {
+      return key;
+    }
+    return key + SALT_SEP + ((hash & Integer.MAX_VALUE) % fanout);
+  }
+
+  /**
+   * @return the serial number of a key, with the salt removed only if it is
+   *         the key of a heavy serial number
+   */
+  public String unsalt(String key) {
+    if (keys.isEmpty()) {
+      return key;
+    }
+    int idx = key.lastIndexOf(SALT_SEP);
+    if (idx < 0 || !keys.contains(key.substring(0, idx))) {
+      return key;
+    }
+    return key.substring(0, idx);
+  }
+
+  /**
+   * @return no heavy serial number, for the keys that are never salted
+   */
+  public static HeavyKeys none() {
+    return new HeavyKeys(Collections.<String> emptySet(), 1);
+  }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.nio.ByteBuffer;
+
+import org.apache.crunch.CombineFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+/**
+ * Merges the partial {@link AttributeProfile}s, usable both as a combiner and
+ * a reducer
+ */
+public class MergeAttributeProfilesFn extends CombineFn<Integer, ByteBuffer> {
+  private static final long serialVersionUID = 6409521834407796931L;
+
+  @Override
+  public void process(Pair<Integer, Iterable<ByteBuffer>> input,
+      Emitter<Pair<Integer, ByteBuffer>> emitter) {
+    AttributeProfile merged = null;
+    for (ByteBuffer bb : input.second()) {
+      // the buffers may be reused by the framework, so merge right away
+      AttributeProfile profile = AttributeProfile.fromByteBuffer(bb);
+      if (merged == null) {
+        merged = profile;
+      } else {
+        merged.merge(profile);
+      }
+    }
+    if (merged != null) {
+      emitter.emit(Pair.of(input.first(), merged.toByteBuffer()));
+    }
+  }
+}
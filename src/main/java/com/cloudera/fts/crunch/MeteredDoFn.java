@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Wraps a function of a pipeline stage to publish its input and output record
+ * counts and its processing time in the {@code Stage:<name>} counter group.
+ * The time spent downstream of the emitter (in the fused functions that
+ * follow) is not included. The counts are kept locally and published when the
+ * task is done.
+ */
+public class MeteredDoFn<S, T> extends DoFn<S, T> {
+  private static final long serialVersionUID = -7233853398838209145L;
+
+  public static final String GROUP_PREFIX = "Stage:";
+  public static final String IN = "IN";
+  public static final String OUT = "OUT";
+  public static final String NANOS = "NANOS";
+
+  private final String stage;
+  private final DoFn<S, T> fn;
+  private transient CountingEmitter<T> counting;
+  private transient long in;
+  private transient long nanos;
+
+  public MeteredDoFn(String stage, DoFn<S, T> fn) {
+    this.stage = stage;
+    this.fn = fn;
+  }
+
+  public static String group(String stage) {
+    return GROUP_PREFIX + stage;
+  }
+
+  @Override
+  public void configure(Configuration conf) {
+    fn.configure(conf);
+  }
+
+  @Override
+  public void setContext(TaskInputOutputContext<?, ?, ?, ?> context) {
+    super.setContext(context);
+    fn.setContext(context);
+  }
+
+  @Override
+  public float scaleFactor() {
+    return fn.scaleFactor();
+  }
+
+  @Override
+  public void initialize() {
+    counting = new CountingEmitter<T>();
+    in = 0L;
+    nanos = 0L;
+    fn.initialize();
+  }
+
+  @Override
+  public void process(S input, Emitter<T> emitter) {
+    counting.emitter = emitter;
+    long start = System.nanoTime();
+    fn.process(input, counting);
+    nanos += System.nanoTime() - start;
+    in++;
+  }
+
+  @Override
+  public void cleanup(Emitter<T> emitter) {
+    counting.emitter = emitter;
+    long start = System.nanoTime();
+    fn.cleanup(counting);
+    nanos += System.nanoTime() - start;
+    String group = group(stage);
+    increment(group, IN, in);
+    increment(group, OUT, counting.out);
+    increment(group, NANOS, Math.max(0L, nanos - counting.nanos));
+  }
+
+  /**
+   * Counts the emitted records and the time spent downstream
+   */
+  private static class CountingEmitter<T> implements Emitter<T> {
+    private Emitter<T> emitter;
+    private long out;
+    private long nanos;
+
+    @Override
+    public void emit(T emitted) {
+      out++;
+      long start = System.nanoTime();
+      emitter.emit(emitted);
+      nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void flush() {
+      emitter.flush();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import org.apache.crunch.Emitter;
+import org.apache.crunch.MapFn;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Same as {@link MeteredDoFn} for the {@link MapFn}s, one output per input.
+ * The counts are kept locally and published in {@code cleanup}, so the
+ * metered function has to be the outermost one: a key function is wrapped in
+ * an {@code ExtractKeyFn} first, which does not forward {@code cleanup}.
+ */
+public class MeteredMapFn<S, T> extends MapFn<S, T> {
+  private static final long serialVersionUID = 2291565001946284164L;
+
+  private final String stage;
+  private final MapFn<S, T> fn;
+  private transient long in;
+  private transient long nanos;
+
+  public MeteredMapFn(String stage, MapFn<S, T> fn) {
+    this.stage = stage;
+    this.fn = fn;
+  }
+
+  @Override
+  public void configure(Configuration conf) {
+    fn.configure(conf);
+  }
+
+  @Override
+  public void setContext(TaskInputOutputContext<?, ?, ?, ?> context) {
+    super.setContext(context);
+    fn.setContext(context);
+  }
+
+  @Override
+  public void initialize() {
+    in = 0L;
+    nanos = 0L;
+    fn.initialize();
+  }
+
+  @Override
+  public T map(S input) {
+    long start = System.nanoTime();
+    T output = fn.map(input);
+    nanos += System.nanoTime() - start;
+    in++;
+    return output;
+  }
+
+  @Override
+  public void cleanup(Emitter<T> emitter) {
+    fn.cleanup(emitter);
+    String group = MeteredDoFn.group(stage);
+    increment(group, MeteredDoFn.IN, in);
+    increment(group, MeteredDoFn.OUT, in);
+    increment(group, MeteredDoFn.NANOS, nanos);
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.crunch.Pair;
+import org.apache.crunch.PipelineResult;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The counters of the stages of a run, written as a JSON document:
+ * 
+ * <pre>
+ * {"command": "proto", "succeeded": true,
+ *  "stages": [{"name": "...", "counters": {"group": {"counter": 1}}}],
+ *  "totals": {"group": {"counter": 1}}}
+ * </pre>
+ */
+public class MetricsSummary {
+
+  private final String command;
+  private final boolean succeeded;
+  private final List<Pair<String, Counters>> stages = Lists.newArrayList();
+  private final Counters totals = new Counters();
+
+  public MetricsSummary(String command, boolean succeeded) {
+    this.command = command;
+    this.succeeded = succeeded;
+  }
+
+  /**
+   * @return the summary of the stages of a pipeline run
+   */
+  public static MetricsSummary of(String command, PipelineResult result) {
+    return of(command, Collections.singletonList(result));
+  }
+
+  /**
+   * @return the summary of the stages of the runs of a pipeline, in order
+   */
+  public static MetricsSummary of(String command, List<PipelineResult> results) {
+    boolean succeeded = true;
+    for (PipelineResult result : results) {
+      succeeded &= result.succeeded();
+    }
+    MetricsSummary summary = new MetricsSummary(command, succeeded);
+    for (PipelineResult result : results) {
+      for (PipelineResult.StageResult stage : result.getStageResults()) {
+        summary.addStage(stage.getStageName(), stage.getCounters());
+      }
+    }
+    return summary;
+  }
+
+  public MetricsSummary addStage(String name, Counters counters) {
+    if (counters != null) {
+      stages.add(Pair.of(name, counters));
+      totals.incrAllCounters(counters);
+    }
+    return this;
+  }
+
+  /**
+   * @return the value of a {@link MeteredDoFn} counter, summed over the stages
+   */
+  public long getStageCount(String stage, String counter) {
+    return totals.findCounter(MeteredDoFn.group(stage), counter).getValue();
+  }
+
+  public void write(Configuration conf, Path path) throws IOException {
+    FSDataOutputStream out = path.getFileSystem(conf).create(path, true);
+    try {
+      write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  public void write(OutputStream out) throws IOException {
+    JsonGenerator json = new JsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+    json.useDefaultPrettyPrinter();
+    json.writeStartObject();
+    json.writeStringField("command", command);
+    json.writeBooleanField("succeeded", succeeded);
+    json.writeArrayFieldStart("stages");
+    for (Pair<String, Counters> stage : stages) {
+      json.writeStartObject();
+      json.writeStringField("name", stage.first());
+      json.writeFieldName("counters");
+      writeCounters(json, stage.second());
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+    json.writeFieldName("totals");
+    writeCounters(json, totals);
+    json.writeEndObject();
+    json.flush();
+  }
+
+  private static void writeCounters(JsonGenerator json, Counters counters) throws IOException {
+    json.writeStartObject();
+    for (CounterGroup group : counters) {
+      json.writeObjectFieldStart(group.getName());
+      for (Counter counter : group) {
+        json.writeNumberField(counter.getName(), counter.getValue());
+      }
+      json.writeEndObject();
+    }
+    json.writeEndObject();
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.IOException;
+
+import org.apache.crunch.impl.mr.plan.PlanningParameters;
+import org.apache.crunch.io.SequentialFileNamingScheme;
+import org.apache.crunch.io.impl.FileTargetImpl;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * A file target for the output formats that write one file per partition in
+ * the default work file of the task, taken as a directory: each
+ * {@code out<n>-m-00000/<key>=<value>} file is moved to
+ * {@code <output>/<key>=<value>/part-m-00000}.
+ */
+public class PartitionedFileTarget extends FileTargetImpl {
+
+  @SuppressWarnings("rawtypes")
+  public PartitionedFileTarget(Path path, Class<? extends FileOutputFormat> formatClass) {
+    super(path, formatClass, new SequentialFileNamingScheme());
+  }
+
+  @Override
+  public void handleOutputs(Configuration conf, Path workingPath, int index) throws IOException {
+    String prefix = PlanningParameters.MULTI_OUTPUT_PREFIX + index;
+    FileSystem srcFs = workingPath.getFileSystem(conf);
+    Path pattern = new Path(workingPath, prefix + "-*");
+    FileSystem dstFs = getPath().getFileSystem(conf);
+    dstFs.mkdirs(getPath());
+    for (Path taskDir : FileUtil.stat2Paths(srcFs.globStatus(pattern), pattern)) {
+      // part-m-00000 from out0-m-00000
+      String partName = "part" + taskDir.getName().substring(prefix.length());
+      for (FileStatus file : srcFs.listStatus(taskDir)) {
+        Path partitionDir = new Path(getPath(), file.getPath().getName());
+        dstFs.mkdirs(partitionDir);
+        Path dst = new Path(partitionDir, partName);
+        if (!srcFs.rename(file.getPath(), dst)) {
+          throw new IOException("Cannot move " + file.getPath() + " to " + dst);
+        }
+      }
+    }
+    dstFs.create(new Path(getPath(), "_SUCCESS"), true).close();
+  }
+
+  @Override
+  public String toString() {
+    return "PartitionedTarget(" + getPath() + ")";
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Hive-style partition directories, {@code <key>=<value>}, with the value
+ * escaped the way Hive does and the missing values in the default partition.
+ * An empty value is kept apart from a missing one, in a {@code <key>=}
+ * directory.
+ */
+public class Partitions {
+
+  public static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+  private Partitions() {
+  }
+
+  /**
+   * @return the directory name of the partition, the default partition if the
+   *         value is null
+   */
+  public static String dirName(String key, Object value) {
+    return key + '=' + (value == null ? DEFAULT_PARTITION : escape(value.toString()));
+  }
+
+  /**
+   * @return the key and the value of a partition directory, null if the name
+   *         is not one; the value of the default partition is null, the value
+   *         of a {@code <key>=} directory is empty
+   */
+  public static String[] parse(String dirName) {
+    int eq = dirName.indexOf('=');
+    if (eq <= 0) {
+      return null;
+    }
+    String value = dirName.substring(eq + 1);
+    return new String[] { dirName.substring(0, eq),
+        DEFAULT_PARTITION.equals(value) ? null : unescape(value) };
+  }
+
+  /**
+   * List the partition directories right under a directory
+   *
+   * @return the key and value of each partition directory
+   */
+  public static Map<Path, String[]> list(Configuration conf, Path dir) throws IOException {
+    Map<Path, String[]> partitions = Maps.newTreeMap();
+    FileSystem fs = dir.getFileSystem(conf);
+    if (!fs.exists(dir) || !fs.getFileStatus(dir).isDir()) {
+      return partitions;
+    }
+    for (FileStatus status : fs.listStatus(dir)) {
+      if (status.isDir()) {
+        String[] partition = parse(status.getPath().getName());
+        if (partition != null) {
+          partitions.put(status.getPath(), partition);
+        }
+      }
+    }
+    return partitions;
+  }
+
+  static String escape(String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      // the non-ASCII characters are kept
+      if (c >= 0x80 || Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.') {
+        sb.append(c);
+      } else {
+        sb.append('%').append(String.format("%02X", (int) c));
+      }
+    }
+    return sb.toString();
+  }
+
+  static String unescape(String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '%' && i + 2 < value.length() && isHex(value, i + 1, i + 3)) {
+        sb.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+        i += 2;
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static boolean isHex(String value, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (Character.digit(value.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+/**
+ * The counter groups the functions of the commands publish, besides the
+ * per-stage counts of {@link MeteredDoFn}
+ */
+public final class PipelineCounters {
+
+  /**
+   * Records dropped, by reason
+   */
+  public static final String REJECTED = "Rejected";
+
+  /**
+   * Bytes read and written by the functions
+   */
+  public static final String BYTES = "Bytes";
+
+  /**
+   * Histogram of the number of attributes of each serial number
+   */
+  public static final String ATTRIBUTES_PER_SERIAL = "AttributesPerSerial";
+
+  private static final long[] BOUNDS = { 1L, 10L, 100L, 1000L, 10000L };
+  private static final String[] BUCKETS = { "<=1", "2-10", "11-100", "101-1000",
+      "1001-10000", ">10000" };
+
+  private PipelineCounters() {
+  }
+
+  /**
+   * @return the histogram bucket of a count
+   */
+  public static String bucket(long count) {
+    for (int i = 0; i < BOUNDS.length; i++) {
+      if (count <= BOUNDS[i]) {
+        return BUCKETS[i];
+      }
+    }
+    return BUCKETS[BUCKETS.length - 1];
+  }
+}
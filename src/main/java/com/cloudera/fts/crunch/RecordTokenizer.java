@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.nio.charset.CharacterCodingException;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * A reusable tokenizer for the {@code serial_num,seq,load} lines of the
+ * database dump. It works directly on the UTF-8 bytes (as found in a Hadoop
+ * {@link Text}) and only records the offsets of the fields, so tokenizing a
+ * line does not allocate. The {@code load} is further split on the first
+ * separator into the attribute name and value.
+ *
+ * The tokenizer does not copy the bytes: the slices are valid until the
+ * underlying buffer is modified or the tokenizer is reset.
+ */
+public class RecordTokenizer {
+
+  public static final byte SEP = ',';
+
+  private byte[] bytes;
+  private int end;
+
+  private int serialStart;
+  private int serialEnd;
+  private long seq;
+  private int loadStart;
+  private int nameEnd;
+
+  /**
+   * Tokenize the line
+   *
+   * @param text
+   * @return false if the line has less than three fields
+   */
+  public boolean tokenize(Text text) {
+    return tokenize(text.getBytes(), 0, text.getLength());
+  }
+
+  /**
+   * Tokenize a slice of a byte array
+   *
+   * @param bytes
+   * @param start
+   * @param length
+   * @return false if the line has less than three fields
+   * @throws NumberFormatException
+   *           if the seq field is not a number
+   */
+  public boolean tokenize(byte[] bytes, int start, int length) {
+    this.bytes = bytes;
+    this.end = start + length;
+    this.serialStart = start;
+    this.serialEnd = indexOf(bytes, start, end);
+    if (serialEnd < 0) {
+      return false;
+    }
+    int seqEnd = indexOf(bytes, serialEnd + 1, end);
+    if (seqEnd < 0) {
+      return false;
+    }
+    this.seq = parseLong(bytes, serialEnd + 1, seqEnd);
+    this.loadStart = seqEnd + 1;
+    this.nameEnd = indexOf(bytes, loadStart, end);
+    return true;
+  }
+
+  /**
+   * @return the seq
+   */
+  public long getSeq() {
+    return seq;
+  }
+
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  public int getSerialNumStart() {
+    return serialStart;
+  }
+
+  public int getSerialNumLength() {
+    return serialEnd - serialStart;
+  }
+
+  public int getLoadStart() {
+    return loadStart;
+  }
+
+  public int getLoadLength() {
+    return end - loadStart;
+  }
+
+  public int getNameLength() {
+    return (nameEnd < 0 ? end : nameEnd) - loadStart;
+  }
+
+  /**
+   * @return the start of the value or -1 if the load has no value
+   */
+  public int getValueStart() {
+    return nameEnd < 0 ? -1 : nameEnd + 1;
+  }
+
+  public int getValueLength() {
+    return nameEnd < 0 ? 0 : end - nameEnd - 1;
+  }
+
+  /**
+   * @return a hash of the attribute name bytes
+   */
+  public int getNameHash() {
+    int hash = 1;
+    int stop = loadStart + getNameLength();
+    for (int i = loadStart; i < stop; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    return hash;
+  }
+
+  public String getSerialNum() {
+    return decode(serialStart, getSerialNumLength());
+  }
+
+  public String getLoad() {
+    return decode(loadStart, getLoadLength());
+  }
+
+  public String getName() {
+    return decode(loadStart, getNameLength());
+  }
+
+  /**
+   * @return the value, empty if the load has no value
+   */
+  public String getValue() {
+    return nameEnd < 0 ? "" : decode(nameEnd + 1, getValueLength());
+  }
+
+  private String decode(int start, int length) {
+    try {
+      return Text.decode(bytes, start, length);
+    } catch (CharacterCodingException e) {
+      throw new IllegalArgumentException("Malformed UTF-8 input", e);
+    }
+  }
+
+  /**
+   * Parse the seq of a line without tokenizing the load
+   *
+   * @return the seq
+   * @throws NumberFormatException
+   *           if the line has no seq field or it is not a number
+   */
+  public static long parseSeq(byte[] bytes, int start, int length) {
+    int end = start + length;
+    int serialEnd = indexOf(bytes, start, end);
+    int seqEnd = serialEnd < 0 ? -1 : indexOf(bytes, serialEnd + 1, end);
+    if (seqEnd < 0) {
+      throw new NumberFormatException("No seq field");
+    }
+    return parseLong(bytes, serialEnd + 1, seqEnd);
+  }
+
+  private static int indexOf(byte[] bytes, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (bytes[i] == SEP) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parse a decimal long without building a String, same contract as
+   * {@link Long#parseLong(String)}
+   */
+  static long parseLong(byte[] bytes, int start, int end) {
+    if (start >= end) {
+      throw new NumberFormatException("Empty seq field");
+    }
+    boolean negative = bytes[start] == '-';
+    int i = (negative || bytes[start] == '+') ? start + 1 : start;
+    if (i >= end) {
+      throw new NumberFormatException("No digits in seq field");
+    }
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long multmin = limit / 10;
+    long result = 0;
+    // accumulate negatively to be able to represent Long.MIN_VALUE
+    for (; i < end; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw new NumberFormatException("For seq field: " + new String(bytes, start, end - start));
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw new NumberFormatException("For seq field: " + new String(bytes, start, end - start));
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+}
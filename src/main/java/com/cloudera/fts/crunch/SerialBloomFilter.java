@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A Bloom filter of serial numbers. The serial numbers are hashed from their
+ * UTF-8 bytes, so a tokenized line can be tested without decoding it. Filters
+ * of the same size can be merged, which allows each task to build a partial
+ * filter.
+ */
+public class SerialBloomFilter implements Serializable {
+  private static final long serialVersionUID = -1517640211390565826L;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final long[] bits;
+  private final long numBits;
+  private final int numHashes;
+
+  /**
+   * @param expected
+   *          the expected number of serial numbers
+   * @param fpp
+   *          the desired false positive probability
+   */
+  public SerialBloomFilter(long expected, double fpp) {
+    Preconditions.checkArgument(expected > 0, "expected has to be positive");
+    Preconditions.checkArgument(fpp > 0.0 && fpp < 1.0, "fpp has to be in (0, 1)");
+    long m = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+    this.bits = new long[(int) ((m + 63) / 64)];
+    this.numBits = bits.length * 64L;
+    this.numHashes = Math.max(1, (int) Math.round((double) numBits / expected * Math.log(2)));
+  }
+
+  private SerialBloomFilter(long[] bits, int numHashes) {
+    this.bits = bits;
+    this.numBits = bits.length * 64L;
+    this.numHashes = numHashes;
+  }
+
+  public void add(byte[] bytes, int start, int length) {
+    long hash64 = HASH.hashBytes(bytes, start, length).asLong();
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
+    for (int i = 1; i <= numHashes; i++) {
+      long index = index(hash1 + i * hash2);
+      bits[(int) (index >>> 6)] |= 1L << index;
+    }
+  }
+
+  public boolean mightContain(byte[] bytes, int start, int length) {
+    long hash64 = HASH.hashBytes(bytes, start, length).asLong();
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
+    for (int i = 1; i <= numHashes; i++) {
+      long index = index(hash1 + i * hash2);
+      if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Add the serial number of a tokenized line
+   */
+  public void add(RecordTokenizer tokenizer) {
+    add(tokenizer.getBytes(), tokenizer.getSerialNumStart(), tokenizer.getSerialNumLength());
+  }
+
+  /**
+   * Test the serial number of a tokenized line
+   */
+  public boolean mightContain(RecordTokenizer tokenizer) {
+    return mightContain(tokenizer.getBytes(), tokenizer.getSerialNumStart(),
+        tokenizer.getSerialNumLength());
+  }
+
+  private long index(int combinedHash) {
+    // flip the bits if negative
+    return (combinedHash < 0 ? ~combinedHash : combinedHash) % numBits;
+  }
+
+  /**
+   * OR the other filter into this one
+   */
+  public void merge(SerialBloomFilter other) {
+    Preconditions.checkArgument(other.bits.length == bits.length
+        && other.numHashes == numHashes, "Filters of different sizes");
+    for (int i = 0; i < bits.length; i++) {
+      bits[i] |= other.bits[i];
+    }
+  }
+
+  public long getNumBits() {
+    return numBits;
+  }
+
+  public int getNumHashes() {
+    return numHashes;
+  }
+
+  public ByteBuffer toByteBuffer() {
+    ByteBuffer bb = ByteBuffer.allocate(4 + 8 * bits.length);
+    bb.putInt(numHashes);
+    bb.asLongBuffer().put(bits);
+    bb.rewind();
+    return bb;
+  }
+
+  public static SerialBloomFilter fromByteBuffer(ByteBuffer input) {
+    ByteBuffer bb = input.duplicate();
+    int numHashes = bb.getInt();
+    long[] bits = new long[bb.remaining() / 8];
+    bb.asLongBuffer().get(bits);
+    return new SerialBloomFilter(bits, numHashes);
+  }
+}
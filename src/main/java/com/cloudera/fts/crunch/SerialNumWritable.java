@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.crunch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.crunch.MapFn;
+import org.apache.crunch.types.PType;
+import org.apache.crunch.types.writable.Writables;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A compact shuffle key for the serial numbers. The serial numbers of up to
+ * {@link #MAX_PACKED_LENGTH} upper case letters and digits are packed in base
+ * 37 into a non-negative long, written as 8 bytes, so the raw comparator
+ * compares them as a single long. The other serial numbers (like the salted
+ * keys of the heavy ones) fall back to a marker byte and the UTF-8 bytes.
+ *
+ * The packed keys sort like the strings and before the fallback keys.
+ */
+public class SerialNumWritable implements WritableComparable<SerialNumWritable> {
+
+  public static final int MAX_PACKED_LENGTH = 12;
+
+  private static final int RADIX = 37;
+  private static final byte FALLBACK = (byte) 0xFF;
+  private static final int PACKED_BYTES = 8;
+
+  static {
+    WritableComparator.define(SerialNumWritable.class, new Comparator());
+  }
+
+  private long packed;
+  private byte[] bytes;
+
+  public SerialNumWritable() {
+  }
+
+  public SerialNumWritable(String serialNum) {
+    set(serialNum);
+  }
+
+  public void set(String serialNum) {
+    packed = pack(serialNum);
+    bytes = packed < 0 ? serialNum.getBytes(Charsets.UTF_8) : null;
+  }
+
+  @Override
+  public String toString() {
+    return bytes == null ? unpack(packed) : new String(bytes, Charsets.UTF_8);
+  }
+
+  /**
+   * @return the packed serial number or -1 if it cannot be packed
+   */
+  static long pack(String serialNum) {
+    if (serialNum.length() > MAX_PACKED_LENGTH) {
+      return -1L;
+    }
+    long value = 0L;
+    for (int i = 0; i < MAX_PACKED_LENGTH; i++) {
+      int digit = 0;
+      if (i < serialNum.length()) {
+        char c = serialNum.charAt(i);
+        if (c >= '0' && c <= '9') {
+          digit = c - '0' + 1;
+        } else if (c >= 'A' && c <= 'Z') {
+          digit = c - 'A' + 11;
+        } else {
+          return -1L;
+        }
+      }
+      value = value * RADIX + digit;
+    }
+    return value;
+  }
+
+  static String unpack(long value) {
+    char[] chars = new char[MAX_PACKED_LENGTH];
+    int length = 0;
+    for (int i = MAX_PACKED_LENGTH - 1; i >= 0; i--) {
+      int digit = (int) (value % RADIX);
+      value /= RADIX;
+      if (digit > 0) {
+        chars[i] = (char) (digit <= 10 ? '0' + digit - 1 : 'A' + digit - 11);
+        if (length == 0) {
+          length = i + 1;
+        }
+      }
+    }
+    return new String(chars, 0, length);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    if (bytes == null) {
+      out.writeLong(packed);
+    } else {
+      out.writeByte(FALLBACK);
+      WritableUtils.writeVInt(out, bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    byte first = in.readByte();
+    if (first == FALLBACK) {
+      bytes = new byte[WritableUtils.readVInt(in)];
+      in.readFully(bytes);
+      packed = -1L;
+    } else {
+      long value = first & 0xFFL;
+      for (int i = 1; i < PACKED_BYTES; i++) {
+        value = (value << 8) | (in.readByte() & 0xFFL);
+      }
+      packed = value;
+      bytes = null;
+    }
+  }
+
+  @Override
+  public int compareTo(SerialNumWritable other) {
+    if (bytes == null && other.bytes == null) {
+      return packed < other.packed ? -1 : (packed == other.packed ? 0 : 1);
+    }
+    if (bytes == null || other.bytes == null) {
+      return bytes == null ? -1 : 1;
+    }
+    return WritableComparator.compareBytes(bytes, 0, bytes.length, other.bytes, 0,
+        other.bytes.length);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof SerialNumWritable && compareTo((SerialNumWritable) obj) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    if (bytes != null) {
+      return WritableComparator.hashBytes(bytes, bytes.length);
+    }
+    // the high bits of the product depend on all the characters
+    return (int) ((packed * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  /**
+   * Compares the serialized keys without deserializing them
+   */
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(SerialNumWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      boolean fallback1 = b1[s1] == FALLBACK;
+      boolean fallback2 = b2[s2] == FALLBACK;
+      if (!fallback1 && !fallback2) {
+        // non-negative big-endian longs compare as unsigned bytes
+        return compareBytes(b1, s1, PACKED_BYTES, b2, s2, PACKED_BYTES);
+      }
+      if (fallback1 != fallback2) {
+        return fallback1 ? 1 : -1;
+      }
+      try {
+        int n1 = WritableUtils.decodeVIntSize(b1[s1 + 1]);
+        int n2 = WritableUtils.decodeVIntSize(b2[s2 + 1]);
+        return compareBytes(b1, s1 + 1 + n1, readVInt(b1, s1 + 1), b2, s2 + 1 + n2,
+            readVInt(b2, s2 + 1));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+
+  private static class InFn extends MapFn<SerialNumWritable, String> {
+    private static final long serialVersionUID = 1958245914870340113L;
+    @Override
+    public String map(SerialNumWritable input) {
+      return input.toString();
+    }
+  }
+
+  private static class OutFn extends MapFn<String, SerialNumWritable> {
+    private static final long serialVersionUID = -3128802862384113547L;
+    @Override
+    public SerialNumWritable map(String input) {
+      return new SerialNumWritable(input);
+    }
+  }
+
+  /**
+   * @return a {@code String} type shuffled as {@link SerialNumWritable}, to use
+   *         instead of {@code Writables.strings()} for the serial number keys
+   */
+  public static PType<String> ptype() {
+    return Writables.derived(String.class, new InFn(), new OutFn(),
+        Writables.writables(SerialNumWritable.class));
+  }
+}
@@ -16,21 +16,27 @@ package com.cloudera.fts.crunch;
 
 import java.io.Serializable;
 
+import org.apache.hadoop.io.Text;
+
 /**
  * Creates a {@code EventRecord} or {@code AttribsRecord} object by parsing a
- * line of text from a database dump file.
+ * line of text from a database dump file. The {@code wrap} methods return a
+ * record shared by all calls on this factory which is only valid until the
+ * next call, while {@link #create(String)} returns a new immutable record.
  */
 @SuppressWarnings("serial")
 public class SplitFactory implements Serializable {
 
 	public final static String SEP = ",";
-	private final int numFields = 3;
 
 	public enum Type {
 		EVENT, ATTRS
 	};
 
 	private Type type = Type.EVENT;
+
+	private transient AbstractAttribsRecord eventRecord;
+	private transient AbstractAttribsRecord attribsRecord;
   
 	/**
 	 * @return the type
@@ -54,11 +60,41 @@ public class SplitFactory implements Serializable {
 	 * @return {@see AbstractAttribsRecord} record
 	 */
 	public AbstractAttribsRecord create(String line) {
+		return wrap(line).copy();
+	}
+
+	/**
+	 * Point the shared record at the line
+	 * 
+	 * @param line
+	 * @return {@see AbstractAttribsRecord} record valid until the next call
+	 */
+	public AbstractAttribsRecord wrap(String line) {
+		return reusable().reset(line);
+	}
+
+	/**
+	 * Point the shared record at the line without decoding it
+	 * 
+	 * @param line
+	 * @return {@see AbstractAttribsRecord} record valid until the next call
+	 */
+	public AbstractAttribsRecord wrap(Text line) {
+		return reusable().reset(line);
+	}
+
+	private AbstractAttribsRecord reusable() {
 		switch (type) {
 		case EVENT:
-			return new EventRecord(line.split(SEP, numFields));
+			if (eventRecord == null) {
+				eventRecord = new EventRecord();
+			}
+			return eventRecord;
 		case ATTRS:
-			return new AttribsRecord(line.split(SEP, numFields));
+			if (attribsRecord == null) {
+				attribsRecord = new AttribsRecord();
+			}
+			return attribsRecord;
 		}
 		return null;
 	}
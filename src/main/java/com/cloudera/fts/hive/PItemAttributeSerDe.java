@@ -14,15 +14,45 @@
  */
 package com.cloudera.fts.hive;
 
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde2.SerDeException;
 
+import com.cloudera.fts.App;
 import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.NameDictionary;
+import com.google.protobuf.Message;
 
 /**
- * A SerDe for {@code PItemAttributeSerDe} objects.
+ * A SerDe for {@code PItemAttributeSerDe} objects. When the table has the
+ * {@code pa.dictionary.path} property, the encoded attribute names are
+ * restored from the {@link NameDictionary}.
  */
 public class PItemAttributeSerDe extends ProtobufSerDe {
+
+  private NameDictionary dictionary;
+
   public PItemAttributeSerDe() throws SerDeException {
     super(PItemAttribute.getDefaultInstance());
   }
+
+  @Override
+  public void initialize(Configuration conf, Properties tbl) throws SerDeException {
+    super.initialize(conf, tbl);
+    String path = tbl.getProperty(App.DICTIONARY_PATH);
+    if (path != null) {
+      try {
+        dictionary = NameDictionary.get(conf, path);
+      } catch (IOException e) {
+        throw new SerDeException(e);
+      }
+    }
+  }
+
+  @Override
+  protected Message resolve(Message message) {
+    return dictionary == null ? message : dictionary.resolve((PItemAttribute) message);
+  }
 }
@@ -14,15 +14,50 @@
  */
 package com.cloudera.fts.hive;
 
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde2.SerDeException;
 
+import com.cloudera.fts.App;
 import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.NameDictionary;
+import com.cloudera.fts.proto.PackedRecords;
+import com.google.protobuf.Message;
 
 /**
- * A SerDe for {@code PItemRecordSerDe} objects.
+ * A SerDe for {@code PItemRecordSerDe} objects. The packed records are
+ * unpacked and, when the table has the {@code pa.dictionary.path} property,
+ * the encoded attribute names are restored from the {@link NameDictionary}.
+ * The chunks of a giant record are rows of their own, with the chunk index in
+ * the {@code chunk} column: a SerDe maps one row to one row, the queries
+ * reassemble them with a {@code GROUP BY serial_num}.
  */
 public class PItemRecordSerDe extends ProtobufSerDe {
+
+  private NameDictionary dictionary;
+
   public PItemRecordSerDe() throws SerDeException {
     super(PItemRecord.getDefaultInstance());
   }
+
+  @Override
+  public void initialize(Configuration conf, Properties tbl) throws SerDeException {
+    super.initialize(conf, tbl);
+    String path = tbl.getProperty(App.DICTIONARY_PATH);
+    if (path != null) {
+      try {
+        dictionary = NameDictionary.get(conf, path);
+      } catch (IOException e) {
+        throw new SerDeException(e);
+      }
+    }
+  }
+
+  @Override
+  protected Message resolve(Message message) {
+    PItemRecord record = PackedRecords.unpack((PItemRecord) message);
+    return dictionary == null ? record : dictionary.resolve(record);
+  }
 }
@@ -26,8 +26,10 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectIn
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
 import com.google.protobuf.Message;
 
 /**
@@ -74,7 +76,13 @@ public class ProtobufObjectInspector extends SettableStructObjectInspector {
     // Create a new instance first; cache the instance to support recursion.
     ProtobufObjectInspector poi = new ProtobufObjectInspector();
     INSPECTOR_CACHE.put(descriptor, poi);
-    poi.init(descriptor);
+    try {
+      poi.init(descriptor);
+    } catch (RuntimeException e) {
+      // Don't leave a half-initialized inspector behind for the next caller.
+      INSPECTOR_CACHE.remove(descriptor);
+      throw e;
+    }
     return poi;
   }
 
@@ -101,6 +109,9 @@ public class ProtobufObjectInspector extends SettableStructObjectInspector {
     case BOOLEAN:
       oi = PrimitiveObjectInspectorFactory.javaBooleanObjectInspector;
       break;
+    case BYTE_STRING:
+      oi = PrimitiveObjectInspectorFactory.javaByteArrayObjectInspector;
+      break;
     case MESSAGE:
       oi = get(fd.getMessageType());
       break;
@@ -158,20 +169,43 @@ public class ProtobufObjectInspector extends SettableStructObjectInspector {
   @Override
   public Object setStructFieldData(Object data, StructField field, Object value) {
     ProtoField pf = (ProtoField) field;
+    if (value instanceof byte[]) {
+      value = ByteString.copyFrom((byte[]) value);
+    }
     return ((Message) data).toBuilder().setField(pf.getFieldDescriptor(), value).build();
   }
 
   @Override
   public Object getStructFieldData(Object data, StructField field) {
-    return ((Message) data).getField(((ProtoField) field).getFieldDescriptor());
+    return getField((Message) data, ((ProtoField) field).getFieldDescriptor());
   }
 
   @Override
   public List<Object> getStructFieldsDataAsList(Object data) {
     List<Object> result = Lists.newArrayListWithCapacity(fields.size());
     for (ProtoField pf : fields) {
-      result.add(((Message) data).getField(pf.getFieldDescriptor()));
+      result.add(getField((Message) data, pf.getFieldDescriptor()));
     }
     return result;
   }
+
+  /**
+   * Hive's binary inspector works on {@code byte[]}, so the {@code bytes}
+   * fields are copied out of their {@link ByteString}s.
+   */
+  private static Object getField(Message message, FieldDescriptor fd) {
+    Object value = message.getField(fd);
+    if (fd.getJavaType() != JavaType.BYTE_STRING) {
+      return value;
+    }
+    if (fd.isRepeated()) {
+      List<?> values = (List<?>) value;
+      List<byte[]> bytes = Lists.newArrayListWithCapacity(values.size());
+      for (Object v : values) {
+        bytes.add(((ByteString) v).toByteArray());
+      }
+      return bytes;
+    }
+    return ((ByteString) value).toByteArray();
+  }
 }
\ No newline at end of file
@@ -49,12 +49,19 @@ public class ProtobufSerDe implements SerDe {
     Message.Builder mb = instance.newBuilderForType();
     try {
       BytesWritable bw = (BytesWritable) field;
-      return mb.mergeFrom(bw.getBytes(), 0, bw.getLength()).build();
+      return resolve(mb.mergeFrom(bw.getBytes(), 0, bw.getLength()).build());
     } catch (Exception e) {
       throw new SerDeException(e);
     }
   }
 
+  /**
+   * A hook to rewrite the messages after they are parsed
+   */
+  protected Message resolve(Message message) {
+    return message;
+  }
+
   @Override
   public ObjectInspector getObjectInspector() throws SerDeException {
     return oi;
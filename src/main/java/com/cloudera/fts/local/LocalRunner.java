@@ -0,0 +1,483 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.local;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.util.LineReader;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.protobuf.Message;
+
+/**
+ * Runs the Crunch functions of a command in-process, for outputs that fit in
+ * memory. The input lines are streamed in chunks which are processed in
+ * parallel on a thread pool as they are read, each task with its own copy of
+ * the function (as a MapReduce task would deserialize its own). The map only
+ * outputs can be written by the tasks themselves. The keyed outputs are hash
+ * partitioned on the key, one partition per thread, and each partition is
+ * grouped and reduced in parallel and written to its own part file. The
+ * functions publish their counters as in a MapReduce task.
+ */
+public class LocalRunner {
+
+  private final Configuration conf;
+  private final ExecutorService pool;
+  private final int partitions;
+  private final int chunkLines;
+  private final Counters counters = new Counters();
+
+  /**
+   * @param conf
+   * @param threads
+   *          the number of threads and of partitions
+   * @param chunkLines
+   *          the number of input lines of a task
+   */
+  public LocalRunner(Configuration conf, int threads, int chunkLines) {
+    this.conf = conf;
+    this.pool = Executors.newFixedThreadPool(threads);
+    this.partitions = threads;
+    this.chunkLines = chunkLines;
+  }
+
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * @return the counters the functions published, once the tasks are done
+   */
+  public Counters getCounters() {
+    return counters;
+  }
+
+  /**
+   * Receives the outputs of the function on each chunk of the input lines, in
+   * the task of the chunk
+   */
+  public interface ChunkSink<T> {
+    void write(int chunk, List<T> outputs) throws IOException;
+  }
+
+  /**
+   * Apply the function to the lines of the files, in chunks processed in
+   * parallel as they are read
+   * 
+   * @return the outputs, one list per chunk
+   */
+  public <T> List<List<T>> parallelDo(List<Path> files, DoFn<Text, T> fn) throws IOException {
+    final Map<Integer, List<T>> outputs = new ConcurrentSkipListMap<Integer, List<T>>();
+    parallelDo(files, fn, new ChunkSink<T>() {
+      @Override
+      public void write(int chunk, List<T> chunkOutputs) {
+        outputs.put(chunk, chunkOutputs);
+      }
+    });
+    return Lists.newArrayList(outputs.values());
+  }
+
+  /**
+   * Read the lines of the files, decompressed by the codec of their extension,
+   * and hand each chunk to a task as soon as it is read. The reader waits
+   * while two chunks per thread are in flight, so the lines are never all in
+   * memory: only the outputs the sink keeps are.
+   */
+  public <T> void parallelDo(List<Path> files, DoFn<Text, T> fn, ChunkSink<T> sink)
+      throws IOException {
+    CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+    Semaphore inFlight = new Semaphore(2 * partitions);
+    List<Future<Void>> tasks = Lists.newArrayList();
+    List<Text> chunk = Lists.newArrayListWithCapacity(chunkLines);
+    try {
+      for (Path file : files) {
+        InputStream in = file.getFileSystem(conf).open(file);
+        try {
+          CompressionCodec codec = codecs.getCodec(file);
+          if (codec != null) {
+            in = codec.createInputStream(in);
+          }
+          LineReader reader = new LineReader(in, conf);
+          Text line = new Text();
+          while (reader.readLine(line) > 0) {
+            chunk.add(line);
+            line = new Text();
+            if (chunk.size() == chunkLines) {
+              tasks.add(submit(tasks.size(), chunk, fn, sink, inFlight));
+              chunk = Lists.newArrayListWithCapacity(chunkLines);
+            }
+          }
+        } finally {
+          in.close();
+        }
+      }
+      if (!chunk.isEmpty()) {
+        tasks.add(submit(tasks.size(), chunk, fn, sink, inFlight));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted", e);
+    }
+    getAll(tasks);
+  }
+
+  /**
+   * Apply the function to every chunk in parallel
+   * 
+   * @return the outputs, one list per chunk
+   */
+  public <S, T> List<List<T>> parallelDo(List<? extends Collection<S>> chunks,
+      final DoFn<S, T> fn) {
+    List<Callable<List<T>>> tasks = Lists.newArrayList();
+    for (final Collection<S> chunk : chunks) {
+      tasks.add(new Callable<List<T>>() {
+        @Override
+        public List<T> call() {
+          return runTask(fn, chunk);
+        }
+      });
+    }
+    return invokeAll(tasks);
+  }
+
+  /**
+   * @return a sink that writes the messages of each chunk to its own
+   *         {@code NullWritable}/{@code BytesWritable} Sequence File, as a map
+   *         only Crunch job would
+   */
+  public <T extends Message> ChunkSink<T> sequenceFileSink(final Path output)
+      throws IOException {
+    final FileSystem fs = output.getFileSystem(conf);
+    fs.mkdirs(output);
+    return new ChunkSink<T>() {
+      @Override
+      public void write(int chunk, List<T> messages) throws IOException {
+        writeSequenceFile(fs, new Path(output, String.format("part-m-%05d", chunk)), messages);
+      }
+    };
+  }
+
+  /**
+   * Hash partition the pairs on the key and group them, in parallel
+   * 
+   * @return the groups, one map per partition
+   */
+  public <K, V> List<Map<K, Collection<V>>> groupByKey(final List<List<Pair<K, V>>> chunks) {
+    // first split each chunk on the partitions, then build each partition
+    List<Callable<List<List<Pair<K, V>>>>> splits = Lists.newArrayList();
+    for (final List<Pair<K, V>> chunk : chunks) {
+      splits.add(new Callable<List<List<Pair<K, V>>>>() {
+        @Override
+        public List<List<Pair<K, V>>> call() {
+          List<List<Pair<K, V>>> split = Lists.newArrayListWithCapacity(partitions);
+          for (int i = 0; i < partitions; i++) {
+            split.add(Lists.<Pair<K, V>> newArrayList());
+          }
+          for (Pair<K, V> pair : chunk) {
+            split.get(partition(pair.first())).add(pair);
+          }
+          return split;
+        }
+      });
+    }
+    final List<List<List<Pair<K, V>>>> split = invokeAll(splits);
+    List<Callable<Map<K, Collection<V>>>> groups = Lists.newArrayList();
+    for (int i = 0; i < partitions; i++) {
+      final int partition = i;
+      groups.add(new Callable<Map<K, Collection<V>>>() {
+        @Override
+        public Map<K, Collection<V>> call() {
+          Map<K, Collection<V>> group = Maps.newHashMap();
+          for (List<List<Pair<K, V>>> chunk : split) {
+            for (Pair<K, V> pair : chunk.get(partition)) {
+              Collection<V> values = group.get(pair.first());
+              if (values == null) {
+                values = Lists.newArrayList();
+                group.put(pair.first(), values);
+              }
+              values.add(pair.second());
+            }
+          }
+          return group;
+        }
+      });
+    }
+    return invokeAll(groups);
+  }
+
+  /**
+   * Join two grouped tables that have the same partitions
+   */
+  public <K, U, V> List<Map<K, Pair<Collection<U>, Collection<V>>>> cogroup(
+      List<Map<K, Collection<U>>> left, List<Map<K, Collection<V>>> right) {
+    List<Map<K, Pair<Collection<U>, Collection<V>>>> joined = Lists.newArrayList();
+    for (int i = 0; i < partitions; i++) {
+      Map<K, Pair<Collection<U>, Collection<V>>> partition = Maps.newHashMap();
+      for (Map.Entry<K, Collection<U>> entry : left.get(i).entrySet()) {
+        Collection<V> values = right.get(i).get(entry.getKey());
+        partition.put(entry.getKey(), Pair.of(entry.getValue(),
+            values == null ? Lists.<V> newArrayList() : values));
+      }
+      for (Map.Entry<K, Collection<V>> entry : right.get(i).entrySet()) {
+        if (!partition.containsKey(entry.getKey())) {
+          partition.put(entry.getKey(), Pair.of((Collection<U>) Lists.<U> newArrayList(),
+              entry.getValue()));
+        }
+      }
+      joined.add(partition);
+    }
+    return joined;
+  }
+
+  /**
+   * Apply the function to the groups of every partition in parallel
+   * 
+   * @return the outputs, one list per partition
+   */
+  public <K, V, T> List<List<T>> reduce(List<? extends Map<K, ? extends V>> groups,
+      DoFn<Pair<K, V>, T> fn) {
+    List<List<Pair<K, V>>> chunks = Lists.newArrayList();
+    for (Map<K, ? extends V> group : groups) {
+      List<Pair<K, V>> chunk = Lists.newArrayListWithCapacity(group.size());
+      for (Map.Entry<K, ? extends V> entry : group.entrySet()) {
+        chunk.add(Pair.<K, V> of(entry.getKey(), entry.getValue()));
+      }
+      chunks.add(chunk);
+    }
+    return parallelDo(chunks, fn);
+  }
+
+  /**
+   * Write the messages as a {@code NullWritable}/{@code BytesWritable}
+   * Sequence File per list, the layout of a Crunch protobuf output
+   */
+  public <T extends Message> void writeSequenceFiles(List<List<T>> outputs,
+      final Path output) throws IOException {
+    final FileSystem fs = output.getFileSystem(conf);
+    fs.mkdirs(output);
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int i = 0; i < outputs.size(); i++) {
+      final Path file = new Path(output, partFile(i, ""));
+      final List<T> messages = outputs.get(i);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          writeSequenceFile(fs, file, messages);
+          return null;
+        }
+      });
+    }
+    invokeAll(tasks);
+  }
+
+  /**
+   * Write the records as an Avro data file per list
+   */
+  public <T extends SpecificRecord> void writeAvroFiles(List<List<T>> outputs,
+      final Schema schema, final Path output) throws IOException {
+    final FileSystem fs = output.getFileSystem(conf);
+    fs.mkdirs(output);
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int i = 0; i < outputs.size(); i++) {
+      final Path file = new Path(output, partFile(i, ".avro"));
+      final List<T> records = outputs.get(i);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          DataFileWriter<T> writer = new DataFileWriter<T>(new SpecificDatumWriter<T>(schema));
+          writer.create(schema, fs.create(file));
+          try {
+            for (T record : records) {
+              writer.append(record);
+            }
+          } finally {
+            writer.close();
+          }
+          return null;
+        }
+      });
+    }
+    invokeAll(tasks);
+  }
+
+  private <T extends Message> void writeSequenceFile(FileSystem fs, Path file,
+      List<T> messages) throws IOException {
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, file,
+        NullWritable.class, BytesWritable.class);
+    try {
+      for (T message : messages) {
+        writer.append(NullWritable.get(), new BytesWritable(message.toByteArray()));
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private TaskInputOutputContext<?, ?, ?, ?> newContext(final Counters taskCounters) {
+    return new MapContextImpl<Object, Object, Object, Object>(conf,
+        new TaskAttemptID(), null, null, null, new StatusReporter() {
+          @Override
+          public Counter getCounter(Enum<?> name) {
+            return taskCounters.findCounter(name);
+          }
+
+          @Override
+          public Counter getCounter(String group, String name) {
+            return taskCounters.findCounter(group, name);
+          }
+
+          @Override
+          public void progress() {
+          }
+
+          @Override
+          public void setStatus(String status) {
+          }
+
+          public float getProgress() {
+            return 0.0f;
+          }
+        }, null);
+  }
+
+  private int partition(Object key) {
+    return (key.hashCode() & Integer.MAX_VALUE) % partitions;
+  }
+
+  private static String partFile(int i, String extension) {
+    return String.format("part-r-%05d%s", i, extension);
+  }
+
+  /**
+   * Run a copy of the function on the inputs, with its own counters
+   */
+  private <S, T> List<T> runTask(DoFn<S, T> fn, Collection<S> inputs) {
+    // counters are not thread-safe: each task has its own
+    Counters taskCounters = new Counters();
+    DoFn<S, T> copy = copy(fn);
+    copy.setContext(newContext(taskCounters));
+    List<T> outputs = process(copy, inputs);
+    synchronized (counters) {
+      counters.incrAllCounters(taskCounters);
+    }
+    return outputs;
+  }
+
+  private <S, T> Future<Void> submit(final int index, final Collection<S> chunk,
+      final DoFn<S, T> fn, final ChunkSink<T> sink, final Semaphore inFlight)
+      throws InterruptedException {
+    inFlight.acquire();
+    try {
+      return pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          try {
+            sink.write(index, runTask(fn, chunk));
+          } finally {
+            inFlight.release();
+          }
+          return null;
+        }
+      });
+    } catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <F extends DoFn<?, ?>> F copy(F fn) {
+    return (F) SerializationUtils.clone(fn);
+  }
+
+  private static <S, T> List<T> process(DoFn<S, T> fn, Collection<S> inputs) {
+    final List<T> outputs = Lists.newArrayList();
+    Emitter<T> emitter = new Emitter<T>() {
+      @Override
+      public void emit(T emitted) {
+        outputs.add(emitted);
+      }
+
+      @Override
+      public void flush() {
+      }
+    };
+    fn.initialize();
+    for (S input : inputs) {
+      fn.process(input, emitter);
+    }
+    fn.cleanup(emitter);
+    return outputs;
+  }
+
+  private <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+    try {
+      return getAll(pool.invokeAll(tasks));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted", e);
+    }
+  }
+
+  private static <T> List<T> getAll(List<Future<T>> futures) {
+    List<T> results = Lists.newArrayListWithCapacity(futures.size());
+    try {
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Local task failed", e.getCause());
+    }
+    return results;
+  }
+}
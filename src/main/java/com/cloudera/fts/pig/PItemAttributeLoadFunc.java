@@ -14,14 +14,59 @@
  */
 package com.cloudera.fts.pig;
 
-import com.cloudera.fts.proto.Item.PItemAttribute;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.pig.impl.util.UDFContext;
 
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.NameDictionary;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
 
 /**
- * A utility {@code ProtobufLoadFunc} implementation for {@code ParsedEvent} instances.
+ * A {@code ProtobufLoadFunc} for {@code PItemAttribute} instances. Given the
+ * path of a {@link NameDictionary}, the encoded attribute names are restored.
  */
 public class PItemAttributeLoadFunc extends ProtobufLoadFunc {
+
+  private final String dictionaryPath;
+  private NameDictionary dictionary;
+
   public PItemAttributeLoadFunc() {
+    this(null);
+  }
+
+  public PItemAttributeLoadFunc(String dictionaryPath) {
     super(PItemAttribute.class);
+    this.dictionaryPath = dictionaryPath;
+  }
+
+  @Override
+  protected Message resolve(Message message) throws IOException {
+    if (dictionaryPath == null) {
+      return message;
+    }
+    if (dictionary == null) {
+      dictionary = NameDictionary.get(UDFContext.getUDFContext().getJobConf(), dictionaryPath);
+    }
+    return dictionary.resolve((PItemAttribute) message);
+  }
+
+  /**
+   * The dictionary only restores the name and int fields
+   */
+  @Override
+  protected boolean canDecodeProjection(Collection<FieldDescriptor> fields) {
+    if (dictionaryPath == null) {
+      return true;
+    }
+    for (FieldDescriptor field : fields) {
+      if (field.getNumber() == PItemAttribute.NAME_FIELD_NUMBER
+          || field.getNumber() == PItemAttribute.INT_FIELD_NUMBER) {
+        return false;
+      }
+    }
+    return true;
   }
 }
@@ -14,13 +14,132 @@
  */
 package com.cloudera.fts.pig;
 
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.pig.impl.util.UDFContext;
+
 import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.NameDictionary;
+import com.cloudera.fts.proto.PackedRecords;
+import com.cloudera.fts.proto.WireUtils;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
 
 /**
  * A utility {@code ProtobufLoadFunc} implementation for {@code ParsedEvent} instances.
+ * The packed records are unpacked and, given the path of a
+ * {@link NameDictionary}, the encoded attribute names are restored. The
+ * chunks of a giant record are loaded as rows of their own, a {@code GROUP}
+ * on serial_num brings them back together, unless the loader reassembles
+ * them: then each file is read by a single task, the chunks of a record are
+ * written one after the other.
  */
 public class PItemRecordLoadFunc extends ProtobufLoadFunc {
+
+  private final String dictionaryPath;
+  private final boolean reassemble;
+  private NameDictionary dictionary;
+
   public PItemRecordLoadFunc() {
+    this(null);
+  }
+
+  public PItemRecordLoadFunc(String dictionaryPath) {
+    this(dictionaryPath, "false");
+  }
+
+  /**
+   * @param dictionaryPath
+   *          null or empty if the names are not encoded
+   * @param reassemble
+   *          "true" to load a chunked record as one row
+   */
+  public PItemRecordLoadFunc(String dictionaryPath, String reassemble) {
     super(PItemRecord.class);
+    this.dictionaryPath = dictionaryPath == null || dictionaryPath.isEmpty() ? null
+        : dictionaryPath;
+    this.reassemble = Boolean.parseBoolean(reassemble);
+  }
+
+  @Override
+  protected Message resolve(Message message) throws IOException {
+    PItemRecord record = PackedRecords.unpack((PItemRecord) message);
+    if (reassemble && record.getContinued()) {
+      record = reassemble(record);
+    }
+    if (dictionaryPath == null) {
+      return record;
+    }
+    if (dictionary == null) {
+      dictionary = NameDictionary.get(UDFContext.getUDFContext().getJobConf(), dictionaryPath);
+    }
+    return dictionary.resolve(record);
+  }
+
+  /**
+   * Append the attributes of the following chunks to the first one
+   */
+  private PItemRecord reassemble(PItemRecord first) throws IOException {
+    PItemRecord.Builder builder = first.toBuilder();
+    PItemRecord chunk = first;
+    while (chunk.getContinued()) {
+      Message next = nextMessage();
+      if (next == null) {
+        throw new IOException("Missing chunk " + (chunk.getChunk() + 1) + " of "
+            + first.getSerialNum());
+      }
+      chunk = PackedRecords.unpack((PItemRecord) next);
+      if (!chunk.getSerialNum().equals(first.getSerialNum())) {
+        throw new IOException("Missing chunk of " + first.getSerialNum() + ", found "
+            + chunk.getSerialNum());
+      }
+      builder.addAllAttributes(chunk.getAttributesList());
+    }
+    return builder.clearChunk().clearContinued().build();
+  }
+
+  /**
+   * The chunks of a record must be read by the same task to be reassembled
+   */
+  @Override
+  protected boolean isSplitable() {
+    return !reassemble;
+  }
+
+  /**
+   * The attributes are resolved with the dictionary, the other fields are as
+   * written. Reassembling reads every chunk.
+   */
+  @Override
+  protected boolean canDecodeProjection(Collection<FieldDescriptor> fields) {
+    return !reassemble && (dictionaryPath == null || !projectsAttributes(fields));
+  }
+
+  /**
+   * Unpacking only changes the attributes and the packed field
+   */
+  @Override
+  protected boolean mayResolve(Collection<FieldDescriptor> fields) {
+    return projectsAttributes(fields);
+  }
+
+  private static boolean projectsAttributes(Collection<FieldDescriptor> fields) {
+    for (FieldDescriptor field : fields) {
+      if (field.getNumber() == PItemRecord.ATTRIBUTES_FIELD_NUMBER
+          || field.getNumber() == PItemRecord.PACKED_FIELD_NUMBER) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The packed records are unpacked
+   */
+  @Override
+  protected boolean needsResolve(byte[] bytes, int offset, int length) {
+    return WireUtils.findLengthDelimited(bytes, offset, length,
+        PItemRecord.PACKED_FIELD_NUMBER) >= 0;
   }
 }
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.pig;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.pig.Expression;
+import org.apache.pig.Expression.BinaryExpression;
+import org.apache.pig.Expression.Column;
+import org.apache.pig.Expression.Const;
+import org.apache.pig.Expression.UnaryExpression;
+
+/**
+ * Evaluates the partition filter that Pig pushes to a loader on the values of
+ * a partition. Pig drops the filter from the plan, so the evaluation has to be
+ * exact: an unsupported operator fails the script.
+ */
+class PartitionFilter {
+
+  private PartitionFilter() {
+  }
+
+  /**
+   * @param expr
+   *          the filter, only on partition keys
+   * @param values
+   *          the typed values of the partition keys, null for the default
+   *          partition (the unset fields), which only an {@code is null}
+   *          matches; an empty string is a value like the others
+   * @return true if the partition matches
+   */
+  static boolean matches(Expression expr, Map<String, Object> values) throws IOException {
+    Object result = eval(expr, values);
+    return Boolean.TRUE.equals(result);
+  }
+
+  private static Object eval(Expression expr, Map<String, Object> values) throws IOException {
+    switch (expr.getOpType()) {
+    case TERM_COL:
+      return values.get(((Column) expr).getName());
+    case TERM_CONST:
+      return ((Const) expr).getValue();
+    case OP_NOT:
+      Object operand = eval(((UnaryExpression) expr).getExpression(), values);
+      return operand == null ? null : !((Boolean) operand);
+    case OP_NULL:
+      return eval(((UnaryExpression) expr).getExpression(), values) == null;
+    case OP_AND:
+    case OP_OR:
+      return logical(expr.getOpType(), (BinaryExpression) expr, values);
+    case OP_EQ:
+    case OP_NE:
+    case OP_GT:
+    case OP_GE:
+    case OP_LT:
+    case OP_LE:
+    case OP_MATCH:
+      BinaryExpression be = (BinaryExpression) expr;
+      Object lhs = eval(be.getLhs(), values);
+      Object rhs = eval(be.getRhs(), values);
+      if (lhs == null || rhs == null) {
+        // SQL semantics: a comparison with null is unknown
+        return null;
+      }
+      if (expr.getOpType() == Expression.OpType.OP_MATCH) {
+        return Pattern.matches(rhs.toString(), lhs.toString());
+      }
+      return compare(expr.getOpType(), lhs, rhs);
+    default:
+      throw new IOException("Unsupported partition filter: " + expr);
+    }
+  }
+
+  private static Object logical(Expression.OpType op, BinaryExpression be,
+      Map<String, Object> values) throws IOException {
+    Boolean lhs = (Boolean) eval(be.getLhs(), values);
+    Boolean rhs = (Boolean) eval(be.getRhs(), values);
+    // three-valued logic
+    if (op == Expression.OpType.OP_AND) {
+      if (Boolean.FALSE.equals(lhs) || Boolean.FALSE.equals(rhs)) {
+        return false;
+      }
+      return lhs == null || rhs == null ? null : true;
+    }
+    if (Boolean.TRUE.equals(lhs) || Boolean.TRUE.equals(rhs)) {
+      return true;
+    }
+    return lhs == null || rhs == null ? null : false;
+  }
+
+  private static boolean compare(Expression.OpType op, Object lhs, Object rhs) {
+    int cmp;
+    if (isIntegral(lhs) && isIntegral(rhs)) {
+      long l = ((Number) lhs).longValue();
+      long r = ((Number) rhs).longValue();
+      cmp = l < r ? -1 : (l == r ? 0 : 1);
+    } else if (lhs instanceof Number && rhs instanceof Number) {
+      cmp = Double.compare(((Number) lhs).doubleValue(), ((Number) rhs).doubleValue());
+    } else {
+      cmp = lhs.toString().compareTo(rhs.toString());
+    }
+    switch (op) {
+    case OP_EQ:
+      return cmp == 0;
+    case OP_NE:
+      return cmp != 0;
+    case OP_GT:
+      return cmp > 0;
+    case OP_GE:
+      return cmp >= 0;
+    case OP_LT:
+      return cmp < 0;
+    default:
+      return cmp <= 0;
+    }
+  }
+
+  private static boolean isIntegral(Object value) {
+    return value instanceof Integer || value instanceof Long;
+  }
+}
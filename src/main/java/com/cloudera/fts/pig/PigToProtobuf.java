@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.pig;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.ResourceSchema.ResourceFieldSchema;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.UninitializedMessageException;
+
+/**
+ * Turns Pig tuples into messages, the reverse of {@link ProtobufToPig}: the
+ * fields of the Pig schema are mapped by name onto the fields of the message
+ * once, and each tuple is then copied into a reused builder. Without a schema
+ * the tuple fields are the message fields in order, as loaded by
+ * {@link ProtobufLoadFunc}.
+ *
+ * Repeated fields are bags (of single-field tuples for the scalars), message
+ * fields tuples; enums are their names or numbers, bools any number (0 is
+ * false) and null values leave the fields unset.
+ */
+public class PigToProtobuf {
+
+  private final Message.Builder builder;
+  // the message field of each tuple field
+  private final FieldDescriptor[] fields;
+  // the plans of the message fields
+  private final PigToProtobuf[] nested;
+
+  /**
+   * @param builder
+   *          a builder of the message type, reused for every tuple
+   * @param schema
+   *          the schema of the tuples, null to map them by position
+   * @throws FrontendException
+   *           if a field of the schema is not a field of the message
+   */
+  public PigToProtobuf(Message.Builder builder, ResourceSchema schema) throws FrontendException {
+    this.builder = builder;
+    Descriptor descriptor = builder.getDescriptorForType();
+    if (schema == null) {
+      List<FieldDescriptor> all = descriptor.getFields();
+      fields = all.toArray(new FieldDescriptor[all.size()]);
+      nested = new PigToProtobuf[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        if (fields[i].getType() == FieldDescriptor.Type.MESSAGE) {
+          nested[i] = new PigToProtobuf(builder.newBuilderForField(fields[i]), null);
+        }
+      }
+      return;
+    }
+    ResourceFieldSchema[] tupleFields = schema.getFields();
+    fields = new FieldDescriptor[tupleFields.length];
+    nested = new PigToProtobuf[tupleFields.length];
+    for (int i = 0; i < tupleFields.length; i++) {
+      fields[i] = findField(descriptor, tupleFields[i].getName());
+      if (fields[i] == null) {
+        throw new FrontendException("No field " + tupleFields[i].getName() + " in "
+            + descriptor.getFullName());
+      }
+      if (fields[i].getType() == FieldDescriptor.Type.MESSAGE) {
+        nested[i] = new PigToProtobuf(builder.newBuilderForField(fields[i]),
+            tupleSchema(tupleFields[i]));
+      }
+    }
+  }
+
+  /**
+   * Find the field of a Pig field name, without the {@code alias::} prefix
+   * and the {@code _bag} suffix of the repeated scalars
+   */
+  private static FieldDescriptor findField(Descriptor descriptor, String name) {
+    if (name == null) {
+      return null;
+    }
+    int prefix = name.lastIndexOf("::");
+    if (prefix >= 0) {
+      name = name.substring(prefix + 2);
+    }
+    FieldDescriptor field = descriptor.findFieldByName(name);
+    if (field == null && name.endsWith("_bag")) {
+      field = descriptor.findFieldByName(name.substring(0, name.length() - 4));
+    }
+    return field;
+  }
+
+  /**
+   * @return the schema of the tuples of a tuple or bag field, null if unknown
+   */
+  private static ResourceSchema tupleSchema(ResourceFieldSchema field) {
+    ResourceSchema schema = field.getSchema();
+    if (schema != null && field.getType() == DataType.BAG && schema.getFields().length == 1
+        && schema.getFields()[0].getType() == DataType.TUPLE) {
+      return schema.getFields()[0].getSchema();
+    }
+    return schema;
+  }
+
+  /**
+   * @return the message of the tuple, the builder is reused for the next one
+   */
+  public Message toMessage(Tuple tuple) throws IOException {
+    builder.clear();
+    if (tuple.size() > fields.length) {
+      throw new IOException("Tuple of " + tuple.size() + " fields for "
+          + builder.getDescriptorForType().getFullName());
+    }
+    for (int i = 0; i < tuple.size(); i++) {
+      Object value = tuple.get(i);
+      if (value == null) {
+        continue;
+      }
+      FieldDescriptor field = fields[i];
+      if (field.isRepeated()) {
+        for (Tuple item : (DataBag) value) {
+          Object itemValue = nested[i] != null ? item : item.get(0);
+          if (itemValue != null) {
+            builder.addRepeatedField(field, toValue(i, itemValue));
+          }
+        }
+      } else {
+        builder.setField(field, toValue(i, value));
+      }
+    }
+    try {
+      return builder.build();
+    } catch (UninitializedMessageException e) {
+      throw new IOException("Cannot store " + tuple, e);
+    }
+  }
+
+  private Object toValue(int index, Object value) throws IOException {
+    FieldDescriptor field = fields[index];
+    switch (field.getJavaType()) {
+      case INT:
+        return value instanceof Number ? ((Number) value).intValue()
+            : Integer.valueOf(value.toString());
+      case LONG:
+        return value instanceof Number ? ((Number) value).longValue()
+            : Long.valueOf(value.toString());
+      case FLOAT:
+        return value instanceof Number ? ((Number) value).floatValue()
+            : Float.valueOf(value.toString());
+      case DOUBLE:
+        return value instanceof Number ? ((Number) value).doubleValue()
+            : Double.valueOf(value.toString());
+      case BOOLEAN:
+        if (value instanceof Boolean) {
+          return value;
+        }
+        return value instanceof Number ? ((Number) value).intValue() != 0
+            : Boolean.valueOf(value.toString());
+      case STRING:
+        return value.toString();
+      case BYTE_STRING:
+        return value instanceof DataByteArray ? ByteString.copyFrom(((DataByteArray) value).get())
+            : ByteString.copyFromUtf8(value.toString());
+      case ENUM:
+        EnumValueDescriptor enumValue = value instanceof Number ? field.getEnumType()
+            .findValueByNumber(((Number) value).intValue()) : field.getEnumType()
+            .findValueByName(value.toString());
+        if (enumValue == null) {
+          throw new IOException("No value " + value + " in " + field.getEnumType().getFullName());
+        }
+        return enumValue;
+      case MESSAGE:
+        return nested[index].toMessage((Tuple) value);
+      default:
+        throw new IOException("Unexpected field type " + field.getFullName());
+    }
+  }
+}
@@ -14,56 +14,338 @@
  */
 package com.cloudera.fts.pig;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.pig.LoadPushDown.RequiredField;
 import org.apache.pig.LoadPushDown.RequiredFieldList;
 import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 
 import com.google.common.collect.Lists;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.ExtensionRegistryLite;
 import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
 
 /**
  * A tuple factory to create protobuf tuples where
  * only a subset of fields are required.
+ *
+ * The tuples can also be decoded straight from the serialized message: the
+ * fields that are not projected are skipped on the wire, without being
+ * parsed, and the tuple gets the same values as from the parsed message.
+ *
+ * A required message field with sub-fields (e.g. {@code attributes.name}) is
+ * projected as well: its tuples, in a bag if the field is repeated, keep the
+ * positions of the schema but only the required inner fields are filled, the
+ * others are null. Pig 0.11 does not push such projections from a script, it
+ * only fills the sub-fields of map keys; they come from callers that build
+ * the {@code RequiredFieldList} themselves.
  */
 public class ProjectedProtobufTupleFactory {
 
   private static TupleFactory tf  = TupleFactory.getInstance();
+  private static BagFactory bf = BagFactory.getInstance();
 
   private final List<FieldDescriptor> requiredFields;
-  private final ProtobufToPig protoConv;
+  private final ProtobufConverter plan;
+  private final Message.Builder builder;
+  // the index of each field number in requiredFields, -1 if not projected
+  private final int[] positions;
+  // the tuple position of each required field
+  private final int[] slots;
+  private final int tupleSize;
+  // the projections of the message fields with required sub-fields
+  private final ProjectedProtobufTupleFactory[] nested;
 
   public ProjectedProtobufTupleFactory(Message protoInstance, RequiredFieldList requiredFieldList) {
+    this(protoInstance.newBuilderForType(),
+        requiredFieldList == null ? null : requiredFieldList.getFields(), false);
+  }
+
+  /**
+   * @param builder
+   *          a builder of the message type
+   * @param tupleFields
+   *          the required fields, null for all
+   * @param padded
+   *          to keep the schema positions, for the nested tuples
+   */
+  private ProjectedProtobufTupleFactory(Message.Builder builder, List<RequiredField> tupleFields,
+      boolean padded) {
 
-    List<FieldDescriptor> protoFields = protoInstance.getDescriptorForType().getFields();
-    protoConv = new ProtobufToPig();
+    List<FieldDescriptor> protoFields = builder.getDescriptorForType().getFields();
+    plan = ProtobufConverter.of(builder.getDescriptorForType());
+    this.builder = builder;
 
-    if (requiredFieldList != null) {
-      List<RequiredField> tupleFields = requiredFieldList.getFields();
+    if (tupleFields != null) {
       requiredFields = Lists.newArrayListWithCapacity(tupleFields.size());
+      nested = new ProjectedProtobufTupleFactory[tupleFields.size()];
 
-      // should we handle nested projections?
-      for(RequiredField f : tupleFields) {
-        requiredFields.add(protoFields.get(f.getIndex()));
+      for (int i = 0; i < tupleFields.size(); i++) {
+        RequiredField f = tupleFields.get(i);
+        FieldDescriptor fdesc = protoFields.get(f.getIndex());
+        requiredFields.add(fdesc);
+        if (f.getSubFields() != null && !f.getSubFields().isEmpty()
+            && fdesc.getType() == FieldDescriptor.Type.MESSAGE) {
+          // the sub-fields of a bag are the ones of its tuple
+          List<RequiredField> subFields = f.getSubFields();
+          if (fdesc.isRepeated() && subFields.size() == 1
+              && subFields.get(0).getSubFields() != null) {
+            subFields = subFields.get(0).getSubFields();
+          }
+          nested[i] = new ProjectedProtobufTupleFactory(builder.newBuilderForField(fdesc),
+              subFields, true);
+        }
       }
     } else {
       requiredFields = protoFields;
+      nested = new ProjectedProtobufTupleFactory[protoFields.size()];
+    }
+
+    int maxNumber = 0;
+    for (FieldDescriptor fdesc : requiredFields) {
+      maxNumber = Math.max(maxNumber, fdesc.getNumber());
+    }
+    positions = new int[maxNumber + 1];
+    Arrays.fill(positions, -1);
+    slots = new int[requiredFields.size()];
+    for (int i = 0; i < requiredFields.size(); i++) {
+      positions[requiredFields.get(i).getNumber()] = i;
+      slots[i] = padded ? requiredFields.get(i).getIndex() : i;
     }
+    tupleSize = padded ? protoFields.size() : requiredFields.size();
+  }
+
+  /**
+   * @return the fields of the tuples, in order
+   */
+  public List<FieldDescriptor> getRequiredFields() {
+    return requiredFields;
   }
 
   public Tuple newTuple(Message msg) throws ExecException {
     int size = requiredFields.size();
-    Tuple tuple = tf.newTuple(size);
+    Tuple tuple = tf.newTuple(tupleSize);
 
     for(int i=0; i < size; i++) {
       FieldDescriptor fdesc = requiredFields.get(i);
       Object value = msg.getField(fdesc);
-      tuple.set(i, protoConv.fieldToPig(fdesc, value));
+      tuple.set(slots[i], nested[i] == null ? plan.valueToPig(fdesc.getIndex(), value)
+          : nestedToPig(fdesc, value, nested[i]));
+    }
+    return tuple;
+  }
+
+  private static Object nestedToPig(FieldDescriptor fdesc, Object value,
+      ProjectedProtobufTupleFactory projection) throws ExecException {
+    if (!fdesc.isRepeated()) {
+      return projection.newTuple((Message) value);
+    }
+    DataBag bag = bf.newDefaultBag();
+    for (Object m : (List<?>) value) {
+      bag.add(projection.newTuple((Message) m));
+    }
+    return bag;
+  }
+
+  /**
+   * Same as {@link #newTuple(Message)} for the serialized message, only the
+   * projected fields are decoded
+   */
+  public Tuple newTuple(byte[] bytes, int offset, int length) throws IOException {
+    return decode(CodedInputStream.newInstance(bytes, offset, length));
+  }
+
+  /**
+   * Decode the tuple of the message up to the end of the input or its
+   * current limit
+   */
+  private Tuple decode(CodedInputStream in) throws IOException {
+    return toTuple(read(in, null));
+  }
+
+  /**
+   * Read the projected fields of the message up to the end of the input or
+   * its current limit
+   * 
+   * @param values
+   *          the values read from the previous occurrences of the message,
+   *          null for the first one
+   * @return the values of the projected fields, null if not set
+   */
+  private Object[] read(CodedInputStream in, Object[] values) throws IOException {
+    if (values == null) {
+      values = new Object[requiredFields.size()];
+    }
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      int number = tag >>> 3;
+      int pos = number < positions.length ? positions[number] : -1;
+      if (pos < 0 || !isExpectedWireType(requiredFields.get(pos), tag & 0x7)) {
+        in.skipField(tag);
+      } else if (nested[pos] != null) {
+        values[pos] = readNested(in, requiredFields.get(pos), nested[pos], values[pos]);
+      } else {
+        values[pos] = readField(in, tag, requiredFields.get(pos), values[pos]);
+      }
+    }
+    return values;
+  }
+
+  private Tuple toTuple(Object[] values) throws ExecException {
+    Tuple tuple = tf.newTuple(tupleSize);
+    for(int i=0; i < values.length; i++) {
+      FieldDescriptor fdesc = requiredFields.get(i);
+      if (nested[i] != null) {
+        tuple.set(slots[i], nestedValue(fdesc, nested[i], values[i]));
+      } else {
+        Object value = values[i] != null ? values[i] : defaultValue(fdesc);
+        tuple.set(slots[i], plan.valueToPig(fdesc.getIndex(), value));
+      }
     }
     return tuple;
   }
+
+  /**
+   * Decode an occurrence of a projected message field: the occurrences of a
+   * singular field are merged into its values, as the parser merges them, and
+   * each occurrence of a repeated field is a tuple of the bag
+   */
+  private static Object readNested(CodedInputStream in, FieldDescriptor fdesc,
+      ProjectedProtobufTupleFactory projection, Object previous) throws IOException {
+    int limit = in.pushLimit(in.readRawVarint32());
+    if (!fdesc.isRepeated()) {
+      Object[] values = projection.read(in, (Object[]) previous);
+      in.popLimit(limit);
+      return values;
+    }
+    Tuple tuple = projection.decode(in);
+    in.popLimit(limit);
+    DataBag bag = previous != null ? (DataBag) previous : bf.newDefaultBag();
+    bag.add(tuple);
+    return bag;
+  }
+
+  private Object nestedValue(FieldDescriptor fdesc, ProjectedProtobufTupleFactory projection,
+      Object value) throws ExecException {
+    if (value != null) {
+      return fdesc.isRepeated() ? value : projection.toTuple((Object[]) value);
+    } else if (fdesc.isRepeated()) {
+      return bf.newDefaultBag();
+    }
+    return projection.newTuple(builder.newBuilderForField(fdesc).getDefaultInstanceForType());
+  }
+
+  private static boolean isExpectedWireType(FieldDescriptor fdesc, int wireType) {
+    return wireType == fdesc.getLiteType().getWireType()
+        || (fdesc.isRepeated() && fdesc.getLiteType().isPackable()
+            && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  /**
+   * The value of the field as {@link Message#getField} returns it when the
+   * field is not set
+   */
+  private Object defaultValue(FieldDescriptor fdesc) {
+    if (fdesc.isRepeated()) {
+      return Collections.emptyList();
+    } else if (fdesc.getType() == FieldDescriptor.Type.MESSAGE) {
+      return builder.newBuilderForField(fdesc).getDefaultInstanceForType();
+    }
+    return fdesc.getDefaultValue();
+  }
+
+  /**
+   * Read one occurrence of the field: the last value of a singular field
+   * wins, a singular message is merged and a repeated field is appended to
+   */
+  @SuppressWarnings("unchecked")
+  private Object readField(CodedInputStream in, int tag, FieldDescriptor fdesc, Object previous)
+      throws IOException {
+    boolean message = fdesc.getType() == FieldDescriptor.Type.MESSAGE;
+    if (!fdesc.isRepeated()) {
+      if (message) {
+        Message.Builder nested = previous != null ? ((Message) previous).toBuilder()
+            : builder.newBuilderForField(fdesc);
+        in.readMessage(nested, ExtensionRegistryLite.getEmptyRegistry());
+        return nested.build();
+      }
+      Object value = readValue(in, fdesc);
+      return value != null ? value : previous;
+    }
+    List<Object> list = previous != null ? (List<Object>) previous : Lists.newArrayList();
+    if (message) {
+      Message.Builder nested = builder.newBuilderForField(fdesc);
+      in.readMessage(nested, ExtensionRegistryLite.getEmptyRegistry());
+      list.add(nested.build());
+    } else if ((tag & 0x7) == WireFormat.WIRETYPE_LENGTH_DELIMITED
+        && fdesc.getLiteType().isPackable()) {
+      int limit = in.pushLimit(in.readRawVarint32());
+      while (in.getBytesUntilLimit() > 0) {
+        addValue(list, readValue(in, fdesc));
+      }
+      in.popLimit(limit);
+    } else {
+      addValue(list, readValue(in, fdesc));
+    }
+    return list;
+  }
+
+  private static void addValue(List<Object> list, Object value) {
+    if (value != null) {
+      list.add(value);
+    }
+  }
+
+  /**
+   * @return the value with the Java type of {@link Message#getField}, null for
+   *         an unknown enum number
+   */
+  private static Object readValue(CodedInputStream in, FieldDescriptor fdesc) throws IOException {
+    switch (fdesc.getType()) {
+      case DOUBLE:
+        return in.readDouble();
+      case FLOAT:
+        return in.readFloat();
+      case INT64:
+        return in.readInt64();
+      case UINT64:
+        return in.readUInt64();
+      case INT32:
+        return in.readInt32();
+      case FIXED64:
+        return in.readFixed64();
+      case FIXED32:
+        return in.readFixed32();
+      case BOOL:
+        return in.readBool();
+      case STRING:
+        return in.readString();
+      case BYTES:
+        return in.readBytes();
+      case UINT32:
+        return in.readUInt32();
+      case SFIXED32:
+        return in.readSFixed32();
+      case SFIXED64:
+        return in.readSFixed64();
+      case SINT32:
+        return in.readSInt32();
+      case SINT64:
+        return in.readSInt64();
+      case ENUM:
+        return fdesc.getEnumType().findValueByNumber(in.readEnum());
+      default:
+        throw new IllegalArgumentException("Unexpected field type " + fdesc.getFullName() + " "
+            + fdesc.getType());
+    }
+  }
 }
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.pig;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * The conversion plan of the messages of a {@link Descriptor} to Pig: the
+ * fields and how their values are coerced are worked out once per descriptor
+ * and cached, so converting a message is a loop over arrays, with no map of
+ * the set fields and no type dispatch on the descriptors.
+ *
+ * Enums become their names, bools 0 or 1, bytes a {@link DataByteArray},
+ * messages a {@link ProtobufTuple} and repeated fields a bag of them (of
+ * single-field tuples for the scalars).
+ */
+public final class ProtobufConverter {
+
+  private static final TupleFactory tf = TupleFactory.getInstance();
+  private static final BagFactory bf = BagFactory.getInstance();
+
+  private static final ConcurrentMap<Descriptor, ProtobufConverter> PLANS =
+      new ConcurrentHashMap<Descriptor, ProtobufConverter>();
+
+  private static final int NONE = 0;
+  private static final int ENUM_NAME = 1;
+  private static final int BOOL_INT = 2;
+  private static final int BYTES = 3;
+  private static final int MESSAGE = 4;
+
+  private final FieldDescriptor[] fields;
+  private final int[] coercions;
+  private final boolean[] repeated;
+  // the explicit default value of each field, coerced, null if none
+  private final Object[] defaults;
+  // the plans of the message fields, looked up on first use
+  private final ProtobufConverter[] nested;
+
+  private ProtobufConverter(Descriptor descriptor) {
+    List<FieldDescriptor> list = descriptor.getFields();
+    int size = list.size();
+    fields = list.toArray(new FieldDescriptor[size]);
+    coercions = new int[size];
+    repeated = new boolean[size];
+    defaults = new Object[size];
+    nested = new ProtobufConverter[size];
+    for (int i = 0; i < size; i++) {
+      FieldDescriptor field = fields[i];
+      repeated[i] = field.isRepeated();
+      switch (field.getType()) {
+        case ENUM:
+          coercions[i] = ENUM_NAME;
+          break;
+        case BOOL:
+          coercions[i] = BOOL_INT;
+          break;
+        case BYTES:
+          coercions[i] = BYTES;
+          break;
+        case MESSAGE:
+          coercions[i] = MESSAGE;
+          break;
+        default:
+          coercions[i] = NONE;
+      }
+      if (!repeated[i] && field.hasDefaultValue()) {
+        defaults[i] = coerce(i, field.getDefaultValue());
+      }
+    }
+  }
+
+  /**
+   * @return the cached plan of the descriptor
+   */
+  public static ProtobufConverter of(Descriptor descriptor) {
+    ProtobufConverter plan = PLANS.get(descriptor);
+    if (plan == null) {
+      plan = new ProtobufConverter(descriptor);
+      ProtobufConverter previous = PLANS.putIfAbsent(descriptor, plan);
+      if (previous != null) {
+        plan = previous;
+      }
+    }
+    return plan;
+  }
+
+  public int size() {
+    return fields.length;
+  }
+
+  public FieldDescriptor getField(int index) {
+    return fields[index];
+  }
+
+  /**
+   * Convert all the fields of the message; the fields that are not set get
+   * their explicit default value, or null
+   */
+  public Tuple toTuple(Message msg) throws ExecException {
+    Tuple tuple = tf.newTuple(fields.length);
+    for (int i = 0; i < fields.length; i++) {
+      tuple.set(i, fieldToPig(msg, i));
+    }
+    return tuple;
+  }
+
+  /**
+   * @return the Pig value of a field of the message, the explicit default
+   *         value or null if a singular field is not set
+   */
+  public Object fieldToPig(Message msg, int index) {
+    if (!repeated[index] && !msg.hasField(fields[index])) {
+      return defaults[index];
+    }
+    return valueToPig(index, msg.getField(fields[index]));
+  }
+
+  /**
+   * @param value
+   *          the value of the field as returned by {@link Message#getField},
+   *          possibly null
+   * @return the Pig value
+   */
+  public Object valueToPig(int index, Object value) {
+    if (!repeated[index]) {
+      return coerce(index, value);
+    }
+    DataBag bag = bf.newDefaultBag();
+    if (value == null) {
+      return bag;
+    }
+    List<?> values = (List<?>) value;
+    boolean message = coercions[index] == MESSAGE;
+    for (int j = 0; j < values.size(); j++) {
+      Object item = coerce(index, values.get(j));
+      if (message) {
+        bag.add((Tuple) item);
+      } else {
+        Tuple inner = tf.newTuple(1);
+        try {
+          inner.set(0, item);
+        } catch (ExecException e) { // not expected
+          throw new RuntimeException(e);
+        }
+        bag.add(inner);
+      }
+    }
+    return bag;
+  }
+
+  private Object coerce(int index, Object value) {
+    if (value == null) {
+      return null;
+    }
+    switch (coercions[index]) {
+      case ENUM_NAME:
+        return ((EnumValueDescriptor) value).getName();
+      case BOOL_INT:
+        return ((Boolean) value).booleanValue() ? 1 : 0;
+      case BYTES:
+        return new DataByteArray(((ByteString) value).toByteArray());
+      case MESSAGE:
+        return new ProtobufTuple((Message) value, nested(index));
+      default:
+        return value;
+    }
+  }
+
+  private ProtobufConverter nested(int index) {
+    ProtobufConverter plan = nested[index];
+    if (plan == null) {
+      // a benign race, the plans are cached
+      plan = of(fields[index].getMessageType());
+      nested[index] = plan;
+    }
+    return plan;
+  }
+}
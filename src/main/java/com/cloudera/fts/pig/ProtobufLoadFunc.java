@@ -16,14 +16,22 @@ package com.cloudera.fts.pig;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.crunch.types.Protos;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
@@ -34,27 +42,45 @@ import org.apache.pig.LoadMetadata;
 import org.apache.pig.LoadPushDown;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.ResourceStatistics;
+import org.apache.pig.ResourceStatistics.ResourceFieldStatistics;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.util.ObjectSerializer;
 import org.apache.pig.impl.util.UDFContext;
+import org.codehaus.jackson.JsonNode;
 
+import com.cloudera.fts.crunch.Partitions;
+import com.cloudera.fts.proto.MessageStats;
+import com.cloudera.fts.proto.UnsplitProtoInputFormat;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Message;
 
 /**
  * A Pig {@code LoadFunc} implementation for reading protocol buffers stored in Sequence Files.
+ * When a projection is pushed, the tuples are decoded from the serialized
+ * messages and the fields that are not projected are skipped, unless
+ * {@link #resolve} has to see the parsed messages.
  */
 public class ProtobufLoadFunc extends LoadFunc implements LoadMetadata, LoadPushDown {
 
   private static final ProtobufToPig PROTO_TO_PIG = new ProtobufToPig();
   private static final String PROJECTION_KEY = "ProtobufLoadFunc_projectedFields";
+  private static final String PARTITIONS_KEY = "ProtobufLoadFunc_partitions";
   
   private final Message instance;
   private String contextSignature;
   private RecordReader<NullWritable, BytesWritable> reader;
   private RequiredFieldList requiredFieldList;
   private ProjectedProtobufTupleFactory tupleFactory;
+  private boolean decodeProjection;
+  private boolean checkResolve;
+  private String partitionedLocation;
+  private Configuration conf;
   
   @SuppressWarnings("unchecked")
   public ProtobufLoadFunc(String protoClassName) {
@@ -71,11 +97,35 @@ public class ProtobufLoadFunc extends LoadFunc implements LoadMetadata, LoadPush
     this.instance = Protos.getDefaultInstance(clazz);
   }
   
+  /**
+   * The input of a partition filter that matches no partition
+   */
+  private static class EmptyInputFormat extends SequenceFileInputFormat<NullWritable, BytesWritable> {
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+      return Collections.emptyList();
+    }
+  }
+
   @Override
   public InputFormat<NullWritable, BytesWritable> getInputFormat() throws IOException {
+    if ("".equals(getUDFProperties().getProperty(PARTITIONS_KEY))) {
+      return new EmptyInputFormat();
+    }
+    if (!isSplitable()) {
+      return new UnsplitProtoInputFormat();
+    }
     return new SequenceFileInputFormat<NullWritable, BytesWritable>();
   }
 
+  /**
+   * Whether the files can be split, false if {@link #resolve} reads the
+   * following messages of a file with {@link #nextMessage}
+   */
+  protected boolean isSplitable() {
+    return true;
+  }
+
   /** UDF properties for this class based on context signature */
   protected Properties getUDFProperties() {
     return UDFContext.getUDFContext()
@@ -92,6 +142,12 @@ public class ProtobufLoadFunc extends LoadFunc implements LoadMetadata, LoadPush
     return Arrays.asList(LoadPushDown.OperatorSet.PROJECTION);
   }
 
+  /**
+   * Pig 0.11 only pushes the top-level fields of a script (the sub-fields are
+   * only filled for map keys), the required message fields are loaded whole.
+   * A {@code RequiredFieldList} built by hand can project their sub-fields,
+   * see {@link ProjectedProtobufTupleFactory}
+   */
   @Override
   public RequiredFieldResponse pushProjection(RequiredFieldList requiredFieldList) throws FrontendException {
     try {
@@ -106,12 +162,32 @@ public class ProtobufLoadFunc extends LoadFunc implements LoadMetadata, LoadPush
   public Tuple getNext() throws IOException {
     if (tupleFactory == null) {
       tupleFactory = new ProjectedProtobufTupleFactory(instance, requiredFieldList);
+      decodeProjection = requiredFieldList != null
+          && canDecodeProjection(tupleFactory.getRequiredFields());
+      checkResolve = decodeProjection && mayResolve(tupleFactory.getRequiredFields());
     }
     try {
       if (reader != null && reader.nextKeyValue()) {
         BytesWritable bw = reader.getCurrentValue();
-        Message v = instance.newBuilderForType().mergeFrom(bw.getBytes(), 0, bw.getLength()).build();
-        return tupleFactory.newTuple(v);
+        if (decodeProjection
+            && !(checkResolve && needsResolve(bw.getBytes(), 0, bw.getLength()))) {
+          return tupleFactory.newTuple(bw.getBytes(), 0, bw.getLength());
+        }
+        return tupleFactory.newTuple(resolve(parse(bw)));
+      }
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    return null;
+  }
+
+  /**
+   * @return the next message of the split, null at its end
+   */
+  protected Message nextMessage() throws IOException {
+    try {
+      if (reader != null && reader.nextKeyValue()) {
+        return parse(reader.getCurrentValue());
       }
     } catch (InterruptedException e) {
       throw new IOException(e);
@@ -119,6 +195,41 @@ public class ProtobufLoadFunc extends LoadFunc implements LoadMetadata, LoadPush
     return null;
   }
 
+  private Message parse(BytesWritable bw) throws IOException {
+    return instance.newBuilderForType().mergeFrom(bw.getBytes(), 0, bw.getLength()).build();
+  }
+
+  /**
+   * A hook to rewrite the messages before they are converted to tuples
+   */
+  protected Message resolve(Message message) throws IOException {
+    return message;
+  }
+
+  /**
+   * Whether the projected fields can be decoded without parsing the messages,
+   * i.e. {@link #resolve} does not change them
+   */
+  protected boolean canDecodeProjection(Collection<FieldDescriptor> fields) {
+    return true;
+  }
+
+  /**
+   * Whether {@link #resolve} may change one of the projected fields, only then
+   * is {@link #needsResolve} asked
+   */
+  protected boolean mayResolve(Collection<FieldDescriptor> fields) {
+    return true;
+  }
+
+  /**
+   * Whether a serialized message has to be parsed and resolved even though
+   * the projection can be decoded
+   */
+  protected boolean needsResolve(byte[] bytes, int offset, int length) {
+    return false;
+  }
+
 	@Override
   public void prepareToRead(RecordReader recordReader, PigSplit pigSplit)
 	    throws IOException {
@@ -127,7 +238,21 @@ public class ProtobufLoadFunc extends LoadFunc implements LoadMetadata, LoadPush
 
   @Override
   public void setLocation(String location, Job job) throws IOException {
-    FileInputFormat.setInputPaths(job, location);
+    String partitions = getUDFProperties().getProperty(PARTITIONS_KEY);
+    if ("".equals(partitions)) {
+      // no partition matches, the input format has no splits
+      FileInputFormat.setInputPaths(job, location);
+    } else if (partitions != null) {
+      // the partitions left by the partition filter
+      FileInputFormat.setInputPaths(job, partitions);
+    } else {
+      Map<Path, Map<String, Object>> all = listPartitions(location, job.getConfiguration());
+      if (all.isEmpty()) {
+        FileInputFormat.setInputPaths(job, location);
+      } else {
+        FileInputFormat.setInputPaths(job, all.keySet().toArray(new Path[all.size()]));
+      }
+    }
     
     String projectedFields = getUDFProperties().getProperty(PROJECTION_KEY);
     if (projectedFields != null) {
@@ -141,22 +266,103 @@ public class ProtobufLoadFunc extends LoadFunc implements LoadMetadata, LoadPush
     return new ResourceSchema(PROTO_TO_PIG.toSchema(instance.getDescriptorForType()));
   }
 
+  /**
+   * The keys of the {@code <field>=<value>} directories of the location, as
+   * written with {@code pa.partition.by}. The keys are fields of the message,
+   * so the filters on them are pushed to {@link #setPartitionFilter}.
+   */
   @Override
-  public String[] getPartitionKeys(String path, Job job) throws IOException {
-    // NOT IMPLEMENTED
-    return null;
+  public String[] getPartitionKeys(String location, Job job) throws IOException {
+    Map<Path, Map<String, Object>> partitions = listPartitions(location, job.getConfiguration());
+    if (partitions.isEmpty()) {
+      return null;
+    }
+    partitionedLocation = location;
+    this.conf = job.getConfiguration();
+    Set<String> keys = partitions.values().iterator().next().keySet();
+    return keys.toArray(new String[keys.size()]);
+  }
+
+  /**
+   * The partition directories of a location and the values of their keys,
+   * typed as the fields of the message. The location is not partitioned if a
+   * directory is not named after a field.
+   */
+  private Map<Path, Map<String, Object>> listPartitions(String location, Configuration conf)
+      throws IOException {
+    Map<Path, Map<String, Object>> partitions = Maps.newTreeMap();
+    if (location.contains(",")) {
+      return partitions;
+    }
+    Descriptor descriptor = instance.getDescriptorForType();
+    for (Map.Entry<Path, String[]> entry : Partitions.list(conf, new Path(location)).entrySet()) {
+      FieldDescriptor field = descriptor.findFieldByName(entry.getValue()[0]);
+      if (field == null || field.isRepeated()) {
+        return Maps.newTreeMap();
+      }
+      String value = entry.getValue()[1];
+      Object typed;
+      if (value == null) {
+        typed = null;
+      } else if (field.getJavaType() == FieldDescriptor.JavaType.LONG) {
+        typed = Long.valueOf(value);
+      } else if (field.getJavaType() == FieldDescriptor.JavaType.INT) {
+        typed = Integer.valueOf(value);
+      } else {
+        typed = value;
+      }
+      Map<String, Object> values = Maps.newHashMap();
+      values.put(field.getName(), typed);
+      partitions.put(entry.getKey(), values);
+    }
+    return partitions;
   }
 
+  /**
+   * The statistics of the {@code _stats.json} sidecar written with the
+   * output, null if there is none. Pig has no null count per field, only the
+   * distinct estimates are passed on.
+   */
   @Override
   public ResourceStatistics getStatistics(String path, Job job)
       throws IOException {
- // NOT IMPLEMENTED
-    return null;
+    if (path.contains(",")) {
+      return null;
+    }
+    JsonNode sidecar = MessageStats.readSidecar(job.getConfiguration(), new Path(path));
+    if (sidecar == null) {
+      return null;
+    }
+    ResourceStatistics stats = new ResourceStatistics();
+    stats.setNumRecords(sidecar.path("records").getLongValue());
+    stats.setAvgRecordSize(sidecar.path("avg_record_size").getLongValue());
+    stats.setmBytes(sidecar.path("bytes").getLongValue() / (1024 * 1024));
+    List<FieldDescriptor> fields = instance.getDescriptorForType().getFields();
+    ResourceFieldStatistics[] fieldStats = new ResourceFieldStatistics[fields.size()];
+    for (int i = 0; i < fieldStats.length; i++) {
+      fieldStats[i] = new ResourceFieldStatistics();
+      long distinct = MessageStats.distinct(sidecar, fields.get(i).getName());
+      if (distinct >= 0) {
+        fieldStats[i].setNumDistinctValues(distinct);
+      }
+    }
+    stats.setFields(fieldStats);
+    return stats;
   }
 
+  /**
+   * Only read the partitions that match the filter, nothing if none does
+   */
   @Override
   public void setPartitionFilter(Expression expr) throws IOException {
-    // NOT IMPLEMENTED
+    List<String> matching = Lists.newArrayList();
+    for (Map.Entry<Path, Map<String, Object>> entry : listPartitions(partitionedLocation, conf)
+        .entrySet()) {
+      if (PartitionFilter.matches(expr, entry.getValue())) {
+        matching.add(entry.getKey().toString());
+      }
+    }
+    getUDFProperties().setProperty(PARTITIONS_KEY, Joiner.on(',').join(matching));
   }
 
 }
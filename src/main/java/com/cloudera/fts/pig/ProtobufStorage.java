@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.pig;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.crunch.types.Protos;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.StoreFunc;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.util.ObjectSerializer;
+import org.apache.pig.impl.util.UDFContext;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+
+/**
+ * A Pig {@code StoreFunc} writing the tuples as protocol buffers in Sequence
+ * Files, the counterpart of {@link ProtobufLoadFunc}: the files can be read
+ * back with it, the Hive {@code ProtobufSerDe}s and the Crunch protobuf types.
+ * The tuples are mapped onto the message with {@link PigToProtobuf}, with one
+ * reused builder and one reused output buffer per task.
+ *
+ * The Sequence Files are block-compressed with the job's output codec, the
+ * optional second argument sets the compression type instead: {@code NONE},
+ * {@code RECORD} or {@code BLOCK}. The job's {@code mapred.output.compress}
+ * and {@code mapred.output.compression.type} are always overridden, they have
+ * defaults in {@code mapred-default.xml}.
+ */
+public class ProtobufStorage extends StoreFunc {
+
+  private static final String SCHEMA_KEY = "ProtobufStorage_schema";
+
+  private final Message instance;
+  private final CompressionType compressionType;
+  private String contextSignature;
+  private RecordWriter<NullWritable, BytesWritable> writer;
+  private PigToProtobuf converter;
+  private final BytesWritable buffer = new BytesWritable();
+
+  public ProtobufStorage(String protoClassName) {
+    this(protoClassName, CompressionType.BLOCK.name());
+  }
+
+  /**
+   * @param compressionType
+   *          {@code NONE}, {@code RECORD} or {@code BLOCK}
+   */
+  @SuppressWarnings("unchecked")
+  public ProtobufStorage(String protoClassName, String compressionType) {
+    try {
+      this.instance = ReflectionUtils.newInstance(
+          (Class<? extends Message>) Class.forName(protoClassName), null);
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+    this.compressionType = CompressionType.valueOf(compressionType.toUpperCase());
+  }
+
+  public ProtobufStorage(Class<? extends Message> clazz) {
+    this.instance = Protos.getDefaultInstance(clazz);
+    this.compressionType = CompressionType.BLOCK;
+  }
+
+  @Override
+  public OutputFormat<NullWritable, BytesWritable> getOutputFormat() throws IOException {
+    return new SequenceFileOutputFormat<NullWritable, BytesWritable>();
+  }
+
+  @Override
+  public void setStoreLocation(String location, Job job) throws IOException {
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(BytesWritable.class);
+    FileOutputFormat.setOutputPath(job, new Path(location));
+    FileOutputFormat.setCompressOutput(job, compressionType != CompressionType.NONE);
+    if (compressionType != CompressionType.NONE) {
+      SequenceFileOutputFormat.setOutputCompressionType(job, compressionType);
+    }
+  }
+
+  /** UDF properties for this class based on context signature */
+  protected Properties getUDFProperties() {
+    return UDFContext.getUDFContext()
+        .getUDFProperties(this.getClass(), new String[] {contextSignature});
+  }
+
+  @Override
+  public void setStoreFuncUDFContextSignature(String signature) {
+    this.contextSignature = signature;
+  }
+
+  /**
+   * Check that the fields of the schema are fields of the message, and pass
+   * the schema to the tasks
+   */
+  @Override
+  public void checkSchema(ResourceSchema schema) throws IOException {
+    new PigToProtobuf(instance.newBuilderForType(), schema);
+    getUDFProperties().setProperty(SCHEMA_KEY, ObjectSerializer.serialize(schema));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void prepareToWrite(@SuppressWarnings("rawtypes") RecordWriter writer)
+      throws IOException {
+    this.writer = writer;
+    String schema = getUDFProperties().getProperty(SCHEMA_KEY);
+    converter = new PigToProtobuf(instance.newBuilderForType(), schema == null ? null
+        : (ResourceSchema) ObjectSerializer.deserialize(schema));
+  }
+
+  @Override
+  public void putNext(Tuple tuple) throws IOException {
+    Message message = converter.toMessage(tuple);
+    // the writer serializes the buffer before the next call
+    int size = message.getSerializedSize();
+    buffer.setSize(0);
+    buffer.setSize(size);
+    CodedOutputStream out = CodedOutputStream.newInstance(buffer.getBytes(), 0, size);
+    message.writeTo(out);
+    out.checkNoSpaceLeft();
+    try {
+      writer.write(NullWritable.get(), buffer);
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -14,26 +14,16 @@
  */
 package com.cloudera.fts.pig;
 
-import java.util.List;
-import java.util.Map;
-
 import org.apache.pig.backend.executionengine.ExecException;
-import org.apache.pig.data.BagFactory;
-import org.apache.pig.data.DataBag;
-import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
-import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Lists;
-import com.google.protobuf.ByteString;
 import com.google.protobuf.Descriptors.Descriptor;
-import com.google.protobuf.Descriptors.EnumValueDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Message;
 
@@ -45,9 +35,6 @@ import com.google.protobuf.Message;
 public class ProtobufToPig {
   private static final Logger LOG = LoggerFactory.getLogger(ProtobufToPig.class);
 
-  private static final TupleFactory tupleFactory_ = TupleFactory.getInstance();
-  private static BagFactory bagFactory_ = BagFactory.getInstance();
-
   public ProtobufToPig() {
   }
 
@@ -55,7 +42,8 @@ public class ProtobufToPig {
    * Turn a generic message into a Tuple.  Individual fields that are enums
    * are converted into their string equivalents.  Fields that are not filled
    * out in the protobuf are set to null, unless there is a default field value in
-   * which case that is used instead.
+   * which case that is used instead.  The conversion follows the cached
+   * {@link ProtobufConverter} plan of the message descriptor.
    * @param msg the protobuf message
    * @return a pig tuple representing the message.
    */
@@ -66,26 +54,12 @@ public class ProtobufToPig {
       return null;
     }
 
-    Descriptor msgDescriptor = msg.getDescriptorForType();
-    Tuple tuple = tupleFactory_.newTuple(msgDescriptor.getFields().size());
-    int curField = 0;
     try {
-      // Walk through all the possible fields in the message.
-      for (FieldDescriptor fieldDescriptor : msgDescriptor.getFields()) {
-        // Get the set value, or the default value, or null.
-        Object fieldValue = getFieldValue(msg, fieldDescriptor);
-
-        if (fieldDescriptor.getType() == FieldDescriptor.Type.MESSAGE) {
-          tuple.set(curField++, messageToTuple(fieldDescriptor, fieldValue));
-        } else {
-          tuple.set(curField++, singleFieldToTuple(fieldDescriptor, fieldValue));
-        }
-      }
+      return ProtobufConverter.of(msg.getDescriptorForType()).toTuple(msg);
     } catch (ExecException e) {
       LOG.warn("Could not convert msg " + msg + " to tuple", e);
+      return null;
     }
-
-    return tuple;
   }
 
   /**
@@ -94,11 +68,7 @@ public class ProtobufToPig {
    * on whether the field is a Message or a simple field.
    */
   protected Object fieldToPig(FieldDescriptor fieldDescriptor, Object fieldValue) {
-    if (fieldDescriptor.getType() == FieldDescriptor.Type.MESSAGE) {
-      return messageToTuple(fieldDescriptor, fieldValue);
-    } else {
-      return singleFieldToTuple(fieldDescriptor, fieldValue);
-    }
+    return plan(fieldDescriptor).valueToPig(fieldDescriptor.getIndex(), fieldValue);
   }
 
   /**
@@ -108,22 +78,9 @@ public class ProtobufToPig {
    * @param fieldValue the object representing the value of this field, possibly null.
    * @return the object representing fieldValue in Pig -- either a bag or a tuple.
    */
-  @SuppressWarnings("unchecked")
   protected Object messageToTuple(FieldDescriptor fieldDescriptor, Object fieldValue) {
     assert fieldDescriptor.getType() == FieldDescriptor.Type.MESSAGE : "messageToTuple called with field of type " + fieldDescriptor.getType();
-
-    if (fieldDescriptor.isRepeated()) {
-      // The protobuf contract is that if the field is repeated, then the object returned is actually a List
-      // of the underlying datatype, which in this case is a nested message.
-      List<Message> messageList = (List<Message>) (fieldValue != null ? fieldValue : Lists.newArrayList());
-      DataBag bag = bagFactory_.newDefaultBag();
-      for (Message m : messageList) {
-        bag.add(new ProtobufTuple(m));
-      }
-      return bag;
-    } else {
-      return new ProtobufTuple((Message)fieldValue);
-    }
+    return fieldToPig(fieldDescriptor, fieldValue);
   }
 
   /**
@@ -132,53 +89,14 @@ public class ProtobufToPig {
    * @param fieldDescriptor the descriptor object for the given field.
    * @param fieldValue the object representing the value of this field, possibly null.
    * @return the object representing fieldValue in Pig -- either a bag or a single field.
-   * @throws ExecException if Pig decides to.  Shouldn't happen because we won't walk off the end of a tuple's field set.
    */
-  @SuppressWarnings("unchecked")
   protected Object singleFieldToTuple(FieldDescriptor fieldDescriptor, Object fieldValue) {
     assert fieldDescriptor.getType() != FieldDescriptor.Type.MESSAGE : "messageToFieldSchema called with field of type " + fieldDescriptor.getType();
-
-    if (fieldDescriptor.isRepeated()) {
-      // The protobuf contract is that if the field is repeated, then the object returned is actually a List
-      // of the underlying datatype, which in this case is a "primitive" like int, float, String, etc.
-      // We have to make a single-item tuple out of it to put it in the bag.
-      DataBag bag = bagFactory_.newDefaultBag();
-      List<Object> fieldValueList = (List<Object>) (fieldValue != null ? fieldValue : Lists.newArrayList());
-      for (Object singleFieldValue : fieldValueList) {
-        Object nonEnumFieldValue = coerceToPigTypes(fieldDescriptor, singleFieldValue);
-        Tuple innerTuple = tupleFactory_.newTuple(1);
-        try {
-          innerTuple.set(0, nonEnumFieldValue);
-        } catch (ExecException e) { // not expected
-          throw new RuntimeException(e);
-        }
-        bag.add(innerTuple);
-      }
-      return bag;
-    } else {
-      return coerceToPigTypes(fieldDescriptor, fieldValue);
-    }
+    return fieldToPig(fieldDescriptor, fieldValue);
   }
 
-  /**
-   * If the given field value is an enum, translate it to the enum's name as a string, since Pig cannot handle enums.
-   * Also, if the given field value is a bool, translate it to 0 or 1 to avoid Pig bools, which can be sketchy.
-   * @param fieldDescriptor the descriptor object for the given field.
-   * @param fieldValue the object representing the value of this field, possibly null.
-   * @return the object, unless it was from an enum field, in which case we return the name of the enum field.
-   */
-  private Object coerceToPigTypes(FieldDescriptor fieldDescriptor, Object fieldValue) {
-    if (fieldDescriptor.getType() == FieldDescriptor.Type.ENUM && fieldValue != null) {
-      EnumValueDescriptor enumValueDescriptor = (EnumValueDescriptor)fieldValue;
-      return enumValueDescriptor.getName();
-    } else if (fieldDescriptor.getType() == FieldDescriptor.Type.BOOL && fieldValue != null) {
-      Boolean boolValue = (Boolean)fieldValue;
-      return new Integer(boolValue ? 1 : 0);
-    } else if (fieldDescriptor.getType() == FieldDescriptor.Type.BYTES && fieldValue != null) {
-      ByteString bsValue = (ByteString)fieldValue;
-      return new DataByteArray(bsValue.toByteArray());
-    }
-    return fieldValue;
+  private static ProtobufConverter plan(FieldDescriptor fieldDescriptor) {
+    return ProtobufConverter.of(fieldDescriptor.getContainingType());
   }
 
   /**
@@ -190,15 +108,13 @@ public class ProtobufToPig {
    * @return the value of the field, or null if none can be assigned.
    */
   protected Object getFieldValue(Message msg, FieldDescriptor fieldDescriptor) {
-    Object o = null;
-    Map<FieldDescriptor, Object> setFields = msg.getAllFields();
-    if (setFields.containsKey(fieldDescriptor)) {
-      o = setFields.get(fieldDescriptor);
+    if (fieldDescriptor.isRepeated() ? msg.getRepeatedFieldCount(fieldDescriptor) > 0
+        : msg.hasField(fieldDescriptor)) {
+      return msg.getField(fieldDescriptor);
     } else if (fieldDescriptor.hasDefaultValue()) {
-      o = fieldDescriptor.getDefaultValue();
+      return fieldDescriptor.getDefaultValue();
     }
-
-    return o;
+    return null;
   }
 
   /**
@@ -15,10 +15,7 @@
 package com.cloudera.fts.pig;
 
 import java.util.Iterator;
-import java.util.List;
 
-import com.google.protobuf.Descriptors.Descriptor;
-import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Message;
 
 /**
@@ -29,25 +26,25 @@ import com.google.protobuf.Message;
 public class ProtobufTuple extends AbstractLazyTuple {
 
   private final Message msg_;
-  private final Descriptor descriptor_;
-  private final List<FieldDescriptor> fieldDescriptors_;
-  private final ProtobufToPig protoConv_;
-  private final int protoSize_;
+  private final ProtobufConverter plan_;
 
   public ProtobufTuple(Message msg) {
+    this(msg, ProtobufConverter.of(msg.getDescriptorForType()));
+  }
+
+  /**
+   * @param plan
+   *          the cached plan of the message descriptor
+   */
+  public ProtobufTuple(Message msg, ProtobufConverter plan) {
     msg_ = msg;
-    descriptor_ = msg.getDescriptorForType();
-    fieldDescriptors_ = descriptor_.getFields();
-    protoSize_ = fieldDescriptors_.size();
-    protoConv_ = new ProtobufToPig();
-    initRealTuple(protoSize_);
+    plan_ = plan;
+    initRealTuple(plan.size());
   }
 
   @Override
   protected Object getObjectAt(int idx) {
-    FieldDescriptor fieldDescriptor = fieldDescriptors_.get(idx);
-    Object fieldValue = msg_.getField(fieldDescriptor);
-    return protoConv_.fieldToPig(fieldDescriptor, fieldValue);
+    return plan_.valueToPig(idx, msg_.getField(plan_.getField(idx)));
   }
 
   @Override
@@ -18,57 +18,111 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.crunch.DoFn;
 import org.apache.crunch.Emitter;
+import org.apache.hadoop.io.Text;
 
-import com.cloudera.fts.crunch.AttribsRecord;
+import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.PipelineCounters;
+import com.cloudera.fts.crunch.RecordTokenizer;
 import com.cloudera.fts.crunch.SplitFactory;
 import com.cloudera.fts.proto.Item.PItemAttribute;
 
 /**
  * Converts a delimited line of text from the database dump of the attr table
- * into a {@code PItemAttribute} message.
+ * into a {@code PItemAttribute} message. The line is tokenized in place, the
+ * only strings created are the ones set on the message.
  * 
+ * With a {@link NameDictionary} the names found in the dictionary are encoded
+ * as their id in the {@code int} field and the name is left empty.
  */
-public class Ascii2PItemAttributeFn extends DoFn<String, PItemAttribute> {
+public class Ascii2PItemAttributeFn extends DoFn<Text, PItemAttribute> {
   private static final long serialVersionUID = 5468738127600291617L;
 
   private static final Log LOG = LogFactory.getLog(Ascii2PItemAttributeFn.class);
 
 	private final SplitFactory sFactory = new SplitFactory();
+	private final NameDictionary dictionary;
+	private transient long bytesIn;
+	private transient long dictionaryMisses;
   
 	public Ascii2PItemAttributeFn() {
+    this(null);
+  }
+
+  /**
+   * @param dictionary
+   *          the attribute names to encode, may be null
+   */
+  public Ascii2PItemAttributeFn(NameDictionary dictionary) {
+    this.dictionary = dictionary;
     sFactory.setType(SplitFactory.Type.ATTRS);
   }
+
+  @Override
+  public void initialize() {
+    bytesIn = 0L;
+    dictionaryMisses = 0L;
+  }
   
   @Override
-  public void process(String input, Emitter<PItemAttribute> emitter) {
-    if (input != null && !input.isEmpty()) {
+  public void process(Text input, Emitter<PItemAttribute> emitter) {
+    if (input != null && input.getLength() > 0) {
+      bytesIn += input.getLength();
       PItemAttribute da = map(input);
       if (da != null) {
 				emitter.emit(da);
       }
+    } else {
+      increment(PipelineCounters.REJECTED, "EMPTY_LINE");
+    }
+  }
+
+  @Override
+  public void cleanup(Emitter<PItemAttribute> emitter) {
+    increment(PipelineCounters.BYTES, "ATTR_LINES_IN", bytesIn);
+    if (dictionary != null) {
+      increment("Dictionary", "MISSES", dictionaryMisses);
     }
   }
   
+  public PItemAttribute map(Text input) {
+    return map(sFactory.wrap(input));
+  }
+
   public PItemAttribute map(String input) {
-		AttribsRecord attr = (AttribsRecord) sFactory.create(input);
+    return map(sFactory.wrap(input));
+  }
+
+  private PItemAttribute map(AbstractAttribsRecord attr) {
+    RecordTokenizer tokens = attr.getTokenizer();
     PItemAttribute.Builder pb = PItemAttribute.newBuilder();
     
-		LOG.debug("attr: " + attr.toString());
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("attr: " + attr.toString());
+    }
 
-		if (attr.getSerialNum() == null || attr.getSerialNum().length() == 0) {
+		if (tokens.getSerialNumLength() == 0) {
 			throw new IllegalStateException("Serial number cannot be missing: "
-			    + attr.toString() + " in '" + input + "'");
+			    + attr.toString());
     }
 		pb.setSerialNum(attr.getSerialNum());
 
     pb.setSeq(attr.getSeq());
 
-    if (attr.getName() == null || attr.getName().length() == 0) {
+    if (tokens.getNameLength() == 0) {
       throw new IllegalStateException("Attribute should have a name: " + attr.toString());
     }
-    pb.setName(attr.getName());
+    String name = attr.getAttrName();
+    int id = dictionary == null ? -1 : dictionary.getId(name);
+    if (id >= 0) {
+      pb.setName("").setInt(id);
+    } else {
+      if (dictionary != null) {
+        dictionaryMisses++;
+      }
+      pb.setName(name);
+    }
 
-		if (attr.getAttrValue() != null && attr.getAttrValue().length() > 0) {
+		if (tokens.getValueLength() > 0) {
 			pb.setValue(attr.getAttrValue());
     }
 
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.util.Collection;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.crunch.PipelineCounters;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+
+/**
+ * Collects the attributes of an event cogroup into a {@link PItemRecord},
+ * optionally packed, the cogroup is shared with the {@code AvroItem} output.
+ * The serial numbers with an event but no attributes have no record.
+ */
+public class CogroupedPItemAttributes2PItemRecordFn extends
+    DoFn<Pair<String, Pair<Collection<String>, Collection<PItemAttribute>>>, PItemRecord> {
+  private static final long serialVersionUID = -6120584316433498104L;
+
+  private final PItemAttributes2PItemRecordFn recordFn = new PItemAttributes2PItemRecordFn();
+  private final boolean packed;
+
+  public CogroupedPItemAttributes2PItemRecordFn() {
+    this(false);
+  }
+
+  public CogroupedPItemAttributes2PItemRecordFn(boolean packed) {
+    this.packed = packed;
+  }
+
+  @Override
+  public void process(Pair<String, Pair<Collection<String>, Collection<PItemAttribute>>> input,
+      Emitter<PItemRecord> emitter) {
+    if (!input.second().second().isEmpty()) {
+      PItemRecord record = recordFn.map(input.first(), input.second().second());
+      increment(PipelineCounters.ATTRIBUTES_PER_SERIAL,
+          PipelineCounters.bucket(record.getAttributesCount()));
+      emitter.emit(packed ? PackedRecords.pack(record) : record);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.crunch.CombineFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Keeps the latest value of each attribute name of a serial number: the one
+ * with the highest seq, the highest value on a tie. The values are
+ * {@link PItemRecord}s so the same function runs as the combiner, dropping the
+ * superseded versions before the shuffle, and as the reducer, where the
+ * merged record is the output. The attributes are in seq order.
+ */
+public class LatestAttributesFn extends CombineFn<String, PItemRecord> {
+  private static final long serialVersionUID = 4409626021624412513L;
+
+  public static final String COUNTER_GROUP = "Latest";
+
+  private static final Comparator<PItemAttribute> SEQ_NAME_ORDER = new Comparator<PItemAttribute>() {
+    @Override
+    public int compare(PItemAttribute a, PItemAttribute b) {
+      if (a.getSeq() != b.getSeq()) {
+        return a.getSeq() < b.getSeq() ? -1 : 1;
+      }
+      return NameDictionary.nameOrId(a).compareTo(NameDictionary.nameOrId(b));
+    }
+  };
+
+  /**
+   * @return the record of a single attribute, the map-side input of the
+   *         function
+   */
+  public static PItemRecord wrap(PItemAttribute attr) {
+    return PItemRecord.newBuilder().setSerialNum(attr.getSerialNum())
+        .addAttributes(attr.toBuilder().clearSerialNum()).build();
+  }
+
+  @Override
+  public void process(Pair<String, Iterable<PItemRecord>> input,
+      Emitter<Pair<String, PItemRecord>> emitter) {
+    Map<String, PItemAttribute> latest = Maps.newHashMap();
+    long superseded = 0L;
+    String serialNum = null;
+    for (PItemRecord record : input.second()) {
+      serialNum = record.getSerialNum();
+      for (PItemAttribute attr : record.getAttributesList()) {
+        String name = NameDictionary.nameOrId(attr);
+        PItemAttribute previous = latest.get(name);
+        if (previous == null) {
+          latest.put(name, attr);
+        } else {
+          superseded++;
+          if (isNewer(attr, previous)) {
+            latest.put(name, attr);
+          }
+        }
+      }
+    }
+    increment(COUNTER_GROUP, "SUPERSEDED", superseded);
+    List<PItemAttribute> attrs = Lists.newArrayList(latest.values());
+    Collections.sort(attrs, SEQ_NAME_ORDER);
+    // The key may be salted if the serial number is heavy, the records are not
+    PItemRecord record = PItemRecord.newBuilder().setSerialNum(serialNum)
+        .setStatus("P").addAllAttributes(attrs).build();
+    emitter.emit(Pair.of(input.first(), record));
+  }
+
+  private static boolean isNewer(PItemAttribute attr, PItemAttribute previous) {
+    if (attr.getSeq() != previous.getSeq()) {
+      return attr.getSeq() > previous.getSeq();
+    }
+    return attr.getValue().compareTo(previous.getValue()) > 0;
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Reduce-side function to merge a delta of attributes into the existing
+ * serialized {@link PItemRecord} of a serial number. The attributes already in
+ * the record are not added again, so re-applying the same delta is a no-op. A
+ * record without any delta attributes is emitted as is, without decoding it.
+ * A packed record stays packed.
+ *
+ * The chunks of a record (see {@link PItemRecordChunks}) are merged in chunk
+ * order into a whole record, which is cut into chunks again with a maximum
+ * number of attributes.
+ */
+public class MergePItemRecordFn extends
+    DoFn<Pair<String, Pair<Collection<ByteBuffer>, Collection<PItemAttribute>>>, ByteBuffer> {
+  private static final long serialVersionUID = -2093512848731593052L;
+
+  private static final Log LOG = LogFactory.getLog(MergePItemRecordFn.class);
+
+  private static final Comparator<PItemRecord> CHUNK_ORDER = new Comparator<PItemRecord>() {
+    @Override
+    public int compare(PItemRecord a, PItemRecord b) {
+      return a.getChunk() < b.getChunk() ? -1 : (a.getChunk() == b.getChunk() ? 0 : 1);
+    }
+  };
+
+  private final int maxAttributes;
+
+  public MergePItemRecordFn() {
+    this(0);
+  }
+
+  /**
+   * @param maxAttributes
+   *          the maximum number of attributes of a record, 0 for no limit
+   */
+  public MergePItemRecordFn(int maxAttributes) {
+    this.maxAttributes = maxAttributes;
+  }
+
+  @Override
+  public void process(Pair<String, Pair<Collection<ByteBuffer>, Collection<PItemAttribute>>> input,
+      Emitter<ByteBuffer> emitter) {
+    String serialNum = input.first();
+    Preconditions.checkNotNull(serialNum);
+    Collection<ByteBuffer> records = input.second().first();
+    Collection<PItemAttribute> delta = input.second().second();
+    if (delta.isEmpty()) {
+      for (ByteBuffer record : records) {
+        emitter.emit(record);
+      }
+      return;
+    }
+    PItemRecord merged = map(serialNum, records, delta);
+    if (maxAttributes > 0) {
+      PItemRecordChunks.emit(serialNum, PackedRecords.unpack(merged).getAttributesList()
+          .iterator(), maxAttributes, PackedRecords.isPacked(merged), serialized(emitter));
+    } else {
+      emitter.emit(ByteBuffer.wrap(merged.toByteArray()));
+    }
+  }
+
+  private static Emitter<PItemRecord> serialized(final Emitter<ByteBuffer> emitter) {
+    return new Emitter<PItemRecord>() {
+      @Override
+      public void emit(PItemRecord record) {
+        emitter.emit(ByteBuffer.wrap(record.toByteArray()));
+      }
+
+      @Override
+      public void flush() {
+        emitter.flush();
+      }
+    };
+  }
+
+  public PItemRecord map(String serialNum, Iterable<ByteBuffer> records,
+      Iterable<PItemAttribute> delta) {
+    PItemRecord.Builder dr = PItemRecord.newBuilder().setSerialNum(serialNum)
+        .setStatus("P");
+    boolean packed = false;
+    List<PItemRecord> chunks = Lists.newArrayList();
+    for (ByteBuffer record : records) {
+      try {
+        PItemRecord parsed = PItemRecord.parseFrom(ByteString.copyFrom(record.array(),
+            record.arrayOffset() + record.position(), record.remaining()));
+        packed |= PackedRecords.isPacked(parsed);
+        chunks.add(parsed);
+      } catch (InvalidProtocolBufferException e) {
+        throw new IllegalStateException("Cannot parse the record for " + serialNum, e);
+      }
+    }
+    // the shuffle does not keep the chunks in order
+    Collections.sort(chunks, CHUNK_ORDER);
+    for (PItemRecord chunk : chunks) {
+      dr.mergeFrom(PackedRecords.unpack(chunk));
+    }
+    dr.clearChunk().clearContinued();
+    Set<PItemAttribute> existing = Sets.newHashSet(dr.getAttributesList());
+    int added = 0;
+    for (PItemAttribute attr : delta) {
+      assert (serialNum.equals(attr.getSerialNum()));
+      PItemAttribute stripped = attr.toBuilder().clearSerialNum().build();
+      if (existing.add(stripped)) {
+        dr.addAttributes(stripped);
+        added++;
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("serial_num: " + serialNum + " merged " + added + " of "
+          + Iterables.size(delta) + " delta attributes");
+    }
+    return packed ? PackedRecords.pack(dr.build()) : dr.build();
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.crunch.ExternalSorter;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Second stage of the skew mitigation: concatenates the partial
+ * {@link PItemRecord}s built by the reducers of a salted heavy serial number.
+ * If the partials are seq-sorted the merged attributes are re-sorted on seq.
+ * Packed partials are unpacked and the merged record is packed again.
+ *
+ * With a maximum number of attributes the merged record is streamed into
+ * chunks (see {@link PItemRecordChunks}); the seq-sorted attributes go through
+ * an {@link ExternalSorter} that spills to the local disks.
+ */
+public class MergePartialPItemRecordsFn extends
+    DoFn<Pair<String, Iterable<PItemRecord>>, PItemRecord> {
+  private static final long serialVersionUID = 1993010733164458127L;
+
+  public static final String COUNTER_GROUP = "Skew";
+
+  private static final Comparator<PItemAttribute> SEQ_ORDER = new Comparator<PItemAttribute>() {
+    @Override
+    public int compare(PItemAttribute a, PItemAttribute b) {
+      return a.getSeq() < b.getSeq() ? -1 : (a.getSeq() == b.getSeq() ? 0 : 1);
+    }
+  };
+
+  private final boolean sorted;
+  private final boolean packed;
+  private final int maxAttributes;
+
+  public MergePartialPItemRecordsFn(boolean sorted) {
+    this(sorted, false, 0);
+  }
+
+  /**
+   * @param sorted
+   * @param packed
+   *          to write the chunks in the packed layout
+   * @param maxAttributes
+   *          the maximum number of attributes of a record, 0 for no limit
+   */
+  public MergePartialPItemRecordsFn(boolean sorted, boolean packed, int maxAttributes) {
+    this.sorted = sorted;
+    this.packed = packed;
+    this.maxAttributes = maxAttributes;
+  }
+
+  @Override
+  public void process(Pair<String, Iterable<PItemRecord>> input,
+      Emitter<PItemRecord> emitter) {
+    // the partial records are keyed on their unsalted serial number
+    String serialNum = input.first();
+    if (maxAttributes > 0) {
+      long count = sorted ? emitSorted(serialNum, input.second(), emitter)
+          : PItemRecordChunks.emit(serialNum, attributes(input.second()), maxAttributes, packed,
+              emitter);
+      increment(COUNTER_GROUP, "MERGED_RECORDS");
+      increment(COUNTER_GROUP, "MERGED_ATTRIBUTES", count);
+      return;
+    }
+    PItemRecord.Builder dr = PItemRecord.newBuilder();
+    boolean packed = false;
+    for (PItemRecord partial : input.second()) {
+      increment(COUNTER_GROUP, "PARTIAL_RECORDS");
+      packed |= PackedRecords.isPacked(partial);
+      dr.mergeFrom(PackedRecords.unpack(partial));
+    }
+    dr.setSerialNum(serialNum);
+    if (sorted) {
+      List<PItemAttribute> attrs = Lists.newArrayList(dr.getAttributesList());
+      Collections.sort(attrs, SEQ_ORDER);
+      dr.clearAttributes().addAllAttributes(attrs);
+    }
+    increment(COUNTER_GROUP, "MERGED_RECORDS");
+    increment(COUNTER_GROUP, "MERGED_ATTRIBUTES", dr.getAttributesCount());
+    emitter.emit(packed ? PackedRecords.pack(dr.build()) : dr.build());
+  }
+
+  /**
+   * The attributes of the partials, one partial at a time
+   */
+  private Iterator<PItemAttribute> attributes(Iterable<PItemRecord> partials) {
+    return Iterators.concat(Iterators.transform(partials.iterator(),
+        new Function<PItemRecord, Iterator<PItemAttribute>>() {
+          @Override
+          public Iterator<PItemAttribute> apply(PItemRecord partial) {
+            increment(COUNTER_GROUP, "PARTIAL_RECORDS");
+            return PackedRecords.unpack(partial).getAttributesList().iterator();
+          }
+        }));
+  }
+
+  private long emitSorted(String serialNum, Iterable<PItemRecord> partials,
+      Emitter<PItemRecord> emitter) {
+    ExternalSorter<PItemAttributeWritable> sorter = new ExternalSorter<PItemAttributeWritable>(
+        getConfiguration(), PItemAttributeWritable.class, maxAttributes);
+    try {
+      Iterator<PItemAttribute> attrs = attributes(partials);
+      while (attrs.hasNext()) {
+        sorter.add(new PItemAttributeWritable(attrs.next().toByteArray()));
+      }
+      if (sorter.hasSpilled()) {
+        increment(COUNTER_GROUP, "SPILLED_RECORDS");
+      }
+      final Iterator<PItemAttributeWritable> merged = sorter.sorted();
+      return PItemRecordChunks.emit(serialNum, new Iterator<PItemAttribute>() {
+        @Override
+        public boolean hasNext() {
+          return merged.hasNext();
+        }
+
+        @Override
+        public PItemAttribute next() {
+          PItemAttributeWritable w = merged.next();
+          try {
+            return PItemAttribute.newBuilder().mergeFrom(w.getBytes(), 0, w.getLength()).build();
+          } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Cannot read a spilled attribute", e);
+          }
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      }, maxAttributes, packed, emitter);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot sort the attributes of " + serialNum, e);
+    } finally {
+      try {
+        sorter.close();
+      } catch (IOException e) {
+        // the spill files are in the task directories
+      }
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLog;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Mergeable statistics of the messages of an output: the record count, the
+ * serialized bytes and, per top-level field, the number of messages without
+ * the field (unset or empty) and a HyperLogLog estimate of its distinct
+ * values. Message fields have no distinct estimate. Each task builds partial
+ * stats, the merged stats are written as a JSON sidecar file,
+ * {@link #FILE_NAME} in the output directory, for the readers' planners.
+ */
+public class MessageStats {
+
+  public static final String FILE_NAME = "_stats.json";
+
+  /**
+   * About 3% error, the counters of a few fields stay small
+   */
+  public static final int DEFAULT_LOG2M = 10;
+
+  private final List<String> names;
+  private final long[] nulls;
+  // null for the message fields
+  private final HyperLogLog[] distinct;
+  private long count;
+  private long bytes;
+
+  public MessageStats(Descriptor descriptor, int log2m) {
+    List<FieldDescriptor> fields = descriptor.getFields();
+    this.names = Lists.newArrayListWithCapacity(fields.size());
+    this.nulls = new long[fields.size()];
+    this.distinct = new HyperLogLog[fields.size()];
+    for (int i = 0; i < fields.size(); i++) {
+      FieldDescriptor field = fields.get(i);
+      names.add(field.getName());
+      if (field.getJavaType() != FieldDescriptor.JavaType.MESSAGE) {
+        distinct[i] = new HyperLogLog(log2m);
+      }
+    }
+  }
+
+  private MessageStats(List<String> names, long[] nulls, HyperLogLog[] distinct) {
+    this.names = names;
+    this.nulls = nulls;
+    this.distinct = distinct;
+  }
+
+  public void add(Message message) {
+    count++;
+    bytes += message.getSerializedSize();
+    List<FieldDescriptor> fields = message.getDescriptorForType().getFields();
+    for (int i = 0; i < fields.size(); i++) {
+      FieldDescriptor field = fields.get(i);
+      if (field.isRepeated()) {
+        int n = message.getRepeatedFieldCount(field);
+        if (n == 0) {
+          nulls[i]++;
+        } else if (distinct[i] != null) {
+          for (int j = 0; j < n; j++) {
+            distinct[i].offer(message.getRepeatedField(field, j));
+          }
+        }
+      } else if (!message.hasField(field)) {
+        nulls[i]++;
+      } else if (distinct[i] != null) {
+        distinct[i].offer(message.getField(field));
+      }
+    }
+  }
+
+  public void merge(MessageStats other) {
+    Preconditions.checkArgument(names.equals(other.names), "Stats of different messages");
+    try {
+      for (int i = 0; i < names.size(); i++) {
+        nulls[i] += other.nulls[i];
+        if (distinct[i] != null) {
+          distinct[i].addAll(other.distinct[i]);
+        }
+      }
+    } catch (CardinalityMergeException e) {
+      throw new IllegalArgumentException("Stats of different precisions", e);
+    }
+    count += other.count;
+    bytes += other.bytes;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public ByteBuffer toByteBuffer() {
+    try {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(buf);
+      out.writeLong(count);
+      out.writeLong(bytes);
+      out.writeInt(names.size());
+      for (int i = 0; i < names.size(); i++) {
+        out.writeUTF(names.get(i));
+        out.writeLong(nulls[i]);
+        byte[] hll = distinct[i] == null ? new byte[0] : distinct[i].getBytes();
+        out.writeInt(hll.length);
+        out.write(hll);
+      }
+      out.close();
+      return ByteBuffer.wrap(buf.toByteArray());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static MessageStats fromByteBuffer(ByteBuffer input) {
+    ByteBuffer bb = input.duplicate();
+    byte[] buf = new byte[bb.remaining()];
+    bb.get(buf);
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+      long count = in.readLong();
+      long bytes = in.readLong();
+      int size = in.readInt();
+      List<String> names = Lists.newArrayListWithCapacity(size);
+      long[] nulls = new long[size];
+      HyperLogLog[] distinct = new HyperLogLog[size];
+      for (int i = 0; i < size; i++) {
+        names.add(in.readUTF());
+        nulls[i] = in.readLong();
+        byte[] hll = new byte[in.readInt()];
+        in.readFully(hll);
+        if (hll.length > 0) {
+          distinct[i] = HyperLogLog.Builder.build(hll);
+        }
+      }
+      MessageStats stats = new MessageStats(names, nulls, distinct);
+      stats.count = count;
+      stats.bytes = bytes;
+      return stats;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Corrupt stats", e);
+    }
+  }
+
+  /**
+   * Write the JSON sidecar: {@code records}, {@code bytes},
+   * {@code avg_record_size} and a {@code fields} array of {@code name},
+   * {@code nulls} and {@code distinct} (-1 if not estimated)
+   */
+  public void write(Configuration conf, Path path) throws IOException {
+    FSDataOutputStream out = path.getFileSystem(conf).create(path, true);
+    try {
+      JsonGenerator json = new JsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+      json.useDefaultPrettyPrinter();
+      json.writeStartObject();
+      json.writeNumberField("records", count);
+      json.writeNumberField("bytes", bytes);
+      json.writeNumberField("avg_record_size", count == 0 ? 0L : bytes / count);
+      json.writeArrayFieldStart("fields");
+      for (int i = 0; i < names.size(); i++) {
+        json.writeStartObject();
+        json.writeStringField("name", names.get(i));
+        json.writeNumberField("nulls", nulls[i]);
+        json.writeNumberField("distinct", distinct[i] == null ? -1L : distinct[i].cardinality());
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+      json.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Read the JSON sidecar of a directory
+   *
+   * @return the JSON tree or null if the directory has no sidecar
+   */
+  public static JsonNode readSidecar(Configuration conf, Path dir) throws IOException {
+    Path path = new Path(dir, FILE_NAME);
+    FileSystem fs = path.getFileSystem(conf);
+    if (!fs.exists(path)) {
+      return null;
+    }
+    InputStream in = fs.open(path);
+    try {
+      return new ObjectMapper().readTree(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return the {@code distinct} of a field of the sidecar, -1 if unknown
+   */
+  public static long distinct(JsonNode sidecar, String field) {
+    for (Iterator<JsonNode> it = sidecar.path("fields").getElements(); it.hasNext();) {
+      JsonNode node = it.next();
+      if (field.equals(node.path("name").getTextValue())) {
+        return node.path("distinct").getLongValue();
+      }
+    }
+    return -1L;
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.crunch.CrunchRuntimeException;
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.types.Protos;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+import com.google.protobuf.Message;
+
+/**
+ * Passes the messages through and adds them to partial {@link MessageStats},
+ * so that the stats are collected by the tasks that write the output. When
+ * the task is done the partial stats are written to a Sequence File of the
+ * stats directory named after the task: the first attempt of a task to
+ * finish wins, the others have the same stats. The files are merged once the
+ * pipeline is done.
+ */
+public class MessageStatsFn<T extends Message> extends DoFn<T, T> {
+  private static final long serialVersionUID = 3308542512744981043L;
+
+  private final Class<T> clazz;
+  private final int log2m;
+  private final String dir;
+  private transient MessageStats stats;
+
+  /**
+   * @param dir
+   *          the directory of the partial stats
+   */
+  public MessageStatsFn(Class<T> clazz, int log2m, String dir) {
+    this.clazz = clazz;
+    this.log2m = log2m;
+    this.dir = dir;
+  }
+
+  @Override
+  public void initialize() {
+    stats = new MessageStats(Protos.getDefaultInstance(clazz).getDescriptorForType(), log2m);
+  }
+
+  @Override
+  public void process(T input, Emitter<T> emitter) {
+    stats.add(input);
+    emitter.emit(input);
+  }
+
+  @Override
+  public void cleanup(Emitter<T> emitter) {
+    try {
+      write(getConfiguration(), getContext().getTaskAttemptID());
+    } catch (IOException e) {
+      throw new CrunchRuntimeException("Cannot write the stats to " + dir, e);
+    }
+  }
+
+  /**
+   * Write the partial stats of the task attempt to the stats directory
+   */
+  void write(Configuration conf, TaskAttemptID attempt) throws IOException {
+    Path dirPath = new Path(dir);
+    Path tmp = new Path(dirPath, "_" + attempt);
+    FileSystem fs = dirPath.getFileSystem(conf);
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, tmp,
+        NullWritable.class, BytesWritable.class);
+    try {
+      ByteBuffer bb = stats.toByteBuffer();
+      byte[] bytes = new byte[bb.remaining()];
+      bb.get(bytes);
+      writer.append(NullWritable.get(), new BytesWritable(bytes));
+    } finally {
+      writer.close();
+    }
+    if (!fs.rename(tmp, new Path(dirPath, attempt.getTaskID().toString()))) {
+      fs.delete(tmp, false);
+    }
+  }
+}
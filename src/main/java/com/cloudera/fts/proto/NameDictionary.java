@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A dictionary of the attribute names. The ids are the line numbers of the
+ * side file, one name per line, so extending the dictionary with new names
+ * keeps the ids of the existing ones.
+ *
+ * An encoded {@link PItemAttribute} has an empty name (the field is required)
+ * and the name id in its {@code int} field.
+ */
+public class NameDictionary implements Serializable {
+  private static final long serialVersionUID = -3384624960577271931L;
+
+  private static final ConcurrentMap<String, Cached> CACHE = Maps.newConcurrentMap();
+
+  private final List<String> names;
+  // shared by the threads of a JVM through the cache: built once, read only
+  private final transient Map<String, Integer> ids;
+
+  public NameDictionary(List<String> names) {
+    this.names = Lists.newArrayList(names);
+    this.ids = ids(this.names);
+  }
+
+  private static Map<String, Integer> ids(List<String> names) {
+    Map<String, Integer> ids = Maps.newHashMapWithExpectedSize(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      ids.put(names.get(i), i);
+    }
+    return ids;
+  }
+
+  /**
+   * Rebuild the transient ids of a deserialized dictionary
+   */
+  private Object readResolve() {
+    return new NameDictionary(names);
+  }
+
+  /**
+   * Read the dictionary
+   *
+   * @param conf
+   * @param path
+   * @return an empty dictionary if the file does not exist
+   * @throws IOException
+   */
+  public static NameDictionary read(Configuration conf, Path path) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    List<String> names = Lists.newArrayList();
+    if (fs.exists(path)) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(path),
+          Charsets.UTF_8));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          names.add(line);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return new NameDictionary(names);
+  }
+
+  /**
+   * Read the dictionary once per JVM and per version of the file, for the
+   * readers
+   */
+  public static NameDictionary get(Configuration conf, String path) throws IOException {
+    Path file = new Path(path);
+    FileSystem fs = file.getFileSystem(conf);
+    long modificationTime = fs.exists(file) ? fs.getFileStatus(file).getModificationTime() : -1L;
+    Cached cached = CACHE.get(path);
+    if (cached == null || cached.modificationTime != modificationTime) {
+      cached = new Cached(modificationTime, read(conf, file));
+      CACHE.put(path, cached);
+    }
+    return cached.dictionary;
+  }
+
+  /**
+   * Write the dictionary to a temporary file renamed over the path, so that
+   * the readers never see a partial dictionary
+   */
+  public void write(Configuration conf, Path path) throws IOException {
+    Path tmp = new Path(path.getParent(), "." + path.getName() + "." + UUID.randomUUID());
+    FileSystem fs = path.getFileSystem(conf);
+    Writer writer = new OutputStreamWriter(fs.create(tmp, false), Charsets.UTF_8);
+    try {
+      for (String name : names) {
+        writer.write(name);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    try {
+      FileContext.getFileContext(path.toUri(), conf).rename(tmp, path, Options.Rename.OVERWRITE);
+    } finally {
+      // no-op once renamed
+      fs.delete(tmp, false);
+    }
+  }
+
+  /**
+   * @return a dictionary with the new names appended in sorted order
+   */
+  public NameDictionary extend(Iterable<String> newNames) {
+    List<String> added = Lists.newArrayList();
+    for (String name : newNames) {
+      if (getId(name) < 0) {
+        added.add(name);
+      }
+    }
+    Collections.sort(added);
+    List<String> extended = Lists.newArrayList(names);
+    extended.addAll(added);
+    return new NameDictionary(extended);
+  }
+
+  public int size() {
+    return names.size();
+  }
+
+  /**
+   * @return the id of the name or -1 if it is not in the dictionary
+   */
+  public int getId(String name) {
+    Integer id = ids.get(name);
+    return id == null ? -1 : id;
+  }
+
+  public String getName(int id) {
+    if (id < 0 || id >= names.size()) {
+      throw new IllegalArgumentException("Unknown attribute name id " + id);
+    }
+    return names.get(id);
+  }
+
+  public static boolean isEncoded(PItemAttribute attr) {
+    return attr.getName().isEmpty() && attr.hasInt();
+  }
+
+  /**
+   * @return the name, or the id of an encoded attribute when there is no
+   *         dictionary at hand
+   */
+  public static String nameOrId(PItemAttribute attr) {
+    return isEncoded(attr) ? "#" + attr.getInt() : attr.getName();
+  }
+
+  /**
+   * @return the attribute with its name restored, the same instance if it is
+   *         not encoded
+   */
+  public PItemAttribute resolve(PItemAttribute attr) {
+    if (!isEncoded(attr)) {
+      return attr;
+    }
+    return attr.toBuilder().setName(getName(attr.getInt())).clearInt().build();
+  }
+
+  public PItemRecord resolve(PItemRecord record) {
+    PItemRecord.Builder builder = null;
+    for (int i = 0; i < record.getAttributesCount(); i++) {
+      PItemAttribute attr = record.getAttributes(i);
+      if (isEncoded(attr)) {
+        if (builder == null) {
+          builder = record.toBuilder();
+        }
+        builder.setAttributes(i, resolve(attr));
+      }
+    }
+    return builder == null ? record : builder.build();
+  }
+
+  private static class Cached {
+    private final long modificationTime;
+    private final NameDictionary dictionary;
+
+    private Cached(long modificationTime, NameDictionary dictionary) {
+      this.modificationTime = modificationTime;
+      this.dictionary = dictionary;
+    }
+  }
+}
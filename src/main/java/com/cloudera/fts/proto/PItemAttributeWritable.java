@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import org.apache.hadoop.io.BinaryComparable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+
+/**
+ * A serialized {@link PItemAttribute} ordered by (serial_num, seq) and then
+ * by the bytes of the message. The raw comparator reads the two fields from
+ * the serialized bytes, without parsing the message or allocating.
+ */
+public class PItemAttributeWritable extends BytesWritable {
+
+  static {
+    WritableComparator.define(PItemAttributeWritable.class, new Comparator());
+  }
+
+  public PItemAttributeWritable() {
+  }
+
+  public PItemAttributeWritable(byte[] bytes) {
+    super(bytes);
+  }
+
+  @Override
+  public int compareTo(BinaryComparable other) {
+    return compare(getBytes(), 0, getLength(), other.getBytes(), 0, other.getLength());
+  }
+
+  /**
+   * Compare the UTF-8 bytes of the serial_num fields, a missing serial_num
+   * sorts first
+   */
+  static int compareSerialNums(byte[] b1, int s1, int n1, byte[] b2, int s2, int n2) {
+    long serial1 = WireUtils.findLengthDelimited(b1, s1, n1, WireUtils.SERIAL_NUM_FIELD);
+    long serial2 = WireUtils.findLengthDelimited(b2, s2, n2, WireUtils.SERIAL_NUM_FIELD);
+    if (serial1 < 0 || serial2 < 0) {
+      return serial1 < 0 ? (serial2 < 0 ? 0 : -1) : 1;
+    }
+    return WritableComparator.compareBytes(b1, (int) (serial1 >>> 32), (int) serial1, b2,
+        (int) (serial2 >>> 32), (int) serial2);
+  }
+
+  static int compare(byte[] b1, int s1, int n1, byte[] b2, int s2, int n2) {
+    int cmp = compareSerialNums(b1, s1, n1, b2, s2, n2);
+    if (cmp != 0) {
+      return cmp;
+    }
+    long seq1 = WireUtils.findVarint(b1, s1, n1, WireUtils.SEQ_FIELD, 0L);
+    long seq2 = WireUtils.findVarint(b2, s2, n2, WireUtils.SEQ_FIELD, 0L);
+    if (seq1 != seq2) {
+      return seq1 < seq2 ? -1 : 1;
+    }
+    return WritableComparator.compareBytes(b1, s1, n1, b2, s2, n2);
+  }
+
+  /**
+   * Groups the keys on serial_num only, the shuffle sorts a group on seq
+   */
+  public static class SerialNumComparator extends WritableComparator {
+
+    public SerialNumComparator() {
+      super(PItemAttributeWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return compareSerialNums(b1, s1 + 4, readInt(b1, s1), b2, s2 + 4,
+          readInt(b2, s2));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public int compare(WritableComparable a, WritableComparable b) {
+      BytesWritable w1 = (BytesWritable) a;
+      BytesWritable w2 = (BytesWritable) b;
+      return compareSerialNums(w1.getBytes(), 0, w1.getLength(),
+          w2.getBytes(), 0, w2.getLength());
+    }
+  }
+
+  /**
+   * Partitions the keys on the bytes of their serial_num
+   */
+  public static class SerialNumPartitioner extends Partitioner<PItemAttributeWritable, Object> {
+
+    @Override
+    public int getPartition(PItemAttributeWritable key, Object value, int numPartitions) {
+      long serialNum = WireUtils.findLengthDelimited(key.getBytes(), 0, key.getLength(),
+          WireUtils.SERIAL_NUM_FIELD);
+      int hash = serialNum < 0 ? 0 : WritableComparator.hashBytes(key.getBytes(),
+          (int) (serialNum >>> 32), (int) serialNum);
+      return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+  }
+
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(PItemAttributeWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      // skip the length of the BytesWritable
+      return PItemAttributeWritable.compare(b1, s1 + 4, readInt(b1, s1), b2, s2 + 4,
+          readInt(b2, s2));
+    }
+  }
+}
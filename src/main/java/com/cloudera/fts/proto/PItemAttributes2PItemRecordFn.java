@@ -20,12 +20,17 @@ import org.apache.crunch.DoFn;
 import org.apache.crunch.Emitter;
 import org.apache.crunch.Pair;
 
+import com.cloudera.fts.crunch.HeavyKeys;
+import com.cloudera.fts.crunch.PipelineCounters;
 import com.cloudera.fts.proto.Item.PItemAttribute;
 import com.cloudera.fts.proto.Item.PItemRecord;
 import com.google.common.base.Preconditions;
 
 /**
- * Reduce-side function to collect the attributes into a {@link PItemRecord}
+ * Reduce-side function to collect the attributes into a {@link PItemRecord},
+ * optionally in the packed layout of {@link PackedRecords}. With a maximum
+ * number of attributes, the attributes are streamed into chunk records (see
+ * {@link PItemRecordChunks}) and never held in memory all at once.
  */
 public class PItemAttributes2PItemRecordFn extends
     DoFn<Pair<String, Iterable<PItemAttribute>>, PItemRecord> {
@@ -33,13 +38,87 @@ public class PItemAttributes2PItemRecordFn extends
 
 	private static final Log LOG = LogFactory.getLog(PItemAttributes2PItemRecordFn.class);
 
+	private final boolean packed;
+	private final int maxAttributes;
+	private final HeavyKeys heavyKeys;
+	private transient long bytesOut;
+
+	public PItemAttributes2PItemRecordFn() {
+		this(false);
+	}
+
+	public PItemAttributes2PItemRecordFn(boolean packed) {
+		this(packed, 0);
+	}
+
+	/**
+	 * @param packed
+	 * @param maxAttributes
+	 *          the maximum number of attributes of a record, 0 for no limit
+	 */
+	public PItemAttributes2PItemRecordFn(boolean packed, int maxAttributes) {
+		this(packed, maxAttributes, HeavyKeys.none());
+	}
+
+	/**
+	 * @param packed
+	 * @param maxAttributes
+	 *          the maximum number of attributes of a record, 0 for no limit
+	 * @param heavyKeys
+	 *          the serial numbers whose keys are salted
+	 */
+	public PItemAttributes2PItemRecordFn(boolean packed, int maxAttributes, HeavyKeys heavyKeys) {
+		this.packed = packed;
+		this.maxAttributes = maxAttributes;
+		this.heavyKeys = heavyKeys;
+	}
+
+	@Override
+	public void initialize() {
+		bytesOut = 0L;
+	}
+
 	@Override
   public void process(Pair<String, Iterable<PItemAttribute>> input,
       Emitter<PItemRecord> emitter) {
-		String serialNum = input.first();
+		// The key may be salted if the serial number is heavy
+		String serialNum = heavyKeys.unsalt(input.first());
 		Preconditions.checkNotNull(serialNum);
 		Preconditions.checkArgument(serialNum.length() > 0);
-		emitter.emit(map(serialNum, input.second()));
+		if (maxAttributes > 0) {
+			long count = PItemRecordChunks.emit(serialNum, input.second().iterator(),
+			    maxAttributes, packed, countingEmitter(emitter));
+			increment(PipelineCounters.ATTRIBUTES_PER_SERIAL, PipelineCounters.bucket(count));
+			return;
+		}
+		PItemRecord record = map(serialNum, input.second());
+		increment(PipelineCounters.ATTRIBUTES_PER_SERIAL,
+		    PipelineCounters.bucket(record.getAttributesCount()));
+		if (packed) {
+			record = PackedRecords.pack(record);
+		}
+		bytesOut += record.getSerializedSize();
+		emitter.emit(record);
+	}
+
+	private Emitter<PItemRecord> countingEmitter(final Emitter<PItemRecord> emitter) {
+		return new Emitter<PItemRecord>() {
+			@Override
+			public void emit(PItemRecord record) {
+				bytesOut += record.getSerializedSize();
+				emitter.emit(record);
+			}
+
+			@Override
+			public void flush() {
+				emitter.flush();
+			}
+		};
+	}
+
+	@Override
+	public void cleanup(Emitter<PItemRecord> emitter) {
+		increment(PipelineCounters.BYTES, "RECORDS_OUT", bytesOut);
 	}
 
   public PItemRecord map(String serialNum, Iterable<PItemAttribute> attrs) {
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.util.Iterator;
+
+import org.apache.crunch.Emitter;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+
+/**
+ * Streams the attributes of a serial number into records of at most
+ * {@code maxAttributes} attributes, so that a giant entity never has to be
+ * held in memory. A record that fits is emitted as is; otherwise the chunks
+ * carry their index in {@code chunk} and all but the last one are marked
+ * {@code continued}. The readers see one row per chunk, grouping the rows on
+ * serial_num reassembles the record.
+ */
+public class PItemRecordChunks {
+
+  private PItemRecordChunks() {
+  }
+
+  /**
+   * @param serialNum
+   * @param attrs
+   *          the attributes, their serial_num is cleared
+   * @param maxAttributes
+   *          the maximum number of attributes of a record
+   * @param packed
+   *          to write the records in the packed layout
+   * @param emitter
+   * @return the number of attributes
+   */
+  public static long emit(String serialNum, Iterator<PItemAttribute> attrs, int maxAttributes,
+      boolean packed, Emitter<PItemRecord> emitter) {
+    PItemRecord.Builder dr = newRecord(serialNum);
+    long count = 0L;
+    int chunk = 0;
+    while (attrs.hasNext()) {
+      dr.addAttributes(attrs.next().toBuilder().clearSerialNum());
+      count++;
+      if (dr.getAttributesCount() == maxAttributes && attrs.hasNext()) {
+        emit(dr.setChunk(chunk++).setContinued(true).build(), packed, emitter);
+        dr = newRecord(serialNum);
+      }
+    }
+    if (chunk > 0) {
+      dr.setChunk(chunk);
+    }
+    emit(dr.build(), packed, emitter);
+    return count;
+  }
+
+  private static PItemRecord.Builder newRecord(String serialNum) {
+    return PItemRecord.newBuilder().setSerialNum(serialNum).setStatus("P");
+  }
+
+  private static void emit(PItemRecord record, boolean packed, Emitter<PItemRecord> emitter) {
+    emitter.emit(packed ? PackedRecords.pack(record) : record);
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import parquet.proto.ProtoParquetOutputFormat;
+import parquet.proto.ProtoWriteSupport;
+
+import com.cloudera.fts.proto.Item.PItemRecord;
+
+/**
+ * Writes the {@link PItemRecord}s of a Crunch protobuf {@code PCollection} to
+ * Parquet files. The repeated attributes are stored as nested columns, so the
+ * queries only read the columns they project.
+ * 
+ * Crunch hands the serialized records as {@link BytesWritable} values, they
+ * are parsed for {@link ProtoParquetOutputFormat}, which also commits the job
+ * (and writes the summary metadata file).
+ */
+public class PItemRecordParquetOutputFormat extends
+    FileOutputFormat<NullWritable, BytesWritable> {
+
+  private final ProtoParquetOutputFormat<PItemRecord> delegate =
+      new ProtoParquetOutputFormat<PItemRecord>();
+
+  @Override
+  public RecordWriter<NullWritable, BytesWritable> getRecordWriter(
+      TaskAttemptContext context) throws IOException, InterruptedException {
+    ProtoWriteSupport.setSchema(context.getConfiguration(), PItemRecord.class);
+    final RecordWriter<Void, PItemRecord> writer = delegate.getRecordWriter(context);
+    return new RecordWriter<NullWritable, BytesWritable>() {
+      private final PItemRecord.Builder builder = PItemRecord.newBuilder();
+
+      @Override
+      public void write(NullWritable key, BytesWritable value)
+          throws IOException, InterruptedException {
+        builder.clear().mergeFrom(value.getBytes(), 0, value.getLength());
+        writer.write(null, builder.build());
+      }
+
+      @Override
+      public void close(TaskAttemptContext context) throws IOException,
+          InterruptedException {
+        writer.close(context);
+      }
+    };
+  }
+
+  @Override
+  public synchronized OutputCommitter getOutputCommitter(TaskAttemptContext context)
+      throws IOException {
+    return delegate.getOutputCommitter(context);
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.IOException;
+
+import org.apache.crunch.CrunchRuntimeException;
+import org.apache.crunch.GroupingOptions;
+import org.apache.crunch.MapFn;
+import org.apache.crunch.types.PType;
+import org.apache.crunch.types.Protos;
+import org.apache.crunch.types.writable.Writables;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+
+/**
+ * Crunch types for the messages. A task parses with one builder and
+ * serializes each message straight into the array of a new writable, which
+ * may be held by a pair or a collection until it is written.
+ *
+ * The message types are serialized as plain {@code BytesWritable}s, the value
+ * class of the Sequence Files, which any protobuf reader can read without
+ * this jar. The key type of the attributes is serialized as a
+ * {@link PItemAttributeWritable} so that the shuffle sorts them with a raw
+ * comparator on (serial_num, seq), see {@link #sortedBySeq()}; it is not
+ * meant for the outputs.
+ */
+public class PItemTypes {
+
+  private PItemTypes() {
+  }
+
+  public static PType<PItemAttribute> attributes() {
+    return derived(PItemAttribute.class, BytesWritable.class);
+  }
+
+  public static PType<PItemRecord> records() {
+    return derived(PItemRecord.class, BytesWritable.class);
+  }
+
+  /**
+   * @return the type of the shuffle keys, sorted on (serial_num, seq)
+   */
+  public static PType<PItemAttribute> attributeKeys() {
+    return derived(PItemAttribute.class, PItemAttributeWritable.class);
+  }
+
+  /**
+   * @return the options of a shuffle on {@link #attributeKeys()} keys
+   *         partitioned and grouped on serial_num, sorted on seq in a group
+   */
+  public static GroupingOptions sortedBySeq() {
+    return GroupingOptions.builder()
+        .partitionerClass(PItemAttributeWritable.SerialNumPartitioner.class)
+        .groupingComparatorClass(PItemAttributeWritable.SerialNumComparator.class)
+        .build();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <M extends Message> PType<M> derived(Class<M> messageClass,
+      Class<? extends BytesWritable> writableClass) {
+    PType<BytesWritable> base = (PType<BytesWritable>) (PType<?>) Writables
+        .writables(writableClass);
+    return Writables.derived(messageClass, new ParseFn<M>(messageClass),
+        new SerializeFn<M>(writableClass), base);
+  }
+
+  private static class ParseFn<M extends Message> extends MapFn<BytesWritable, M> {
+    private static final long serialVersionUID = -4392758021659372045L;
+
+    private final Class<M> messageClass;
+    private transient Message.Builder builder;
+
+    ParseFn(Class<M> messageClass) {
+      this.messageClass = messageClass;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public M map(BytesWritable input) {
+      if (builder == null) {
+        builder = Protos.getDefaultInstance(messageClass).newBuilderForType();
+      }
+      try {
+        return (M) builder.clear().mergeFrom(input.getBytes(), 0, input.getLength()).build();
+      } catch (IOException e) {
+        throw new CrunchRuntimeException(e);
+      }
+    }
+  }
+
+  private static class SerializeFn<M extends Message> extends MapFn<M, BytesWritable> {
+    private static final long serialVersionUID = 6893106273459236917L;
+
+    private final Class<? extends BytesWritable> writableClass;
+
+    SerializeFn(Class<? extends BytesWritable> writableClass) {
+      this.writableClass = writableClass;
+    }
+
+    @Override
+    public BytesWritable map(M input) {
+      // not reused: a pair or a collection holds its writables until it is
+      // written
+      BytesWritable buffer = ReflectionUtils.newInstance(writableClass, null);
+      int size = input.getSerializedSize();
+      buffer.setSize(size);
+      CodedOutputStream out = CodedOutputStream.newInstance(buffer.getBytes(), 0, size);
+      try {
+        input.writeTo(out);
+      } catch (IOException e) {
+        throw new CrunchRuntimeException(e);
+      }
+      out.checkNoSpaceLeft();
+      return buffer;
+    }
+  }
+}
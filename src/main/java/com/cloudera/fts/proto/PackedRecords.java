@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.Item.PackedAttributes;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.protobuf.ByteString;
+
+/**
+ * Converts the attributes of a {@link PItemRecord} between the repeated
+ * {@link PItemAttribute} messages and the {@link PackedAttributes} layout.
+ * The names are either a dictionary id (see {@link NameDictionary}) or an
+ * index in the names of the record, the seqs are delta-encoded and the values
+ * are concatenated into one blob.
+ *
+ * An attribute with a name has its {@code int} field dropped, the packed
+ * layout only keeps it as the dictionary id of the attributes without a name.
+ */
+public class PackedRecords {
+
+  private PackedRecords() {
+  }
+
+  public static boolean isPacked(PItemRecord record) {
+    return record.hasPacked();
+  }
+
+  /**
+   * @return the record with its attributes packed, the same instance if it is
+   *         already packed
+   */
+  public static PItemRecord pack(PItemRecord record) {
+    if (isPacked(record)) {
+      return record;
+    }
+    PackedAttributes.Builder pb = PackedAttributes.newBuilder();
+    Map<String, Integer> nameIndexes = Maps.newHashMap();
+    ByteArrayOutputStream values = new ByteArrayOutputStream();
+    long lastSeq = 0L;
+    for (PItemAttribute attr : record.getAttributesList()) {
+      if (NameDictionary.isEncoded(attr)) {
+        pb.addNameIds(attr.getInt());
+      } else {
+        Integer index = nameIndexes.get(attr.getName());
+        if (index == null) {
+          index = pb.getNamesCount();
+          nameIndexes.put(attr.getName(), index);
+          pb.addNames(attr.getName());
+        }
+        pb.addNameIds(-1 - index);
+      }
+      pb.addSeqDeltas(attr.getSeq() - lastSeq);
+      lastSeq = attr.getSeq();
+      if (attr.hasValue()) {
+        byte[] value = attr.getValue().getBytes(Charsets.UTF_8);
+        pb.addValueLengths(value.length);
+        values.write(value, 0, value.length);
+      } else {
+        pb.addValueLengths(-1);
+      }
+    }
+    pb.setValues(ByteString.copyFrom(values.toByteArray()));
+    return record.toBuilder().clearAttributes().setPacked(pb).build();
+  }
+
+  /**
+   * @return the record with repeated attributes, the same instance if it is
+   *         not packed
+   */
+  public static PItemRecord unpack(PItemRecord record) {
+    if (!isPacked(record)) {
+      return record;
+    }
+    PackedAttributes packed = record.getPacked();
+    PItemRecord.Builder dr = record.toBuilder().clearPacked();
+    byte[] values = packed.getValues().toByteArray();
+    int offset = 0;
+    long seq = 0L;
+    PItemAttribute.Builder ab = PItemAttribute.newBuilder();
+    for (int i = 0; i < packed.getNameIdsCount(); i++) {
+      ab.clear();
+      int nameId = packed.getNameIds(i);
+      if (nameId >= 0) {
+        ab.setName("").setInt(nameId);
+      } else {
+        ab.setName(packed.getNames(-1 - nameId));
+      }
+      seq += packed.getSeqDeltas(i);
+      ab.setSeq(seq);
+      int length = packed.getValueLengths(i);
+      if (length >= 0) {
+        ab.setValue(new String(values, offset, length, Charsets.UTF_8));
+        offset += length;
+      }
+      dr.addAttributes(ab.build());
+    }
+    return dr.build();
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.cloudera.fts.App;
+import com.cloudera.fts.crunch.PartitionedFileTarget;
+import com.cloudera.fts.crunch.Partitions;
+import com.google.common.collect.Maps;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Writes the serialized messages of a Crunch protobuf {@code PCollection} to
+ * Sequence Files in Hive-style partition directories on the value of the
+ * {@code pa.partition.by} field. The field is read from the bytes without
+ * parsing the message.
+ *
+ * The default work file of the task is a directory with one Sequence File per
+ * partition, {@link PartitionedFileTarget} moves them to the partition
+ * directories of the output. A task fails rather than open more than
+ * {@code pa.partition.max} writers, the field has too many values to
+ * partition on.
+ */
+public abstract class PartitionedProtoOutputFormat extends
+    FileOutputFormat<NullWritable, BytesWritable> {
+
+  private final Message instance;
+
+  protected PartitionedProtoOutputFormat(Message instance) {
+    this.instance = instance;
+  }
+
+  /**
+   * @return the partition field of the message
+   * @throws IllegalArgumentException
+   *           if the field is not a top-level string, int32 or int64 field of
+   *           the message, the types {@link WireUtils#peekField} reads
+   */
+  public static FieldDescriptor partitionField(Message instance, String name) {
+    FieldDescriptor field = instance.getDescriptorForType().findFieldByName(name);
+    if (field == null || field.isRepeated()) {
+      throw new IllegalArgumentException("Cannot partition "
+          + instance.getDescriptorForType().getName() + " on " + name);
+    }
+    switch (field.getType()) {
+    case STRING:
+    case INT32:
+    case INT64:
+      return field;
+    default:
+      throw new IllegalArgumentException("Cannot partition "
+          + instance.getDescriptorForType().getName() + " on " + name + " of type "
+          + field.getType() + ", only on a string, int32 or int64 field");
+    }
+  }
+
+  @Override
+  public RecordWriter<NullWritable, BytesWritable> getRecordWriter(
+      final TaskAttemptContext context) throws IOException, InterruptedException {
+    final Configuration conf = context.getConfiguration();
+    final FieldDescriptor field = partitionField(instance, conf.get(App.PARTITION_BY));
+    final Path dir = getDefaultWorkFile(context, "");
+    final FileSystem fs = dir.getFileSystem(conf);
+    final int maxPartitions = conf.getInt(App.PARTITION_MAX, App.DEFAULT_PARTITION_MAX);
+    final CompressionType compressionType;
+    final CompressionCodec codec;
+    if (getCompressOutput(context)) {
+      compressionType = SequenceFileOutputFormat.getOutputCompressionType(context);
+      codec = ReflectionUtils.newInstance(
+          getOutputCompressorClass(context, DefaultCodec.class), conf);
+    } else {
+      compressionType = CompressionType.NONE;
+      codec = null;
+    }
+    return new RecordWriter<NullWritable, BytesWritable>() {
+      private final Map<String, SequenceFile.Writer> writers = Maps.newHashMap();
+
+      @Override
+      public void write(NullWritable key, BytesWritable value) throws IOException {
+        String partition = Partitions.dirName(field.getName(),
+            WireUtils.peekField(value.getBytes(), 0, value.getLength(), field));
+        SequenceFile.Writer writer = writers.get(partition);
+        if (writer == null) {
+          if (writers.size() >= maxPartitions) {
+            throw new IOException("More than " + maxPartitions + " values of "
+                + field.getName() + " in a task, set " + App.PARTITION_MAX
+                + " or partition on a field with fewer values");
+          }
+          // the serialization class of the type, a BytesWritable
+          writer = SequenceFile.createWriter(fs, conf, new Path(dir, partition),
+              NullWritable.class, value.getClass(), compressionType, codec, context);
+          writers.put(partition, writer);
+        }
+        writer.append(key, value);
+      }
+
+      @Override
+      public void close(TaskAttemptContext context) throws IOException {
+        for (SequenceFile.Writer writer : writers.values()) {
+          writer.close();
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.nio.ByteBuffer;
+
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.crunch.AttributeProfile;
+import com.cloudera.fts.crunch.MergeAttributeProfilesFn;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+
+/**
+ * Adds the attributes to a partial {@link AttributeProfile} which is emitted
+ * once, when the task is done, unless the task had no attributes. The partial profiles are merged with
+ * {@link MergeAttributeProfilesFn}.
+ */
+public class ProfilePItemAttributesFn extends DoFn<PItemAttribute, Pair<Integer, ByteBuffer>> {
+  private static final long serialVersionUID = -2214307541790584036L;
+
+  private final int log2m;
+  private final double compression;
+  private transient AttributeProfile profile;
+
+  public ProfilePItemAttributesFn(int log2m, double compression) {
+    this.log2m = log2m;
+    this.compression = compression;
+  }
+
+  @Override
+  public void initialize() {
+    profile = new AttributeProfile(log2m, compression);
+  }
+
+  @Override
+  public void process(PItemAttribute input, Emitter<Pair<Integer, ByteBuffer>> emitter) {
+    // the distinct count is the same on the ids of the encoded names
+    profile.add(input.getSerialNum(), NameDictionary.nameOrId(input), input.getSeq());
+  }
+
+  @Override
+  public void cleanup(Emitter<Pair<Integer, ByteBuffer>> emitter) {
+    if (profile.getCount() > 0) {
+      emitter.emit(Pair.of(0, profile.toByteBuffer()));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.fts.crunch.HeavyKeys;
+import com.cloudera.fts.crunch.PipelineCounters;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reduce-side function to collect the attributes into a {@link PItemRecord}
+ * when the shuffle is sorted on (serial_num, seq) and grouped on serial_num
+ * only (see {@link PItemTypes#sortedBySeq()}): the attributes arrive in seq order and are appended as a stream, so
+ * the record attributes are in seq order as well. The record may be written
+ * in the packed layout of {@link PackedRecords}, where the seq deltas of the
+ * sorted attributes are small. With a maximum number of attributes, the
+ * sorted stream is cut into chunk records (see {@link PItemRecordChunks}).
+ */
+public class SortedPItemAttributes2PItemRecordFn extends
+    DoFn<Pair<PItemAttribute, Iterable<PItemAttribute>>, PItemRecord> {
+  private static final long serialVersionUID = 2874306359361930178L;
+
+  private static final Log LOG = LogFactory.getLog(SortedPItemAttributes2PItemRecordFn.class);
+
+  private final boolean packed;
+  private final int maxAttributes;
+  private final HeavyKeys heavyKeys;
+
+  public SortedPItemAttributes2PItemRecordFn() {
+    this(false);
+  }
+
+  public SortedPItemAttributes2PItemRecordFn(boolean packed) {
+    this(packed, 0);
+  }
+
+  /**
+   * @param packed
+   * @param maxAttributes
+   *          the maximum number of attributes of a record, 0 for no limit
+   */
+  public SortedPItemAttributes2PItemRecordFn(boolean packed, int maxAttributes) {
+    this(packed, maxAttributes, HeavyKeys.none());
+  }
+
+  /**
+   * @param packed
+   * @param maxAttributes
+   *          the maximum number of attributes of a record, 0 for no limit
+   * @param heavyKeys
+   *          the serial numbers whose keys are salted
+   */
+  public SortedPItemAttributes2PItemRecordFn(boolean packed, int maxAttributes,
+      HeavyKeys heavyKeys) {
+    this.packed = packed;
+    this.maxAttributes = maxAttributes;
+    this.heavyKeys = heavyKeys;
+  }
+
+  @Override
+  public void process(Pair<PItemAttribute, Iterable<PItemAttribute>> input,
+      Emitter<PItemRecord> emitter) {
+    // The key is the one of the first record in the group, and may be salted
+    // if the serial number is heavy
+    String serialNum = heavyKeys.unsalt(input.first().getSerialNum());
+    Preconditions.checkNotNull(serialNum);
+    Preconditions.checkArgument(serialNum.length() > 0);
+    if (maxAttributes > 0) {
+      long count = PItemRecordChunks.emit(serialNum, input.second().iterator(), maxAttributes,
+          packed, emitter);
+      increment(PipelineCounters.ATTRIBUTES_PER_SERIAL, PipelineCounters.bucket(count));
+      return;
+    }
+    PItemRecord record = map(serialNum, input.second());
+    increment(PipelineCounters.ATTRIBUTES_PER_SERIAL,
+        PipelineCounters.bucket(record.getAttributesCount()));
+    emitter.emit(packed ? PackedRecords.pack(record) : record);
+  }
+
+  public PItemRecord map(String serialNum, Iterable<PItemAttribute> attrs) {
+    PItemRecord.Builder dr = PItemRecord.newBuilder().setSerialNum(serialNum)
+        .setStatus("P");
+    for (PItemAttribute attr : attrs) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("serial_num: " + serialNum + " attr: " + attr.toString());
+      }
+      assert (serialNum.equals(attr.getSerialNum()));
+      dr.addAttributes(attr.toBuilder().clearSerialNum().build());
+    }
+    return dr.build();
+  }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.fts.proto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Helpers to read individual fields of the serialized {@code PItemRecord} and
+ * {@code PItemAttribute} messages without parsing the whole message.
+ */
+public class WireUtils {
+
+  /**
+   * The serial_num field number, same in {@code PItemRecord} and
+   * {@code PItemAttribute}
+   */
+  public static final int SERIAL_NUM_FIELD = 1;
+
+  /**
+   * The seq field number of {@code PItemAttribute}
+   */
+  public static final int SEQ_FIELD = 2;
+
+  private WireUtils() {
+  }
+
+  /**
+   * Find a length-delimited (string, bytes or message) field in a serialized
+   * message, without allocating
+   *
+   * @return the offset of the field value in the high 32 bits and its length
+   *         in the low 32 bits, -1 if the field is not set
+   */
+  public static long findLengthDelimited(byte[] bytes, int offset, int length, int fieldNumber) {
+    int pos = skipTo(bytes, offset, offset + length, fieldNumber);
+    if (pos < 0) {
+      return -1L;
+    }
+    int size = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[pos++];
+      size |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return ((long) pos << 32) | size;
+  }
+
+  /**
+   * Find a varint (int32, int64, uint, bool or enum) field in a serialized
+   * message, without allocating
+   *
+   * @return the value of the field or the default if the field is not set
+   */
+  public static long findVarint(byte[] bytes, int offset, int length, int fieldNumber,
+      long defaultValue) {
+    int pos = skipTo(bytes, offset, offset + length, fieldNumber);
+    if (pos < 0) {
+      return defaultValue;
+    }
+    long value = 0L;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[pos++];
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+
+  /**
+   * @return the position of the value of the first occurrence of the field,
+   *         -1 if it is not set
+   */
+  private static int skipTo(byte[] bytes, int pos, int end, int fieldNumber) {
+    while (pos < end) {
+      int tag = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = bytes[pos++];
+        tag |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      if (WireFormat.getTagFieldNumber(tag) == fieldNumber) {
+        return pos;
+      }
+      // the low 3 bits of the tag are the wire type
+      switch (tag & 0x7) {
+      case WireFormat.WIRETYPE_VARINT:
+        while (bytes[pos++] < 0) {
+        }
+        break;
+      case WireFormat.WIRETYPE_FIXED64:
+        pos += 8;
+        break;
+      case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+        int size = 0;
+        shift = 0;
+        do {
+          b = bytes[pos++];
+          size |= (b & 0x7F) << shift;
+          shift += 7;
+        } while (b < 0);
+        pos += size;
+        break;
+      case WireFormat.WIRETYPE_FIXED32:
+        pos += 4;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported wire type in tag " + tag);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Read the serial_num, skipping the other fields without decoding them
+   * 
+   * @param bytes
+   * @param offset
+   * @param length
+   * @return the serial_num or null if it is not set
+   */
+  public static String peekSerialNum(byte[] bytes, int offset, int length) {
+    CodedInputStream in = CodedInputStream.newInstance(bytes, offset, length);
+    try {
+      int tag;
+      while ((tag = in.readTag()) != 0) {
+        if (WireFormat.getTagFieldNumber(tag) == SERIAL_NUM_FIELD) {
+          return in.readString();
+        }
+        in.skipField(tag);
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Cannot parse the message", e);
+    }
+    return null;
+  }
+
+  /**
+   * Read a top-level string, int32 or int64 field, skipping the other fields
+   * without decoding them
+   *
+   * @return the value or null if the field is not set
+   */
+  public static Object peekField(byte[] bytes, int offset, int length, FieldDescriptor field) {
+    CodedInputStream in = CodedInputStream.newInstance(bytes, offset, length);
+    try {
+      int tag;
+      while ((tag = in.readTag()) != 0) {
+        if (WireFormat.getTagFieldNumber(tag) == field.getNumber()) {
+          switch (field.getType()) {
+          case STRING:
+            return in.readString();
+          case INT32:
+            return in.readInt32();
+          case INT64:
+            return in.readInt64();
+          default:
+            throw new IllegalArgumentException("Unsupported field type: " + field.getType());
+          }
+        }
+        in.skipField(tag);
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Cannot parse the message", e);
+    }
+    return null;
+  }
+
+  public static String peekSerialNum(ByteBuffer bb) {
+    return peekSerialNum(bb.array(), bb.arrayOffset() + bb.position(),
+        bb.remaining());
+  }
+}
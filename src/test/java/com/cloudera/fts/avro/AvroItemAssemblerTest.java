@@ -0,0 +1,136 @@
+package com.cloudera.fts.avro;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.crunch.Pair;
+import org.apache.crunch.impl.mem.emit.InMemoryEmitter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.cloudera.fts.crunch.AbstractAttribsRecord;
+import com.cloudera.fts.crunch.SplitFactory;
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the point-in-time join of the events with the attributes.
+ */
+public class AvroItemAssemblerTest extends TestCase {
+
+  // the events out of order
+  private static final List<String> EVENTS = ImmutableList.of("SN1,10,FAIL", "SN1,20,OK",
+      "SN1,5,OK");
+
+  // before the first event, on an event, between the events and after the last
+  private static final List<String> ATTRIBUTES = ImmutableList.of("SN1,15,AAB,b15",
+      "SN1,25,AAA,a25", "SN1,1,AAA,a1", "SN1,10,AAC,c10", "SN1,5,AAB,b5", "SN1,7,AAA,a7");
+
+  private final AvroItemAssembler assembler = new AvroItemAssembler();
+  private final Configuration conf = new Configuration();
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("assembler", "");
+    dir.delete();
+    dir.mkdirs();
+    conf.set("mapred.local.dir", dir.getPath());
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileSystem.getLocal(conf).delete(new Path(dir.getPath()), true);
+  }
+
+  public void testAssemble() {
+    assertItems(assembler.assemble("SN1", events(), ATTRIBUTES));
+  }
+
+  public void testAssembleBounded() throws IOException {
+    // two lines in memory, the others are spilled
+    assertItems(assembler.assemble("SN1", events(), ATTRIBUTES, conf, 2));
+    assertItems(assembler.assemble("SN1", events(), ATTRIBUTES, conf, 100));
+  }
+
+  public void testAssembleAttributes() {
+    assertItems(assembler.assembleAttributes("SN1", events(), attributes()));
+  }
+
+  public void testSingleEvent() {
+    AbstractAttribsRecord event = new SplitFactory().create("SN1,7,OK");
+    AvroItem item = assembler.assemble("SN1", event, ATTRIBUTES);
+    assertEquals(7L, item.getSeq().longValue());
+    assertEquals(ImmutableMap.of("AAA", "a7", "AAB", "b5"), item.getAttributes());
+    assertNull(assembler.assemble("SN1", event, ImmutableList.<String> of()));
+  }
+
+  public void testAscii2AvroItemFn() {
+    Collection<String> events = EVENTS;
+    Collection<String> attributes = ATTRIBUTES;
+    InMemoryEmitter<AvroItem> emitter = new InMemoryEmitter<AvroItem>();
+    new Ascii2AvroItemFn().process(Pair.of("SN1", Pair.of(events, attributes)), emitter);
+    assertItems(emitter.getOutput());
+
+    Collection<String> none = ImmutableList.of();
+    emitter = new InMemoryEmitter<AvroItem>();
+    new Ascii2AvroItemFn().process(Pair.of("SN1", Pair.of(events, none)), emitter);
+    assertTrue(emitter.getOutput().isEmpty());
+  }
+
+  public void testEventPItemAttributes2AvroItemFn() {
+    Collection<String> events = EVENTS;
+    Collection<PItemAttribute> attributes = attributes();
+    InMemoryEmitter<AvroItem> emitter = new InMemoryEmitter<AvroItem>();
+    new EventPItemAttributes2AvroItemFn().process(Pair.of("SN1", Pair.of(events, attributes)),
+        emitter);
+    assertItems(emitter.getOutput());
+  }
+
+  private static List<PItemAttribute> attributes() {
+    SplitFactory splitFactory = new SplitFactory();
+    splitFactory.setType(SplitFactory.Type.ATTRS);
+    List<PItemAttribute> attrs = Lists.newArrayList();
+    for (String line : ATTRIBUTES) {
+      AbstractAttribsRecord record = splitFactory.wrap(line);
+      attrs.add(PItemAttribute.newBuilder().setSerialNum(record.getSerialNum())
+          .setSeq(record.getSeq()).setName(record.getAttrName())
+          .setValue(record.getAttrValue()).build());
+    }
+    return attrs;
+  }
+
+  private static List<AbstractAttribsRecord> events() {
+    SplitFactory splitFactory = new SplitFactory();
+    List<AbstractAttribsRecord> events = Lists.newArrayList();
+    for (String line : EVENTS) {
+      events.add(splitFactory.create(line));
+    }
+    return events;
+  }
+
+  private static void assertItems(List<AvroItem> items) {
+    assertEquals(3, items.size());
+    assertItem(items.get(0), 5L, "OK", ImmutableMap.of("AAA", "a1", "AAB", "b5"));
+    assertItem(items.get(1), 10L, "FAIL", ImmutableMap.of("AAA", "a7", "AAB", "b5",
+        "AAC", "c10"));
+    assertItem(items.get(2), 20L, "OK", ImmutableMap.of("AAA", "a7", "AAB", "b15",
+        "AAC", "c10"));
+  }
+
+  private static void assertItem(AvroItem item, long seq, String status,
+      Map<String, String> attributes) {
+    assertEquals("SN1", item.getSerialNum().toString());
+    assertEquals(seq, item.getSeq().longValue());
+    assertEquals(status, item.getStatus().toString());
+    assertEquals(attributes, item.getAttributes());
+  }
+}
@@ -0,0 +1,68 @@
+package com.cloudera.fts.crunch;
+
+import java.nio.ByteBuffer;
+
+import org.apache.crunch.Pair;
+import org.apache.crunch.impl.mem.emit.InMemoryEmitter;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.ProfilePItemAttributesFn;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the attribute profile sketches.
+ */
+public class AttributeProfileTest extends TestCase {
+
+  public void testProfile() {
+    AttributeProfile profile = new AttributeProfile(10, 100.0);
+    for (long seq = 1; seq <= 100; seq++) {
+      profile.add("SN" + (seq % 10), "A" + (seq % 4), seq);
+    }
+    profile.add("SN0", "A0", -1L);
+    AttributeProfile copy = AttributeProfile.fromByteBuffer(profile.toByteBuffer());
+    assertEquals(101L, copy.getCount());
+    assertEquals(1L, copy.getOutOfRange());
+    assertEquals(-1L, copy.getMinSeq());
+    assertEquals(100L, copy.getMaxSeq());
+    assertEquals(10L, copy.getDistinctSerialNums());
+    assertEquals(4L, copy.getDistinctNames());
+    assertTrue(copy.hasSeqQuantiles());
+    long median = copy.getSeqQuantile(0.5);
+    assertTrue(String.valueOf(median), median >= 40 && median <= 60);
+  }
+
+  public void testNoQuantiles() {
+    AttributeProfile profile = new AttributeProfile(10, 100.0);
+    assertFalse(profile.hasSeqQuantiles());
+    profile.add("SN0", "A0", -5L);
+    assertFalse(profile.hasSeqQuantiles());
+    try {
+      profile.getSeqQuantile(0.5);
+      fail("Quantile of no seq");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    AttributeProfile other = new AttributeProfile(10, 100.0);
+    other.add("SN1", "A0", 7L);
+    profile.merge(other);
+    assertTrue(profile.hasSeqQuantiles());
+    assertEquals(7L, profile.getSeqQuantile(0.5));
+  }
+
+  public void testNoAttributesNoProfile() {
+    ProfilePItemAttributesFn fn = new ProfilePItemAttributesFn(10, 100.0);
+    fn.initialize();
+    InMemoryEmitter<Pair<Integer, ByteBuffer>> emitter =
+        new InMemoryEmitter<Pair<Integer, ByteBuffer>>();
+    fn.cleanup(emitter);
+    assertTrue(emitter.getOutput().isEmpty());
+
+    fn.initialize();
+    fn.process(PItemAttribute.newBuilder().setSerialNum("SN0").setName("A0").setSeq(3L)
+        .build(), emitter);
+    fn.cleanup(emitter);
+    assertEquals(1, emitter.getOutput().size());
+  }
+}
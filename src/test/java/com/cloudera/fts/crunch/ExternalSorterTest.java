@@ -0,0 +1,88 @@
+package com.cloudera.fts.crunch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the sorting of the attribute lines with spills to the local
+ * disks.
+ */
+public class ExternalSorterTest extends TestCase {
+
+  // the seqs are compared as numbers, not as text
+  private static final List<String> LINES = ImmutableList.of("SN1,10,AAB,x", "SN1,9,AAA,y",
+      "SN1,-2,AAC,z", "SN1,100,AAA,w", "SN1,9,AAA,x", "SN1,0,AAB,", "SN1,11,AAA,v");
+
+  private static final List<String> SORTED = ImmutableList.of("SN1,-2,AAC,z", "SN1,0,AAB,",
+      "SN1,9,AAA,x", "SN1,9,AAA,y", "SN1,10,AAB,x", "SN1,11,AAA,v", "SN1,100,AAA,w");
+
+  private final Configuration conf = new Configuration();
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("sorter", "");
+    dir.delete();
+    dir.mkdirs();
+    conf.set("mapred.local.dir", dir.getPath());
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileSystem.getLocal(conf).delete(new Path(dir.getPath()), true);
+  }
+
+  public void testInMemory() throws IOException {
+    ExternalSorter<AttributeLineWritable> sorter = sorter(LINES.size() + 1);
+    assertEquals(SORTED, sort(sorter));
+    assertFalse(sorter.hasSpilled());
+  }
+
+  public void testSpilled() throws IOException {
+    for (int maxInMemory = 1; maxInMemory <= LINES.size(); maxInMemory++) {
+      ExternalSorter<AttributeLineWritable> sorter = sorter(maxInMemory);
+      assertEquals("maxInMemory " + maxInMemory, SORTED, sort(sorter));
+      assertTrue(sorter.hasSpilled());
+    }
+    // the spill directories are deleted on close
+    assertEquals(0, new File(dir, "pa-spill").list().length);
+  }
+
+  public void testEmpty() throws IOException {
+    ExternalSorter<AttributeLineWritable> sorter = sorter(2);
+    assertFalse(sorter.sorted().hasNext());
+    sorter.close();
+  }
+
+  private ExternalSorter<AttributeLineWritable> sorter(int maxInMemory) {
+    return new ExternalSorter<AttributeLineWritable>(conf, AttributeLineWritable.class,
+        maxInMemory);
+  }
+
+  private static List<String> sort(ExternalSorter<AttributeLineWritable> sorter)
+      throws IOException {
+    try {
+      for (String line : LINES) {
+        sorter.add(new AttributeLineWritable(line));
+      }
+      List<String> sorted = Lists.newArrayList();
+      for (Iterator<AttributeLineWritable> it = sorter.sorted(); it.hasNext();) {
+        sorted.add(it.next().toString());
+      }
+      return sorted;
+    } finally {
+      sorter.close();
+    }
+  }
+}
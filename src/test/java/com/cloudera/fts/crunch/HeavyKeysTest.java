@@ -0,0 +1,26 @@
+package com.cloudera.fts.crunch;
+
+import com.google.common.collect.ImmutableSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the salting of the heavy serial numbers.
+ */
+public class HeavyKeysTest extends TestCase {
+
+  private final HeavyKeys heavyKeys = new HeavyKeys(ImmutableSet.of("SN1", "SN#2"), 4);
+
+  public void testRoundTrip() {
+    for (int hash = 0; hash < 10; hash++) {
+      assertEquals("SN1", heavyKeys.unsalt(heavyKeys.salt("SN1", hash)));
+      assertEquals("SN#2", heavyKeys.unsalt(heavyKeys.salt("SN#2", hash)));
+    }
+  }
+
+  public void testOnlyHeavyKeysUnsalted() {
+    assertEquals("SN3", heavyKeys.salt("SN3", 1));
+    assertEquals("SN#3", heavyKeys.unsalt("SN#3"));
+    assertEquals("SN#1", HeavyKeys.none().unsalt("SN#1"));
+  }
+}
@@ -0,0 +1,29 @@
+package com.cloudera.fts.crunch;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the partition directory names.
+ */
+public class PartitionsTest extends TestCase {
+
+  public void testRoundTrip() {
+    for (String value : Arrays.asList("OK", "a b/c=d%", "", null)) {
+      String[] parsed = Partitions.parse(Partitions.dirName("status", value));
+      assertEquals("status", parsed[0]);
+      assertEquals(value, parsed[1]);
+    }
+  }
+
+  public void testEmptyIsNotDefault() {
+    assertEquals("status=", Partitions.dirName("status", ""));
+    assertEquals("status=" + Partitions.DEFAULT_PARTITION, Partitions.dirName("status", null));
+  }
+
+  public void testNotPartition() {
+    assertNull(Partitions.parse("part-r-00000"));
+    assertNull(Partitions.parse("=OK"));
+  }
+}
@@ -0,0 +1,60 @@
+package com.cloudera.fts.crunch;
+
+import org.apache.hadoop.io.Text;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the byte-level tokenizer and the reusable records.
+ */
+public class RecordTokenizerTest extends TestCase {
+
+  public void testAttribute() {
+    RecordTokenizer tokenizer = new RecordTokenizer();
+    assertTrue(tokenizer.tokenize(new Text("9XE05ASF,4,AAB,199.22")));
+    assertEquals("9XE05ASF", tokenizer.getSerialNum());
+    assertEquals(4L, tokenizer.getSeq());
+    assertEquals("AAB", tokenizer.getName());
+    assertEquals("199.22", tokenizer.getValue());
+    assertEquals("AAB,199.22", tokenizer.getLoad());
+  }
+
+  public void testValueWithSeparator() {
+    RecordTokenizer tokenizer = new RecordTokenizer();
+    assertTrue(tokenizer.tokenize(new Text("9XE05ASF,-12,AAB,1,2")));
+    assertEquals(-12L, tokenizer.getSeq());
+    assertEquals("1,2", tokenizer.getValue());
+  }
+
+  public void testMissingFields() {
+    RecordTokenizer tokenizer = new RecordTokenizer();
+    assertFalse(tokenizer.tokenize(new Text("9XE05ASF,4")));
+    assertTrue(tokenizer.tokenize(new Text("9XE05ASF,4,AAB")));
+    assertEquals(-1, tokenizer.getValueStart());
+    assertEquals("", tokenizer.getValue());
+  }
+
+  public void testBadSeq() {
+    RecordTokenizer tokenizer = new RecordTokenizer();
+    try {
+      tokenizer.tokenize(new Text("9XE05ASF,4x,AAB,1"));
+      fail();
+    } catch (NumberFormatException e) {
+      // expected
+    }
+  }
+
+  public void testReusableRecord() {
+    SplitFactory factory = new SplitFactory();
+    factory.setType(SplitFactory.Type.ATTRS);
+    AbstractAttribsRecord first = factory.wrap("9XE05ASF,4,AAB,199.22");
+    AbstractAttribsRecord copy = first.copy();
+    AbstractAttribsRecord second = factory.wrap(new Text("9XE05ASG,5,AAA,normal"));
+    assertSame(first, second);
+    assertEquals("9XE05ASG", second.getSerialNum());
+    assertEquals("AAA", second.getAttrName());
+    assertEquals("9XE05ASF", copy.getSerialNum());
+    assertEquals("199.22", copy.getAttrValue());
+    assertTrue(copy.compareTo(second.copy()) < 0);
+  }
+}
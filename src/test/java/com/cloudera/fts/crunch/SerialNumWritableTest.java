@@ -0,0 +1,75 @@
+package com.cloudera.fts.crunch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the packed serial number keys.
+ */
+public class SerialNumWritableTest extends TestCase {
+
+  private static final List<String> SERIAL_NUMS = Arrays.asList("", "0", "9", "A", "A0",
+      "AB", "B", "Z", "ZZZZZZZZZZZZ", "0A1B2C3D4E5F", "SN1234", "SN12345",
+      "ABCDEFGHIJKLM", "sn1234", "SN1234#3", "SN-1", "\u00e9");
+
+  public void testPackRoundTrip() {
+    for (String serialNum : SERIAL_NUMS) {
+      long packed = SerialNumWritable.pack(serialNum);
+      if (isPackable(serialNum)) {
+        assertTrue(serialNum, packed >= 0);
+        assertEquals(serialNum, SerialNumWritable.unpack(packed));
+      } else {
+        assertEquals(serialNum, -1L, packed);
+      }
+    }
+  }
+
+  public void testWriteRoundTrip() throws IOException {
+    for (String serialNum : SERIAL_NUMS) {
+      SerialNumWritable read = new SerialNumWritable();
+      byte[] bytes = serialize(serialNum);
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(bytes, bytes.length);
+      read.readFields(in);
+      assertEquals(serialNum, read.toString());
+      assertEquals(new SerialNumWritable(serialNum), read);
+      assertEquals(new SerialNumWritable(serialNum).hashCode(), read.hashCode());
+    }
+  }
+
+  public void testOrdersAgree() throws IOException {
+    WritableComparator comparator = WritableComparator.get(SerialNumWritable.class);
+    for (String a : SERIAL_NUMS) {
+      byte[] rawA = serialize(a);
+      for (String b : SERIAL_NUMS) {
+        byte[] rawB = serialize(b);
+        int raw = Integer.signum(comparator.compare(rawA, 0, rawA.length, rawB, 0, rawB.length));
+        int objects = Integer.signum(new SerialNumWritable(a).compareTo(new SerialNumWritable(b)));
+        assertEquals(a + " vs " + b, objects, raw);
+        if (isPackable(a) == isPackable(b)) {
+          assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)), raw);
+        } else {
+          // the packed keys sort first
+          assertEquals(a + " vs " + b, isPackable(a) ? -1 : 1, raw);
+        }
+      }
+    }
+  }
+
+  private static boolean isPackable(String serialNum) {
+    return serialNum.matches("[0-9A-Z]{0," + SerialNumWritable.MAX_PACKED_LENGTH + "}");
+  }
+
+  private static byte[] serialize(String serialNum) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    new SerialNumWritable(serialNum).write(out);
+    return Arrays.copyOf(out.getData(), out.getLength());
+  }
+}
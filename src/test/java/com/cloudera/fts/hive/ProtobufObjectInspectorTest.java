@@ -0,0 +1,39 @@
+package com.cloudera.fts.hive;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.Item.PackedAttributes;
+import com.cloudera.fts.proto.PackedRecords;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the inspector of the packed records.
+ */
+public class ProtobufObjectInspectorTest extends TestCase {
+
+  public void testPackedValues() {
+    StructObjectInspector oi =
+        (StructObjectInspector) ProtobufObjectInspector.get(PItemRecord.getDescriptor());
+    StructField packedField = oi.getStructFieldRef("packed");
+    StructObjectInspector poi = (StructObjectInspector) packedField.getFieldObjectInspector();
+    StructField valuesField = poi.getStructFieldRef("values");
+    PrimitiveObjectInspector voi = (PrimitiveObjectInspector) valuesField.getFieldObjectInspector();
+    assertEquals(Category.PRIMITIVE, voi.getCategory());
+
+    PItemRecord record = PackedRecords.pack(PItemRecord.newBuilder()
+        .setSerialNum("9XE05ASF")
+        .addAttributes(PItemAttribute.newBuilder().setName("AAB").setSeq(4L).setValue("199.22"))
+        .build());
+    PackedAttributes packed = (PackedAttributes) oi.getStructFieldData(record, packedField);
+    byte[] values = (byte[]) voi.getPrimitiveJavaObject(poi.getStructFieldData(packed, valuesField));
+    assertTrue(Arrays.equals("199.22".getBytes(), values));
+  }
+}
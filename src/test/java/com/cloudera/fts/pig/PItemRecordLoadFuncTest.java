@@ -0,0 +1,114 @@
+package com.cloudera.fts.pig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.crunch.Pair;
+import org.apache.crunch.impl.mem.emit.InMemoryEmitter;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.pig.data.Tuple;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.MergePItemRecordFn;
+import com.cloudera.fts.proto.PItemRecordChunks;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for reassembling the chunked records merged by
+ * {@link MergePItemRecordFn} with {@link PItemRecordLoadFunc}.
+ */
+public class PItemRecordLoadFuncTest extends TestCase {
+
+  private static final String SERIAL_NUM = "9XE05ASF";
+
+  private static PItemAttribute attr(String name, long seq) {
+    return PItemAttribute.newBuilder().setName(name).setSeq(seq).setValue(name + seq).build();
+  }
+
+  private static List<PItemAttribute> attrs(int count) {
+    List<PItemAttribute> attrs = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      attrs.add(attr("A" + (i % 3), i));
+    }
+    return attrs;
+  }
+
+  private static List<PItemRecord> parse(List<ByteBuffer> buffers) throws Exception {
+    List<PItemRecord> records = Lists.newArrayList();
+    for (ByteBuffer buffer : buffers) {
+      records.add(PItemRecord.parseFrom(Arrays.copyOfRange(buffer.array(),
+          buffer.arrayOffset() + buffer.position(), buffer.arrayOffset() + buffer.limit())));
+    }
+    return records;
+  }
+
+  public void testChunkMergeReassemble() throws Exception {
+    InMemoryEmitter<PItemRecord> chunked = new InMemoryEmitter<PItemRecord>();
+    PItemRecordChunks.emit(SERIAL_NUM, attrs(7).iterator(), 3, false, chunked);
+    assertEquals(3, chunked.getOutput().size());
+    List<ByteBuffer> base = Lists.newArrayList();
+    for (PItemRecord chunk : chunked.getOutput()) {
+      base.add(ByteBuffer.wrap(chunk.toByteArray()));
+    }
+    // the shuffle does not keep the chunks in order
+    Collections.reverse(base);
+    List<PItemAttribute> delta = Arrays.asList(
+        attr("A1", 4).toBuilder().setSerialNum(SERIAL_NUM).build(),
+        attr("B", 9).toBuilder().setSerialNum(SERIAL_NUM).build());
+
+    InMemoryEmitter<ByteBuffer> merged = new InMemoryEmitter<ByteBuffer>();
+    new MergePItemRecordFn(3).process(Pair.of(SERIAL_NUM,
+        Pair.<Collection<ByteBuffer>, Collection<PItemAttribute>> of(base,
+            delta)), merged);
+    List<PItemRecord> chunks = parse(merged.getOutput());
+    assertEquals(3, chunks.size());
+    for (int i = 0; i < chunks.size(); i++) {
+      assertEquals(i, chunks.get(i).getChunk());
+      assertEquals(i < chunks.size() - 1, chunks.get(i).getContinued());
+    }
+    assertEquals(2, chunks.get(2).getAttributesCount());
+
+    List<BytesWritable> values = Lists.newArrayList();
+    for (PItemRecord chunk : chunks) {
+      values.add(new BytesWritable(chunk.toByteArray()));
+    }
+    // a record that is not chunked follows
+    values.add(new BytesWritable(PItemRecord.newBuilder().setSerialNum("9XE05ASG")
+        .addAllAttributes(attrs(1)).build().toByteArray()));
+    PItemRecordLoadFunc loader = new PItemRecordLoadFunc(null, "true");
+    loader.setUDFContextSignature("load");
+    loader.prepareToRead(new ProtobufStorageTest.ListReader(values), null);
+    PigToProtobuf toProto = new PigToProtobuf(PItemRecord.newBuilder(), null);
+
+    Tuple tuple = loader.getNext();
+    List<PItemAttribute> expected = Lists.newArrayList(attrs(7));
+    expected.add(attr("B", 9));
+    assertEquals(PItemRecord.newBuilder().setSerialNum(SERIAL_NUM).setStatus("P")
+        .addAllAttributes(expected).build(), toProto.toMessage(tuple));
+    tuple = loader.getNext();
+    assertEquals("9XE05ASG", tuple.get(0));
+    assertNull(loader.getNext());
+  }
+
+  public void testMissingChunk() throws Exception {
+    InMemoryEmitter<PItemRecord> chunked = new InMemoryEmitter<PItemRecord>();
+    PItemRecordChunks.emit(SERIAL_NUM, attrs(4).iterator(), 3, false, chunked);
+    PItemRecordLoadFunc loader = new PItemRecordLoadFunc(null, "true");
+    loader.setUDFContextSignature("load");
+    loader.prepareToRead(new ProtobufStorageTest.ListReader(Arrays.asList(
+        new BytesWritable(chunked.getOutput().get(0).toByteArray()))), null);
+    try {
+      loader.getNext();
+      fail("The last chunk is missing");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
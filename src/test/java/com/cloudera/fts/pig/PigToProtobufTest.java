@@ -0,0 +1,79 @@
+package com.cloudera.fts.pig;
+
+import java.util.Arrays;
+
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.util.Utils;
+
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.Item.PackedAttributes;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the mapping of the Pig fields onto the message fields.
+ */
+public class PigToProtobufTest extends TestCase {
+
+  private static final TupleFactory TUPLES = TupleFactory.getInstance();
+
+  private static ResourceSchema schema(String schema) throws Exception {
+    return new ResourceSchema(Utils.getSchemaFromString(schema));
+  }
+
+  public void testByName() throws Exception {
+    PigToProtobuf converter = new PigToProtobuf(PItemRecord.newBuilder(),
+        schema("r::status:chararray, serial_num:chararray, chunk:long"));
+    PItemRecord record = (PItemRecord) converter.toMessage(
+        TUPLES.newTuple(Arrays.<Object> asList("OK", "9XE05ASF", 3L)));
+    assertEquals("9XE05ASF", record.getSerialNum());
+    assertEquals("OK", record.getStatus());
+    assertEquals(3, record.getChunk());
+    assertFalse(record.hasContinued());
+  }
+
+  public void testNullLeavesUnset() throws Exception {
+    PigToProtobuf converter = new PigToProtobuf(PItemRecord.newBuilder(),
+        schema("serial_num:chararray, status:chararray"));
+    PItemRecord record = (PItemRecord) converter.toMessage(
+        TUPLES.newTuple(Arrays.<Object> asList("9XE05ASF", null)));
+    assertTrue(record.hasSerialNum());
+    assertFalse(record.hasStatus());
+  }
+
+  public void testRepeatedScalarBag() throws Exception {
+    PigToProtobuf converter = new PigToProtobuf(PackedAttributes.newBuilder(),
+        schema("names_bag:bag{t:(names:chararray)}, name_ids:bag{t:(name_ids:int)}"));
+    DataBag names = BagFactory.getInstance().newDefaultBag();
+    names.add(TUPLES.newTuple("AAB"));
+    names.add(TUPLES.newTuple("ZZ"));
+    DataBag ids = BagFactory.getInstance().newDefaultBag();
+    ids.add(TUPLES.newTuple(-1));
+    PackedAttributes packed = (PackedAttributes) converter.toMessage(
+        TUPLES.newTuple(Arrays.<Object> asList(names, ids)));
+    assertEquals(Arrays.asList("AAB", "ZZ"), packed.getNamesList());
+    assertEquals(Arrays.asList(-1), packed.getNameIdsList());
+  }
+
+  public void testByPosition() throws Exception {
+    PigToProtobuf converter = new PigToProtobuf(PItemRecord.newBuilder(), null);
+    PItemRecord record = (PItemRecord) converter.toMessage(
+        TUPLES.newTuple(Arrays.<Object> asList("9XE05ASF", "OK")));
+    assertEquals("9XE05ASF", record.getSerialNum());
+    assertEquals("OK", record.getStatus());
+  }
+
+  public void testUnknownField() throws Exception {
+    try {
+      new PigToProtobuf(PItemRecord.newBuilder(), schema("serial:chararray"));
+      fail();
+    } catch (FrontendException e) {
+      // expected
+    }
+  }
+}
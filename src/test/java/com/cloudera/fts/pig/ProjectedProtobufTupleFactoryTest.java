@@ -0,0 +1,101 @@
+package com.cloudera.fts.pig;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pig.LoadPushDown.RequiredField;
+import org.apache.pig.LoadPushDown.RequiredFieldList;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.cloudera.fts.proto.Item.PackedAttributes;
+import com.google.common.primitives.Bytes;
+import com.google.protobuf.ByteString;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the projected tuples decoded from the serialized messages.
+ */
+public class ProjectedProtobufTupleFactoryTest extends TestCase {
+
+  private static final PItemRecord FIRST = PItemRecord.newBuilder().setSerialNum("9XE05ASF")
+      .setStatus("OK").setChunk(0).setContinued(true)
+      .addAttributes(PItemAttribute.newBuilder().setName("AAB").setSeq(4L).setValue("199.22"))
+      .addAttributes(PItemAttribute.newBuilder().setName("ZZ").setSeq(9L).setInt(3))
+      .setPacked(PackedAttributes.newBuilder().addNames("AAB").addSeqDeltas(4L)
+          .setValues(ByteString.copyFromUtf8("199.22")))
+      .build();
+
+  // a second occurrence of each field, as in a concatenation of messages
+  private static final PItemRecord SECOND = PItemRecord.newBuilder().setStatus("FAIL")
+      .setChunk(1)
+      .addAttributes(PItemAttribute.newBuilder().setName("AAC").setSeq(12L).setValue("\u00e9"))
+      .setPacked(PackedAttributes.newBuilder().addNames("ZZ").addNameIds(1).addSeqDeltas(5L))
+      .build();
+
+  public void testAllFields() throws Exception {
+    assertDecoded(new ProjectedProtobufTupleFactory(PItemRecord.getDefaultInstance(), null));
+  }
+
+  public void testFlatProjection() throws Exception {
+    // out of the schema order
+    assertDecoded(projection(field("continued", 5), field("status", 1), field("chunk", 4),
+        field("serial_num", 0)));
+  }
+
+  public void testNestedProjection() throws Exception {
+    ProjectedProtobufTupleFactory factory = projection(field("serial_num", 0),
+        field("attributes", 2, field("value", 3), field("name", 2)),
+        field("packed", 3, field("seq_deltas", 2), field("names", 0)));
+    assertDecoded(factory);
+
+    // the two occurrences of the singular packed field are merged
+    Tuple packed = (Tuple) decode(factory, FIRST, SECOND).get(2);
+    assertEquals(5, packed.size());
+    assertEquals(2L, ((DataBag) packed.get(0)).size());
+    assertEquals(2L, ((DataBag) packed.get(2)).size());
+    assertNull(packed.get(1));
+    assertNull(packed.get(4));
+  }
+
+  public void testMissingNested() throws Exception {
+    ProjectedProtobufTupleFactory factory = projection(
+        field("attributes", 2, field("name", 2)), field("packed", 3, field("names", 0)));
+    PItemRecord record = PItemRecord.newBuilder().setSerialNum("9XE05ASF").build();
+    assertEquals(factory.newTuple(record), decode(factory, record));
+  }
+
+  private static void assertDecoded(ProjectedProtobufTupleFactory factory) throws Exception {
+    assertEquals(factory.newTuple(FIRST), decode(factory, FIRST));
+    assertEquals(factory.newTuple(SECOND), decode(factory, SECOND));
+    PItemRecord merged = FIRST.toBuilder().mergeFrom(SECOND).build();
+    assertEquals(factory.newTuple(merged), decode(factory, FIRST, SECOND));
+  }
+
+  /**
+   * Decode the concatenation of the messages, offset in a larger buffer
+   */
+  private static Tuple decode(ProjectedProtobufTupleFactory factory, PItemRecord... records)
+      throws Exception {
+    byte[] bytes = new byte[] { 7 };
+    for (PItemRecord record : records) {
+      bytes = Bytes.concat(bytes, record.toByteArray());
+    }
+    bytes = Bytes.concat(bytes, new byte[] { 7, 7 });
+    return factory.newTuple(bytes, 1, bytes.length - 3);
+  }
+
+  private static ProjectedProtobufTupleFactory projection(RequiredField... fields) {
+    RequiredFieldList requiredFields = new RequiredFieldList(Arrays.asList(fields));
+    return new ProjectedProtobufTupleFactory(PItemRecord.getDefaultInstance(), requiredFields);
+  }
+
+  private static RequiredField field(String alias, int index, RequiredField... subFields) {
+    List<RequiredField> sub = subFields.length == 0 ? null : Arrays.asList(subFields);
+    return new RequiredField(alias, index, sub, sub == null ? DataType.UNKNOWN : DataType.TUPLE);
+  }
+}
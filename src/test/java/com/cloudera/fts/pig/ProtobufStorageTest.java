@@ -0,0 +1,157 @@
+package com.cloudera.fts.pig;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.util.Utils;
+
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for storing tuples with {@link ProtobufStorage} and loading them
+ * back with {@link ProtobufLoadFunc}.
+ */
+public class ProtobufStorageTest extends TestCase {
+
+  private static final TupleFactory TUPLES = TupleFactory.getInstance();
+
+  /** Keeps copies of the written values */
+  private static class ListWriter extends RecordWriter<NullWritable, BytesWritable> {
+    private final List<BytesWritable> values = Lists.newArrayList();
+
+    @Override
+    public void write(NullWritable key, BytesWritable value) {
+      values.add(new BytesWritable(Arrays.copyOf(value.getBytes(), value.getLength())));
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) {
+    }
+  }
+
+  /** Reads the values kept by a {@link ListWriter} */
+  static class ListReader extends RecordReader<NullWritable, BytesWritable> {
+    private final Iterator<BytesWritable> values;
+    private BytesWritable current;
+
+    ListReader(List<BytesWritable> values) {
+      this.values = values.iterator();
+    }
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) {
+    }
+
+    @Override
+    public boolean nextKeyValue() {
+      current = values.hasNext() ? values.next() : null;
+      return current != null;
+    }
+
+    @Override
+    public NullWritable getCurrentKey() {
+      return NullWritable.get();
+    }
+
+    @Override
+    public BytesWritable getCurrentValue() {
+      return current;
+    }
+
+    @Override
+    public float getProgress() {
+      return 0.0f;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static List<BytesWritable> store(ResourceSchema schema, Tuple... tuples)
+      throws IOException {
+    ProtobufStorage storage = new ProtobufStorage(PItemRecord.class.getName());
+    storage.setStoreFuncUDFContextSignature("store");
+    storage.checkSchema(schema);
+    ListWriter writer = new ListWriter();
+    storage.prepareToWrite(writer);
+    for (Tuple tuple : tuples) {
+      storage.putNext(tuple);
+    }
+    return writer.values;
+  }
+
+  private static List<Tuple> load(List<BytesWritable> values) throws IOException {
+    ProtobufLoadFunc loader = new ProtobufLoadFunc(PItemRecord.class);
+    loader.setUDFContextSignature("load");
+    loader.prepareToRead(new ListReader(values), null);
+    List<Tuple> tuples = Lists.newArrayList();
+    Tuple tuple;
+    while ((tuple = loader.getNext()) != null) {
+      tuples.add(tuple);
+    }
+    return tuples;
+  }
+
+  public void testRoundTrip() throws Exception {
+    ResourceSchema schema = new ResourceSchema(Utils.getSchemaFromString(
+        "status:chararray, serial_num:chararray, "
+            + "attributes:bag{t:(name:chararray, seq:long, value:chararray)}"));
+    DataBag attributes = BagFactory.getInstance().newDefaultBag();
+    attributes.add(TUPLES.newTuple(Arrays.<Object> asList("AAB", 4L, "199.22")));
+    attributes.add(TUPLES.newTuple(Arrays.<Object> asList("ZZ", 9L, null)));
+    Tuple first = TUPLES.newTuple(Arrays.<Object> asList("OK", "9XE05ASF", attributes));
+    Tuple second = TUPLES.newTuple(Arrays.<Object> asList(null, "9XE05ASG", null));
+
+    List<BytesWritable> values = store(schema, first, second);
+    assertEquals(2, values.size());
+    List<Tuple> loaded = load(values);
+    assertEquals(2, loaded.size());
+
+    Tuple record = loaded.get(0);
+    assertEquals("9XE05ASF", record.get(0));
+    assertEquals("OK", record.get(1));
+    DataBag loadedAttributes = (DataBag) record.get(2);
+    assertEquals(2L, loadedAttributes.size());
+    Iterator<Tuple> it = loadedAttributes.iterator();
+    Tuple attribute = it.next();
+    // serial_num, seq, name, value, int
+    assertNull(attribute.get(0));
+    assertEquals(4L, attribute.get(1));
+    assertEquals("AAB", attribute.get(2));
+    assertEquals("199.22", attribute.get(3));
+    attribute = it.next();
+    assertEquals("ZZ", attribute.get(2));
+    assertNull(attribute.get(3));
+
+    record = loaded.get(1);
+    assertEquals("9XE05ASG", record.get(0));
+    assertNull(record.get(1));
+    assertEquals(0L, ((DataBag) record.get(2)).size());
+
+    // the loaded tuples map back onto the same messages
+    PigToProtobuf byPosition = new PigToProtobuf(PItemRecord.newBuilder(), null);
+    for (int i = 0; i < values.size(); i++) {
+      BytesWritable value = values.get(i);
+      PItemRecord expected = PItemRecord.newBuilder()
+          .mergeFrom(value.getBytes(), 0, value.getLength()).build();
+      assertEquals(expected, byPosition.toMessage(loaded.get(i)));
+    }
+  }
+}
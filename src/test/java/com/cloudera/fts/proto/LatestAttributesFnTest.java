@@ -0,0 +1,68 @@
+package com.cloudera.fts.proto;
+
+import java.util.List;
+
+import org.apache.crunch.Pair;
+import org.apache.crunch.impl.mem.emit.InMemoryEmitter;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the latest value of each attribute.
+ */
+public class LatestAttributesFnTest extends TestCase {
+
+  // out of order, with a tie on AAB at seq 7
+  private static final List<PItemAttribute> ATTRIBUTES = ImmutableList.of(
+      attr(9, "AAA", "a9"), attr(3, "AAA", "a3"), attr(7, "AAB", "b7y"),
+      attr(2, "AAC", "c2"), attr(7, "AAB", "b7x"), attr(12, "AAA", "a12"),
+      attr(1, "AAB", "b1"), attr(7, "AAC", "c7"));
+
+  private static final PItemRecord LATEST = PItemRecord.newBuilder().setSerialNum("SN1")
+      .setStatus("P").addAttributes(attr(7, "AAB", "b7y").toBuilder().clearSerialNum())
+      .addAttributes(attr(7, "AAC", "c7").toBuilder().clearSerialNum())
+      .addAttributes(attr(12, "AAA", "a12").toBuilder().clearSerialNum()).build();
+
+  public void testLatest() {
+    List<PItemRecord> records = Lists.newArrayList();
+    for (PItemAttribute attr : ATTRIBUTES) {
+      records.add(LatestAttributesFn.wrap(attr));
+    }
+    // the salted key is kept, the record has the serial number
+    assertEquals(Pair.of("SN1#1", LATEST), latest("SN1#1", records));
+    assertEquals(Pair.of("SN1#1", LATEST), latest("SN1#1", Lists.reverse(records)));
+  }
+
+  public void testCombined() {
+    // each half is combined on its own, the combined records are reduced
+    List<PItemRecord> first = Lists.newArrayList();
+    List<PItemRecord> second = Lists.newArrayList();
+    for (int i = 0; i < ATTRIBUTES.size(); i++) {
+      (i % 2 == 0 ? first : second).add(LatestAttributesFn.wrap(ATTRIBUTES.get(i)));
+    }
+    PItemRecord combined = latest("SN1", first).second();
+    assertEquals(ImmutableList.of(attr(7, "AAB", "b7y").toBuilder().clearSerialNum().build(),
+        attr(9, "AAA", "a9").toBuilder().clearSerialNum().build()),
+        combined.getAttributesList());
+    List<PItemRecord> partials = ImmutableList.of(combined, latest("SN1", second).second());
+    assertEquals(Pair.of("SN1", LATEST), latest("SN1", partials));
+  }
+
+  private static Pair<String, PItemRecord> latest(String key, Iterable<PItemRecord> records) {
+    InMemoryEmitter<Pair<String, PItemRecord>> emitter =
+        new InMemoryEmitter<Pair<String, PItemRecord>>();
+    new LatestAttributesFn().process(Pair.of(key, records), emitter);
+    return Iterables.getOnlyElement(emitter.getOutput());
+  }
+
+  private static PItemAttribute attr(long seq, String name, String value) {
+    return PItemAttribute.newBuilder().setSerialNum("SN1").setSeq(seq).setName(name)
+        .setValue(value).build();
+  }
+}
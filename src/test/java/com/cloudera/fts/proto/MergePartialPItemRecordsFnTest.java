@@ -0,0 +1,132 @@
+package com.cloudera.fts.proto;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.crunch.Pair;
+import org.apache.crunch.impl.mem.emit.InMemoryEmitter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the merge of the partial records of the heavy serial numbers.
+ */
+public class MergePartialPItemRecordsFnTest extends TestCase {
+
+  // the partials of the salted keys, each seq-sorted
+  private static final List<PItemRecord> PARTIALS = ImmutableList.of(
+      partial(attr(3, "AAA"), attr(8, "AAB"), attr(9, "AAA")),
+      partial(attr(1, "AAB"), attr(5, "AAC")),
+      partial(attr(2, "AAA"), attr(4, "AAB"), attr(6, "AAA"), attr(7, "AAC")));
+
+  private final Configuration conf = new Configuration();
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("merge", "");
+    dir.delete();
+    dir.mkdirs();
+    conf.set("mapred.local.dir", dir.getPath());
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileSystem.getLocal(conf).delete(new Path(dir.getPath()), true);
+  }
+
+  public void testMerge() {
+    PItemRecord merged = Iterables.getOnlyElement(merge(new MergePartialPItemRecordsFn(false),
+        PARTIALS));
+    assertEquals("SN1", merged.getSerialNum());
+    assertEquals(ImmutableList.of(3L, 8L, 9L, 1L, 5L, 2L, 4L, 6L, 7L), seqs(merged));
+
+    merged = Iterables.getOnlyElement(merge(new MergePartialPItemRecordsFn(true), PARTIALS));
+    assertEquals(ImmutableList.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), seqs(merged));
+  }
+
+  public void testMergePacked() {
+    List<PItemRecord> packed = Lists.newArrayList();
+    for (PItemRecord partial : PARTIALS) {
+      packed.add(PackedRecords.pack(partial));
+    }
+    PItemRecord merged = Iterables.getOnlyElement(merge(new MergePartialPItemRecordsFn(true),
+        packed));
+    assertTrue(PackedRecords.isPacked(merged));
+    assertEquals(ImmutableList.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L),
+        seqs(PackedRecords.unpack(merged)));
+  }
+
+  public void testChunked() {
+    List<PItemRecord> chunks = merge(new MergePartialPItemRecordsFn(false, false, 4), PARTIALS);
+    assertChunks(chunks, 4);
+    assertEquals(ImmutableList.of(3L, 8L, 9L, 1L, 5L, 2L, 4L, 6L, 7L), seqs(chunks));
+  }
+
+  public void testSortedChunked() {
+    // at most 2 attributes in memory, the sort spills
+    List<PItemRecord> chunks = merge(new MergePartialPItemRecordsFn(true, false, 2) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected Configuration getConfiguration() {
+        return conf;
+      }
+    }, PARTIALS);
+    assertChunks(chunks, 2);
+    assertEquals(ImmutableList.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), seqs(chunks));
+  }
+
+  private static void assertChunks(List<PItemRecord> chunks, int maxAttributes) {
+    int last = 8 / maxAttributes;
+    assertEquals(last + 1, chunks.size());
+    for (int i = 0; i <= last; i++) {
+      PItemRecord chunk = chunks.get(i);
+      assertEquals("SN1", chunk.getSerialNum());
+      assertEquals(i, chunk.getChunk());
+      assertEquals(i < last, chunk.getContinued());
+      assertEquals(i < last ? maxAttributes : 9 - last * maxAttributes,
+          chunk.getAttributesCount());
+    }
+  }
+
+  private static List<PItemRecord> merge(MergePartialPItemRecordsFn fn,
+      Iterable<PItemRecord> partials) {
+    InMemoryEmitter<PItemRecord> emitter = new InMemoryEmitter<PItemRecord>();
+    fn.process(Pair.of("SN1", partials), emitter);
+    return emitter.getOutput();
+  }
+
+  private static List<Long> seqs(PItemRecord... records) {
+    return seqs(ImmutableList.copyOf(records));
+  }
+
+  private static List<Long> seqs(List<PItemRecord> records) {
+    List<Long> seqs = Lists.newArrayList();
+    for (PItemRecord record : records) {
+      for (PItemAttribute attr : record.getAttributesList()) {
+        seqs.add(attr.getSeq());
+      }
+    }
+    return seqs;
+  }
+
+  private static PItemRecord partial(PItemAttribute... attrs) {
+    return PItemRecord.newBuilder().setSerialNum("SN1").setStatus("P")
+        .addAllAttributes(ImmutableList.copyOf(attrs)).build();
+  }
+
+  private static PItemAttribute attr(long seq, String name) {
+    return PItemAttribute.newBuilder().setSeq(seq).setName(name).setValue("v" + seq).build();
+  }
+}
@@ -0,0 +1,169 @@
+package com.cloudera.fts.proto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.crunch.impl.mem.emit.InMemoryEmitter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.codehaus.jackson.JsonNode;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.collect.ImmutableList;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the statistics of the output messages.
+ */
+public class MessageStatsTest extends TestCase {
+
+  private static final List<PItemRecord> RECORDS = ImmutableList.of(
+      PItemRecord.newBuilder().setSerialNum("SN1").setStatus("OK")
+          .addAttributes(PItemAttribute.newBuilder().setName("AAB").setSeq(4L))
+          .addAttributes(PItemAttribute.newBuilder().setName("ZZ").setSeq(9L)).build(),
+      PItemRecord.newBuilder().setSerialNum("SN2").setStatus("FAIL").setChunk(0)
+          .setContinued(true).build(),
+      PItemRecord.newBuilder().setSerialNum("SN1").setChunk(1)
+          .addAttributes(PItemAttribute.newBuilder().setName("AAB").setSeq(12L)).build());
+
+  private final Configuration conf = new Configuration();
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("stats", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileSystem.getLocal(conf).delete(new Path(dir.getPath()), true);
+  }
+
+  public void testCounts() throws IOException {
+    MessageStats stats = stats(RECORDS);
+    assertEquals(3L, stats.getCount());
+    assertEquals(bytes(RECORDS), stats.getBytes());
+    assertFields(stats);
+  }
+
+  public void testMerge() throws IOException {
+    MessageStats stats = stats(RECORDS.subList(0, 1));
+    stats.merge(stats(RECORDS.subList(1, 3)));
+    assertEquals(3L, stats.getCount());
+    assertEquals(bytes(RECORDS), stats.getBytes());
+    assertFields(stats);
+    try {
+      stats.merge(new MessageStats(PItemAttribute.getDescriptor(), MessageStats.DEFAULT_LOG2M));
+      fail("Stats of different messages");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testByteBuffer() throws IOException {
+    MessageStats stats = MessageStats.fromByteBuffer(stats(RECORDS).toByteBuffer());
+    assertEquals(3L, stats.getCount());
+    assertEquals(bytes(RECORDS), stats.getBytes());
+    assertFields(stats);
+  }
+
+  public void testEmpty() throws IOException {
+    JsonNode sidecar = sidecar(stats(ImmutableList.<PItemRecord> of()));
+    assertEquals(0L, sidecar.path("records").getLongValue());
+    assertEquals(0L, sidecar.path("avg_record_size").getLongValue());
+    assertEquals(0L, MessageStats.distinct(sidecar, "serial_num"));
+    assertNull(MessageStats.readSidecar(conf, new Path(dir.getPath(), "missing")));
+  }
+
+  public void testFn() throws IOException {
+    Path statsDir = new Path(dir.getPath(), "_stats");
+    MessageStatsFn<PItemRecord> fn = new MessageStatsFn<PItemRecord>(PItemRecord.class,
+        MessageStats.DEFAULT_LOG2M, statsDir.toString());
+    fn.initialize();
+    InMemoryEmitter<PItemRecord> emitter = new InMemoryEmitter<PItemRecord>();
+    for (PItemRecord record : RECORDS) {
+      fn.process(record, emitter);
+    }
+    // the messages are passed through
+    assertEquals(RECORDS, emitter.getOutput());
+
+    TaskAttemptID attempt = TaskAttemptID.forName("attempt_201301010000_0001_m_000003_0");
+    fn.write(conf, attempt);
+    Path file = new Path(statsDir, attempt.getTaskID().toString());
+    FileSystem fs = FileSystem.getLocal(conf);
+    assertFalse(fs.exists(new Path(statsDir, "_" + attempt)));
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, conf);
+    try {
+      BytesWritable value = new BytesWritable();
+      assertTrue(reader.next(NullWritable.get(), value));
+      MessageStats stats = MessageStats.fromByteBuffer(
+          ByteBuffer.wrap(value.getBytes(), 0, value.getLength()));
+      assertEquals(3L, stats.getCount());
+      assertEquals(bytes(RECORDS), stats.getBytes());
+      assertFields(stats);
+      assertFalse(reader.next(NullWritable.get(), value));
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void assertFields(MessageStats stats) throws IOException {
+    JsonNode sidecar = sidecar(stats);
+    assertEquals(3L, sidecar.path("records").getLongValue());
+    assertEquals(bytes(RECORDS), sidecar.path("bytes").getLongValue());
+    assertEquals(bytes(RECORDS) / 3, sidecar.path("avg_record_size").getLongValue());
+
+    // unset or empty fields, in the order of the schema
+    long[] nulls = { 0L, 1L, 1L, 3L, 1L, 2L };
+    List<JsonNode> fields = ImmutableList.copyOf(sidecar.path("fields").getElements());
+    assertEquals(nulls.length, fields.size());
+    for (int i = 0; i < nulls.length; i++) {
+      String name = PItemRecord.getDescriptor().getFields().get(i).getName();
+      assertEquals(name, fields.get(i).path("name").getTextValue());
+      assertEquals(name, nulls[i], fields.get(i).path("nulls").getLongValue());
+    }
+
+    // the estimates of a few values are exact, the message fields have none
+    assertEquals(2L, MessageStats.distinct(sidecar, "serial_num"));
+    assertEquals(2L, MessageStats.distinct(sidecar, "status"));
+    assertEquals(-1L, MessageStats.distinct(sidecar, "attributes"));
+    assertEquals(-1L, MessageStats.distinct(sidecar, "packed"));
+    assertEquals(2L, MessageStats.distinct(sidecar, "chunk"));
+    assertEquals(1L, MessageStats.distinct(sidecar, "continued"));
+    assertEquals(-1L, MessageStats.distinct(sidecar, "unknown"));
+  }
+
+  private JsonNode sidecar(MessageStats stats) throws IOException {
+    Path output = new Path(dir.getPath(), "output");
+    stats.write(conf, new Path(output, MessageStats.FILE_NAME));
+    return MessageStats.readSidecar(conf, output);
+  }
+
+  private static MessageStats stats(List<PItemRecord> records) {
+    MessageStats stats = new MessageStats(PItemRecord.getDescriptor(),
+        MessageStats.DEFAULT_LOG2M);
+    for (PItemRecord record : records) {
+      stats.add(record);
+    }
+    return stats;
+  }
+
+  private static long bytes(List<PItemRecord> records) {
+    long bytes = 0L;
+    for (PItemRecord record : records) {
+      bytes += record.getSerializedSize();
+    }
+    return bytes;
+  }
+}
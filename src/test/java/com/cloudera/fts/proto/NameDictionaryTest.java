@@ -0,0 +1,92 @@
+package com.cloudera.fts.proto;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the attribute name dictionary.
+ */
+public class NameDictionaryTest extends TestCase {
+
+  private final Configuration conf = new Configuration();
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("dictionary", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileSystem.getLocal(conf).delete(new Path(dir.getPath()), true);
+  }
+
+  public void testIds() {
+    NameDictionary dictionary = new NameDictionary(Arrays.asList("AAB", "ZZ"));
+    assertEquals(0, dictionary.getId("AAB"));
+    assertEquals(1, dictionary.getId("ZZ"));
+    assertEquals(-1, dictionary.getId("AAC"));
+    assertEquals("ZZ", dictionary.getName(1));
+    try {
+      dictionary.getName(2);
+      fail("Unknown id");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    NameDictionary extended = dictionary.extend(Arrays.asList("ZZ", "B", "A"));
+    assertEquals(4, extended.size());
+    assertEquals(1, extended.getId("ZZ"));
+    assertEquals(2, extended.getId("A"));
+    assertEquals(3, extended.getId("B"));
+    // the ids are rebuilt when a function ships the dictionary
+    NameDictionary copy = (NameDictionary) SerializationUtils.clone(extended);
+    assertEquals(3, copy.getId("B"));
+  }
+
+  public void testResolve() {
+    NameDictionary dictionary = new NameDictionary(Arrays.asList("AAB", "ZZ"));
+    PItemAttribute encoded = PItemAttribute.newBuilder().setName("").setInt(1).setSeq(4L)
+        .build();
+    assertEquals(PItemAttribute.newBuilder().setName("ZZ").setSeq(4L).build(),
+        dictionary.resolve(encoded));
+  }
+
+  public void testWriteRead() throws IOException {
+    Path path = new Path(dir.getPath(), "names.txt");
+    assertEquals(0, NameDictionary.read(conf, path).size());
+    new NameDictionary(Arrays.asList("AAB", "ZZ", "\u00e9")).write(conf, path);
+    NameDictionary read = NameDictionary.read(conf, path);
+    assertEquals(3, read.size());
+    assertEquals(2, read.getId("\u00e9"));
+    // no temporary file is left
+    assertEquals(1, FileSystem.getLocal(conf).listStatus(new Path(dir.getPath())).length);
+  }
+
+  public void testCachePerVersion() throws IOException {
+    Path path = new Path(dir.getPath(), "names.txt");
+    FileSystem fs = path.getFileSystem(conf);
+    new NameDictionary(Arrays.asList("AAB")).write(conf, path);
+    NameDictionary first = NameDictionary.get(conf, path.toString());
+    assertSame(first, NameDictionary.get(conf, path.toString()));
+    long modificationTime = fs.getFileStatus(path).getModificationTime();
+
+    new NameDictionary(Arrays.asList("AAB", "ZZ")).write(conf, path);
+    // the clock of the file system may not have moved on
+    fs.setTimes(path, modificationTime + 1000L, -1L);
+    NameDictionary second = NameDictionary.get(conf, path.toString());
+    assertEquals(2, second.size());
+    assertSame(second, NameDictionary.get(conf, path.toString()));
+  }
+}
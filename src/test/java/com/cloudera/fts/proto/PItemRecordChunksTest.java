@@ -0,0 +1,91 @@
+package com.cloudera.fts.proto;
+
+import java.util.List;
+
+import org.apache.crunch.impl.mem.emit.InMemoryEmitter;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the chunking of the records of giant entities.
+ */
+public class PItemRecordChunksTest extends TestCase {
+
+  public void testChunks() {
+    List<PItemRecord> chunks = emit(attributes(7), 3, false);
+    assertEquals(3, chunks.size());
+    for (int i = 0; i < chunks.size(); i++) {
+      PItemRecord chunk = chunks.get(i);
+      assertEquals("SN1", chunk.getSerialNum());
+      assertEquals(i, chunk.getChunk());
+      assertEquals(i < 2, chunk.getContinued());
+      assertEquals(i < 2 ? 3 : 1, chunk.getAttributesCount());
+    }
+    assertEquals(attributes(7), reassemble(chunks));
+  }
+
+  public void testFits() {
+    // a record that fits is not chunked, even when it is full
+    for (int count = 0; count <= 3; count++) {
+      PItemRecord record = emit(attributes(count), 3, false).get(0);
+      assertFalse(record.hasChunk());
+      assertFalse(record.hasContinued());
+      assertEquals(attributes(count), record.getAttributesList());
+    }
+  }
+
+  public void testExactMultiple() {
+    List<PItemRecord> chunks = emit(attributes(6), 3, false);
+    assertEquals(2, chunks.size());
+    assertTrue(chunks.get(0).getContinued());
+    assertEquals(1, chunks.get(1).getChunk());
+    assertFalse(chunks.get(1).getContinued());
+    assertEquals(3, chunks.get(1).getAttributesCount());
+  }
+
+  public void testPacked() {
+    List<PItemRecord> chunks = emit(attributes(5), 2, true);
+    assertEquals(3, chunks.size());
+    List<PItemRecord> unpacked = Lists.newArrayList();
+    for (PItemRecord chunk : chunks) {
+      assertTrue(PackedRecords.isPacked(chunk));
+      unpacked.add(PackedRecords.unpack(chunk));
+    }
+    assertEquals(2, unpacked.get(2).getChunk());
+    assertEquals(attributes(5), reassemble(unpacked));
+  }
+
+  private static List<PItemRecord> emit(List<PItemAttribute> attrs, int maxAttributes,
+      boolean packed) {
+    InMemoryEmitter<PItemRecord> emitter = new InMemoryEmitter<PItemRecord>();
+    // the serial_num of the attributes is cleared
+    List<PItemAttribute> withSerialNum = Lists.newArrayList();
+    for (PItemAttribute attr : attrs) {
+      withSerialNum.add(attr.toBuilder().setSerialNum("SN1").build());
+    }
+    assertEquals(attrs.size(), PItemRecordChunks.emit("SN1", withSerialNum.iterator(),
+        maxAttributes, packed, emitter));
+    return emitter.getOutput();
+  }
+
+  private static List<PItemAttribute> reassemble(List<PItemRecord> chunks) {
+    List<PItemAttribute> attrs = Lists.newArrayList();
+    for (PItemRecord chunk : chunks) {
+      attrs.addAll(chunk.getAttributesList());
+    }
+    return attrs;
+  }
+
+  private static List<PItemAttribute> attributes(int count) {
+    List<PItemAttribute> attrs = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      attrs.add(PItemAttribute.newBuilder().setSeq(i).setName("A" + (i % 2))
+          .setValue(Integer.toString(i)).build());
+    }
+    return attrs;
+  }
+}
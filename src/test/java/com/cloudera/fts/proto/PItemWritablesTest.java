@@ -0,0 +1,99 @@
+package com.cloudera.fts.proto;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the raw comparators of the attribute writable.
+ */
+public class PItemWritablesTest extends TestCase {
+
+  private static PItemAttribute attribute(String serialNum, Long seq, String name) {
+    PItemAttribute.Builder b = PItemAttribute.newBuilder().setName(name);
+    if (serialNum != null) {
+      b.setSerialNum(serialNum);
+    }
+    if (seq != null) {
+      b.setSeq(seq);
+    }
+    return b.build();
+  }
+
+  private static byte[] serialize(BytesWritable w) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    w.write(out);
+    byte[] bytes = new byte[out.getLength() + 3];
+    // not at the start of the buffer, as in a merge
+    System.arraycopy(out.getData(), 0, bytes, 3, out.getLength());
+    return bytes;
+  }
+
+  private static int sign(int cmp) {
+    return cmp < 0 ? -1 : (cmp > 0 ? 1 : 0);
+  }
+
+  private static void assertConsistent(List<? extends BytesWritable> sorted) throws IOException {
+    WritableComparator comparator = WritableComparator.get(sorted.get(0).getClass());
+    for (int i = 0; i < sorted.size(); i++) {
+      for (int j = 0; j < sorted.size(); j++) {
+        BytesWritable a = sorted.get(i);
+        BytesWritable b = sorted.get(j);
+        byte[] ra = serialize(a);
+        byte[] rb = serialize(b);
+        int expected = sign(Integer.valueOf(i).compareTo(j));
+        assertEquals(i + " vs " + j, expected, sign(a.compareTo(b)));
+        assertEquals(i + " vs " + j, expected,
+            sign(comparator.compare(ra, 3, ra.length - 3, rb, 3, rb.length - 3)));
+      }
+    }
+  }
+
+  public void testAttributeOrder() throws IOException {
+    List<PItemAttributeWritable> sorted = Lists.newArrayList();
+    // a missing serial_num first, then serial_num, seq (signed) and the bytes
+    for (PItemAttribute attr : new PItemAttribute[] {
+        attribute(null, 5L, "AAB"),
+        attribute("9XE05ASF", -3L, "ZZ"),
+        attribute("9XE05ASF", null, "ZZ"),
+        attribute("9XE05ASF", 4L, "AAB"),
+        attribute("9XE05ASF", 4L, "AAC"),
+        attribute("9XE05ASF", 300L, "AAA"),
+        attribute("9XE05ASFA", 1L, "AAA"),
+        attribute("9XE05ASG", 0L, "AAA") }) {
+      sorted.add(new PItemAttributeWritable(attr.toByteArray()));
+    }
+    assertConsistent(sorted);
+  }
+
+  public void testGroupedOnSerialNum() throws IOException {
+    PItemAttributeWritable a = new PItemAttributeWritable(
+        attribute("9XE05ASF", 4L, "").toByteArray());
+    PItemAttributeWritable b = new PItemAttributeWritable(
+        attribute("9XE05ASF", 300L, "").toByteArray());
+    PItemAttributeWritable c = new PItemAttributeWritable(
+        attribute("9XE05ASG", 4L, "").toByteArray());
+    WritableComparator grouping = new PItemAttributeWritable.SerialNumComparator();
+    byte[] ra = serialize(a);
+    byte[] rb = serialize(b);
+    byte[] rc = serialize(c);
+    assertEquals(0, grouping.compare(ra, 3, ra.length - 3, rb, 3, rb.length - 3));
+    assertEquals(-1, sign(grouping.compare(ra, 3, ra.length - 3, rc, 3, rc.length - 3)));
+    assertEquals(0, grouping.compare(a, b));
+    assertEquals(1, sign(grouping.compare(c, b)));
+    PItemAttributeWritable.SerialNumPartitioner partitioner =
+        new PItemAttributeWritable.SerialNumPartitioner();
+    for (int partitions = 1; partitions < 20; partitions++) {
+      assertEquals(partitioner.getPartition(a, null, partitions),
+          partitioner.getPartition(b, null, partitions));
+    }
+  }
+}
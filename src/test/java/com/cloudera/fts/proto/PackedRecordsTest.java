@@ -0,0 +1,44 @@
+package com.cloudera.fts.proto;
+
+import com.cloudera.fts.proto.Item.PItemAttribute;
+import com.cloudera.fts.proto.Item.PItemRecord;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for packing and unpacking the attributes of a record.
+ */
+public class PackedRecordsTest extends TestCase {
+
+  private static PItemRecord record() {
+    return PItemRecord.newBuilder()
+        .setSerialNum("9XE05ASF")
+        .setStatus("OK")
+        .addAttributes(PItemAttribute.newBuilder().setName("AAB").setSeq(4L).setValue("199.22"))
+        .addAttributes(PItemAttribute.newBuilder().setName("").setInt(17).setSeq(2L).setValue("x"))
+        .addAttributes(PItemAttribute.newBuilder().setName("AAB").setSeq(9L))
+        .addAttributes(PItemAttribute.newBuilder().setName("ZZ").setSeq(9L).setValue("\u00e9,\n"))
+        .build();
+  }
+
+  public void testRoundTrip() {
+    PItemRecord record = record();
+    PItemRecord packed = PackedRecords.pack(record);
+    assertTrue(PackedRecords.isPacked(packed));
+    assertEquals(0, packed.getAttributesCount());
+    assertEquals(2, packed.getPacked().getNamesCount());
+    assertEquals(record, PackedRecords.unpack(packed));
+  }
+
+  public void testEmptyRecord() {
+    PItemRecord record = PItemRecord.newBuilder().setSerialNum("9XE05ASF").build();
+    assertEquals(record, PackedRecords.unpack(PackedRecords.pack(record)));
+  }
+
+  public void testSameInstance() {
+    PItemRecord record = record();
+    assertSame(record, PackedRecords.unpack(record));
+    PItemRecord packed = PackedRecords.pack(record);
+    assertSame(packed, PackedRecords.pack(packed));
+  }
+}
@@ -0,0 +1,30 @@
+package com.cloudera.fts.proto;
+
+import com.cloudera.fts.proto.Item.PItemRecord;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the fields the outputs can be partitioned on.
+ */
+public class PartitionedProtoOutputFormatTest extends TestCase {
+
+  public void testSupportedFields() {
+    for (String name : new String[] { "serial_num", "status", "chunk" }) {
+      assertEquals(name, PartitionedProtoOutputFormat.partitionField(
+          PItemRecord.getDefaultInstance(), name).getName());
+    }
+  }
+
+  public void testUnsupportedFields() {
+    // missing, repeated, bool and message fields
+    for (String name : new String[] { "missing", "attributes", "continued", "packed" }) {
+      try {
+        PartitionedProtoOutputFormat.partitionField(PItemRecord.getDefaultInstance(), name);
+        fail("Partitioned on " + name);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}